@@ -0,0 +1,29 @@
+#!/bin/bash
+
+# Allocation benchmark for the tree walker's unboxed numeric path (see Interpreter.evaluateDouble)
+# Runs a benchmark with and without --no-unboxed and reports how many young collections it
+# took. The young generation is pinned to a fixed size, so collections x size ~ bytes allocated.
+#
+# usage: bench/alloc.sh [bench/<file>.lox] [extra jlox args...]
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+JLOX_DIR="$(dirname "$SCRIPT_DIR")"
+BENCH="${1:-$SCRIPT_DIR/numeric.lox}"
+shift
+YOUNG_MB=32
+
+run() {
+    local log
+    log=$(mktemp)
+    java -XX:+UseSerialGC -Xmn${YOUNG_MB}m -Xlog:gc:file="$log" \
+        -cp "$JLOX_DIR/bin" com.craftinginterpreters.lox.Lox "$@" "$BENCH" | sed 's/^/    /'
+    local gcs
+    gcs=$(grep -c "Pause Young" "$log")
+    echo "    young GCs: $gcs (~$((gcs * YOUNG_MB)) MB allocated)"
+    rm -f "$log"
+}
+
+echo "unboxed (default):"
+run "$@"
+echo "boxed (--no-unboxed):"
+run --no-unboxed "$@"
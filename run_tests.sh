@@ -7,6 +7,11 @@ SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
 JLOX_DIR="$SCRIPT_DIR"
 TEST_DIR="$JLOX_DIR/test"
 LOG_FILE="$JLOX_DIR/test_results.log"
+# How to run a script (e.g. JLOX="java -cp bin com.craftinginterpreters.lox.Client" with a jlox --server up)
+JLOX="${JLOX:-java -cp bin com.craftinginterpreters.lox.Lox}"
+# A cache of our own (see AstCache): a test's first run parses it, a second one loads it
+CACHE_DIR="$(mktemp -d)"
+trap 'rm -rf "$CACHE_DIR"' EXIT
 
 # Colors for output
 RED='\033[0;31m'
@@ -53,7 +58,7 @@ for test_file in "$TEST_DIR"/*.lox; do
         
         # Run the test and capture output and exit code
         cd "$JLOX_DIR"
-        output=$(java -cp bin com.craftinginterpreters.lox.Lox "$test_file" 2>&1)
+        output=$($JLOX --cache-dir="$CACHE_DIR" "$test_file" 2>&1)
         exit_code=$?
         
         # Log detailed results
@@ -66,7 +71,20 @@ for test_file in "$TEST_DIR"/*.lox; do
         
         # Determine if test passed or failed
         # Consider exit code 0 as pass, non-zero as fail
-        # You might want to adjust this logic based on your test expectations
+        # A test with a .out file next to it must also print exactly what's in it, and print it
+        # again when it's run from the cache
+        expected_file="${test_file%.lox}.out"
+        if [[ $exit_code -eq 0 && -f "$expected_file" && "$output" != "$(cat "$expected_file")" ]]; then
+            exit_code=1
+            output=$(diff <(echo "$output") "$expected_file")
+        fi
+        if [[ $exit_code -eq 0 && -f "$expected_file" ]]; then
+            cached=$($JLOX --cache-dir="$CACHE_DIR" "$test_file" 2>&1)
+            if [[ $? -ne 0 || "$cached" != "$output" ]]; then
+                exit_code=1
+                output="from the cache: $(diff <(echo "$cached") "$expected_file")"
+            fi
+        fi
         if [[ $exit_code -eq 0 ]]; then
             echo -e "${GREEN}PASSED${NC}"
             PASSED_TESTS=$((PASSED_TESTS + 1))
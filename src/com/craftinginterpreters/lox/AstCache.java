@@ -0,0 +1,1005 @@
+package com.craftinginterpreters.lox;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What?
+ *  The resolved tree of a script, saved to disk (a .loxc file) so running the same script
+ *  again skips scanning, parsing and resolving: Lox.runFile loads it instead. Meant for big
+ *  scripts that get run over and over without changing (cron jobs and the like), so it's only
+ *  on when asked for (--cache, --cache-dir): a file is kept for every distinct script and
+ *  nothing ever removes one, so generated one-off scripts would just keep adding to it.
+ *
+ * How?
+ *  Files are content addressed: the name is the SHA-256 of the script's bytes (plus the
+ *  charset they're decoded with and FORMAT), so an edited script simply misses and gets
+ *  parsed (and saved) again. Nothing is ever looked up by path or mtime. The script is never
+ *  held in memory: it's hashed in one pass over the file, and on a miss parsed from a second
+ *  one that's hashed as well. The tree is only saved if both passes saw the same bytes, so the
+ *  tree saved under a key is always the tree of those bytes, even if the file changes while
+ *  we run.
+ *  The tree is written straight after the Resolver, before the Optimizer (which runs again on
+ *  a loaded tree), with the resolver's results - depth / slot / slotCount / tailCall - and
+ *  the "Unused variable." warnings it printed, which get printed again on a load. Runtime
+ *  caches on the nodes (Binary.specialization, Call.thisScope, Get / Set.cache) are not saved.
+ *  A node is a tag byte (0 for null) and its fields in constructor order. Strings are written
+ *  once and referred to by number after that, and so are Tokens - the parser hands the same
+ *  Token to more than one node (a Foreach's iterator, an Assign's name, ...), and a loaded
+ *  tree shares them the same way.
+ *  Anything wrong with a file (truncated, another version, ...) is just a miss.
+ *
+ *  FORMAT follows Expr / Stmt (see GenerateAst) by itself: it hashes every field of every
+ *  node class. FORMAT_VERSION is for the rest, it has to go up whenever what the Resolver
+ *  stores in those fields, or how Writer / Reader lay them out, changes.
+ */
+final class AstCache {
+    private static final int MAGIC = 0x4c4f5843;     // "LOXC"
+    private static final int FORMAT_VERSION = 2;
+    private static final int FORMAT = format();
+
+    private final Path file;
+    private final byte[] key;
+    private MessageDigest parsed = null;    // hashing what's parsed, non-null once source was called
+
+    private AstCache(Path file, byte[] key) {
+        this.file = file;
+        this.key = key;
+    }
+
+    // The cache entry in dir for the script at path, as it is now. The file is hashed as it's
+    // read and nothing of it is kept, so a script of any size is hashed in a buffer's worth of memory.
+    static AstCache of(Path dir, Path script) throws IOException {
+        MessageDigest digest = digest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(script), digest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+            }
+        }
+        byte[] key = digest.digest();
+        StringBuilder name = new StringBuilder();
+        for (byte b : key) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return new AstCache(dir.resolve(name + ".loxc"), key);
+    }
+
+    // The script's bytes for parsing on a miss, hashed again on their way through: store only
+    // saves the tree if they're the bytes of() hashed (the file may change in between)
+    InputStream source(InputStream in) {
+        parsed = digest();
+        return new DigestInputStream(in, parsed);
+    }
+
+    // ~/.cache/jlox (or $XDG_CACHE_HOME/jlox)
+    static Path defaultDir() {
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        Path base = xdg != null && !xdg.isEmpty()
+            ? Paths.get(xdg)
+            : Paths.get(System.getProperty("user.home"), ".cache");
+        return base.resolve("jlox");
+    }
+
+    // The saved tree (its warnings added to warnings), null if there isn't a good one
+    List<Stmt> load(List<String> warnings) {
+        if (!Files.isRegularFile(file)) return null;
+        try (InputStream in = Files.newInputStream(file)) {
+            Reader reader = new Reader(in);
+            if (reader.readInt() != MAGIC || reader.readInt() != FORMAT) return null;
+            byte[] stored = new byte[key.length];
+            reader.readFully(stored);
+            if (!Arrays.equals(stored, key)) return null;
+
+            List<String> saved = new ArrayList<>();
+            for (int i = reader.readCount(); i > 0; i--) saved.add(reader.readString());
+            List<Stmt> statements = reader.readProgram();
+            if (!reader.atEnd()) return null;
+            warnings.addAll(saved);
+            return statements;
+        } catch (IOException | RuntimeException e) {
+            return null;    // unreadable or corrupt: parse the script instead
+        }
+    }
+
+    // Save statements (resolved, not optimized yet) and the warnings resolving them printed
+    void store(List<Stmt> statements, List<String> warnings) {
+        if (parsed == null || !Arrays.equals(parsed.digest(), key)) return;     // not the tree of key's bytes
+        Path temp = null;
+        boolean stored = false;
+        try {
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(), "jlox", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                Writer writer = new Writer(out);
+                writer.writeInt(MAGIC);
+                writer.writeInt(FORMAT);
+                writer.writeBytes(key);
+                writer.writeCount(warnings.size());
+                for (String warning : warnings) writer.writeString(warning);
+                writer.writeProgram(statements);
+                writer.flush();
+            }
+            // Other runs of the same script may be reading it: they see all of the file or none
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            stored = true;
+        } catch (IOException | RuntimeException e) {
+            // Not being able to cache (read-only home, full disk, ...) never stops a script running
+        } finally {
+            if (temp != null && !stored) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    // SHA-256, already fed what a key depends on besides the script's bytes
+    private static MessageDigest digest() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JRE has SHA-256
+        }
+        digest.update(("jlox " + FORMAT + " " + Charset.defaultCharset().name() + "\n")
+            .getBytes(StandardCharsets.UTF_8));
+        return digest;
+    }
+
+    /**
+     * FORMAT_VERSION combined with the name & type of every field of every Expr / Stmt node
+     * class and its constructor's parameter types, in order (Writer / Reader follow the
+     * constructors). So regenerating the AST with a field added, dropped, retyped or moved
+     * changes it even if nobody remembers to bump FORMAT_VERSION, and old files just miss.
+     */
+    private static int format() {
+        List<String> parts = new ArrayList<>();
+        for (Class<?> base : Arrays.asList(Expr.class, Stmt.class)) {
+            for (Class<?> node : base.getDeclaredClasses()) {
+                for (Field field : node.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    parts.add(node.getName() + "." + field.getName() + " " + field.getGenericType().getTypeName());
+                }
+                for (Constructor<?> constructor : node.getDeclaredConstructors()) {
+                    parts.add(node.getName() + Arrays.toString(constructor.getGenericParameterTypes()));
+                }
+            }
+        }
+        Collections.sort(parts);    // reflection doesn't promise any order
+        return 31 * FORMAT_VERSION + String.join("\n", parts).hashCode();
+    }
+
+    // Node tags, 0 is null
+    private static final int BINARY = 1, GROUPING = 2, LITERAL = 3, UNARY = 4, TERNARY = 5,
+        VARIABLE = 6, ASSIGN = 7, INDEX = 8, INDEX_PREFIX = 9, INDEX_POSTFIX = 10,
+        INDEX_ASSIGN = 11, PREFIX = 12, POSTFIX = 13, CALL = 14, ANONYMOUS = 15, GET = 16,
+        SET = 17, THIS = 18, SUPER = 19, LIST = 20, MAP = 21;
+    private static final int EXPRESSION = 1, PRINT = 2, VAR = 3, IF = 4, WHILE = 5, FOR = 6,
+        FOREACH = 7, BLOCK = 8, BREAK = 9, CONTINUE = 10, FUNCTION = 11, RETURN = 12, CLASS = 13;
+
+    // Literal values
+    private static final int NIL = 0, FALSE = 1, TRUE = 2, LONG = 3, DOUBLE = 4, STRING = 5;
+
+    // Strings and tokens: 0 is null, 1 is a new one (which follows), n + 3 is the nth one again.
+    // The parser only ever shares a Token within one declaration, so tokens are numbered per
+    // top-level statement (the table would be as big as the script otherwise), strings per file.
+    // A number's or string's lexeme rarely repeats (a data file can have millions), so it's
+    // written out as it is (2) and doesn't get a number.
+    private static final int NONE = 0, NEW = 1, ONCE = 2, SEEN = 3;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final class Writer implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void> {
+        private final OutputStream out;
+        private final byte[] buf = new byte[BUFFER_SIZE];
+        private int pos = 0;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private Map<Token, Integer> tokens = new IdentityHashMap<>();
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeProgram(List<Stmt> program) {
+            writeCount(program.size());
+            for (Stmt stmt : program) {
+                // (clear() walks the whole table, so a big one is dropped instead)
+                if (tokens.size() > 256) tokens = new IdentityHashMap<>(); else tokens.clear();
+                writeStmt(stmt);
+            }
+        }
+
+        private void writeStmts(List<? extends Stmt> stmts) {
+            writeCount(stmts.size());
+            for (Stmt stmt : stmts) writeStmt(stmt);
+        }
+
+        void writeCount(int n) {
+            // Unsigned LEB128: most counts, lines and slots fit in a byte
+            while ((n & ~0x7f) != 0) {
+                writeByte((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            writeByte(n);
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeCount(NONE);
+                return;
+            }
+            Integer seen = strings.get(s);
+            if (seen != null) {
+                writeCount(seen + SEEN);
+                return;
+            }
+            strings.put(s, strings.size());
+            writeCount(NEW);
+            writeChars(s);
+        }
+
+        private void writeOnce(String s) {
+            writeCount(ONCE);
+            writeChars(s);
+        }
+
+        // As UTF-8, the common all-ASCII case without making a byte[] first
+        private void writeChars(String s) {
+            if (isAscii(s)) {
+                writeCount(s.length());
+                for (int i = 0; i < s.length(); i++) writeByte(s.charAt(i));
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeCount(bytes.length);
+            writeBytes(bytes);
+        }
+
+        private static boolean isAscii(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) >= 0x80) return false;
+            }
+            return true;
+        }
+
+        private void writeStmt(Stmt stmt) {
+            if (stmt == null) {
+                writeByte(0);
+                return;
+            }
+            stmt.accept(this);
+        }
+
+        private void writeExpr(Expr expr) {
+            if (expr == null) {
+                writeByte(0);
+                return;
+            }
+            expr.accept(this);
+        }
+
+        private void writeExprs(List<? extends Expr> exprs) {
+            writeCount(exprs.size());
+            for (Expr expr : exprs) writeExpr(expr);
+        }
+
+        private void writeToken(Token token) {
+            if (token == null) {
+                writeCount(NONE);
+                return;
+            }
+            Integer seen = tokens.get(token);
+            if (seen != null) {
+                writeCount(seen + SEEN);
+                return;
+            }
+            tokens.put(token, tokens.size());
+            writeCount(NEW);
+            writeByte(token.type.ordinal());
+            if (token.type == TokenType.NUMBER || token.type == TokenType.STRING) {
+                writeOnce(token.lexeme);
+            } else {
+                // Punctuation and keywords are just their type (see Scanner.spelling)
+                writeString(token.lexeme.equals(Scanner.spelling(token.type)) ? null : token.lexeme);
+            }
+            writeValue(token.literal);
+            writeCount(token.line);
+        }
+
+        private void writeTokens(List<Token> tokens) {
+            writeCount(tokens.size());
+            for (Token token : tokens) writeToken(token);
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Long) {
+                writeByte(LONG);
+                writeLong((Long)value);
+            } else if (value instanceof Double) {
+                writeByte(DOUBLE);
+                writeDouble((Double)value);
+            } else if (value instanceof String) {
+                writeByte(STRING);
+                writeString((String)value);
+            } else {
+                throw new IllegalStateException("Can't cache a " + value.getClass().getSimpleName() + " literal.");
+            }
+        }
+
+        // -1 (unresolved) included
+        private void writeSlot(int slot) {
+            writeCount(slot + 1);
+        }
+
+        // Buffered here rather than with a BufferedOutputStream: that's a synchronized call per byte.
+        // The visitors can't throw IOException, so it comes out of them unchecked (see store)
+        private void writeByte(int b) {
+            if (pos == buf.length) flush();
+            buf[pos++] = (byte)b;
+        }
+
+        private void writeBoolean(boolean b) {
+            writeByte(b ? 1 : 0);
+        }
+
+        void writeInt(int n) {
+            for (int shift = 24; shift >= 0; shift -= 8) writeByte(n >>> shift);
+        }
+
+        private void writeLong(long n) {
+            for (int shift = 56; shift >= 0; shift -= 8) writeByte((int)(n >>> shift));
+        }
+
+        private void writeDouble(double d) {
+            writeLong(Double.doubleToRawLongBits(d));
+        }
+
+        void writeBytes(byte[] bytes) {
+            for (byte b : bytes) writeByte(b);
+        }
+
+        void flush() {
+            try {
+                out.write(buf, 0, pos);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pos = 0;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(BINARY);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(GROUPING);
+            writeExpr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(LITERAL);
+            writeValue(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(UNARY);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            writeByte(TERNARY);
+            writeExpr(expr.cond);
+            writeToken(expr.operator);
+            writeExpr(expr.trueBranch);
+            writeExpr(expr.falseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(VARIABLE);
+            writeToken(expr.name);
+            writeSlot(expr.depth);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(ASSIGN);
+            writeToken(expr.name);
+            writeExpr(expr.rhs);
+            writeSlot(expr.depth);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            writeByte(INDEX);
+            writeToken(expr.lbrack);
+            writeExpr(expr.object);
+            writeExpr(expr.idxExpr);
+            writeExpr(expr.idxExpr2);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexPrefixExpr(Expr.IndexPrefix expr) {
+            writeByte(INDEX_PREFIX);
+            writeToken(expr.operator);
+            writeExpr(expr.object);
+            writeExpr(expr.idxExpr);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexPostfixExpr(Expr.IndexPostfix expr) {
+            writeByte(INDEX_POSTFIX);
+            writeToken(expr.operator);
+            writeExpr(expr.object);
+            writeExpr(expr.idxExpr);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+            writeByte(INDEX_ASSIGN);
+            writeToken(expr.lbrack);
+            writeExpr(expr.object);
+            writeExpr(expr.idxExpr);
+            writeExpr(expr.rhs);
+            return null;
+        }
+
+        @Override
+        public Void visitPrefixExpr(Expr.Prefix expr) {
+            writeByte(PREFIX);
+            writeToken(expr.operator);
+            writeToken(expr.name);
+            writeSlot(expr.depth);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitPostfixExpr(Expr.Postfix expr) {
+            writeByte(POSTFIX);
+            writeToken(expr.name);
+            writeToken(expr.operator);
+            writeSlot(expr.depth);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(CALL);
+            writeExpr(expr.callee);
+            writeToken(expr.paren);
+            writeExprs(expr.args);
+            return null;
+        }
+
+        @Override
+        public Void visitAnonymousExpr(Expr.Anonymous expr) {
+            writeByte(ANONYMOUS);
+            writeTokens(expr.params);
+            writeStmt(expr.body);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            writeByte(GET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeByte(SET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            writeExpr(expr.rhs);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            writeByte(THIS);
+            writeToken(expr.keyword);
+            writeSlot(expr.depth);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            writeByte(SUPER);
+            writeToken(expr.keyword);
+            writeToken(expr.property);
+            writeSlot(expr.depth);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitListExprExpr(Expr.ListExpr expr) {
+            writeByte(LIST);
+            writeExprs(expr.exprs);
+            return null;
+        }
+
+        @Override
+        public Void visitMapExprExpr(Expr.MapExpr expr) {
+            writeByte(MAP);
+            writeCount(expr.KeyValuePairs.size());
+            for (Map<Expr, Expr> pair : expr.KeyValuePairs) {
+                writeCount(pair.size());
+                for (Map.Entry<Expr, Expr> entry : pair.entrySet()) {
+                    writeExpr(entry.getKey());
+                    writeExpr(entry.getValue());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(EXPRESSION);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(PRINT);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(VAR);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+            writeSlot(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(IF);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.thenStmt);
+            writeStmt(stmt.elseStmt);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(WHILE);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            writeByte(FOR);
+            writeStmt(stmt.initialization);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.update);
+            writeStmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForeachStmt(Stmt.Foreach stmt) {
+            writeByte(FOREACH);
+            writeExpr(stmt.iterator);
+            writeExpr(stmt.iterable);
+            writeStmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(BLOCK);
+            writeStmts(stmt.statements);
+            writeCount(stmt.slotCount);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            writeByte(BREAK);
+            writeToken(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            writeByte(CONTINUE);
+            writeToken(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionDefStmt(Stmt.FunctionDef stmt) {
+            writeByte(FUNCTION);
+            writeToken(stmt.name);
+            writeTokens(stmt.params);
+            writeStmt(stmt.body);
+            writeBoolean(stmt.isStaticMethod);
+            writeBoolean(stmt.isGetterMethod);
+            writeSlot(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(RETURN);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            writeBoolean(stmt.tailCall);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            writeByte(CLASS);
+            writeToken(stmt.name);
+            writeExprs(stmt.superClasses);
+            writeStmts(stmt.methods);
+            writeSlot(stmt.slot);
+            return null;
+        }
+    }
+
+    private static final class Reader {
+        private final InputStream in;
+        private final byte[] buf = new byte[BUFFER_SIZE];
+        private int pos = 0;
+        private int limit = 0;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Token> tokens = new ArrayList<>();
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        int readInt() throws IOException {
+            int n = 0;
+            for (int i = 0; i < 4; i++) n = (n << 8) | readByte();
+            return n;
+        }
+
+        void readFully(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; i++) bytes[i] = (byte)readByte();
+        }
+
+        boolean atEnd() throws IOException {
+            return pos == limit && !fill();
+        }
+
+        List<Stmt> readProgram() throws IOException {
+            int n = readCount();
+            List<Stmt> program = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                tokens.clear();
+                program.add(readStmt());
+            }
+            return program;
+        }
+
+        int readCount() throws IOException {
+            int n = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                n |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return n;
+                if (shift > 28) throw new IOException("Bad count.");
+            }
+        }
+
+        String readString() throws IOException {
+            int ref = readCount();
+            if (ref == NONE) return null;
+            if (ref >= SEEN) return strings.get(ref - SEEN);
+            int length = readCount();
+            String s;
+            if (length <= buf.length && (limit - pos >= length || compact(length))) {
+                s = new String(buf, pos, length, StandardCharsets.UTF_8);
+                pos += length;
+            } else {
+                byte[] bytes = new byte[length];
+                readFully(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            if (ref == NEW) strings.add(s);
+            return s;
+        }
+
+        private List<Stmt> readStmts() throws IOException {
+            int n = readCount();
+            List<Stmt> stmts = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) stmts.add(readStmt());
+            return stmts;
+        }
+
+        private List<Expr> readExprs() throws IOException {
+            int n = readCount();
+            List<Expr> exprs = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) exprs.add(readExpr());
+            return exprs;
+        }
+
+        private Token readToken() throws IOException {
+            int ref = readCount();
+            if (ref == NONE) return null;
+            if (ref != NEW) return tokens.get(ref - SEEN);
+            TokenType type = TOKEN_TYPES[readByte()];
+            String lexeme = readString();
+            if (lexeme == null) lexeme = Scanner.spelling(type);
+            Object literal = readValue();
+            if (type == TokenType.IDENTIFIER) {
+                // Same symbol as the scanner would have made (see Symbols), lexeme and literal alike
+                lexeme = Symbols.intern(lexeme);
+                if (lexeme.equals(literal)) literal = lexeme;
+            }
+            Token token = new Token(type, lexeme, literal, readCount());
+            tokens.add(token);
+            return token;
+        }
+
+        private List<Token> readTokens() throws IOException {
+            int n = readCount();
+            List<Token> tokens = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) tokens.add(readToken());
+            return tokens;
+        }
+
+        private Object readValue() throws IOException {
+            switch (readByte()) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case LONG: return readLong();
+                case DOUBLE: return Double.longBitsToDouble(readLong());
+                case STRING: return readString();
+                default: throw new IOException("Bad literal.");
+            }
+        }
+
+        private int readSlot() throws IOException {
+            return readCount() - 1;
+        }
+
+        private int readByte() throws IOException {
+            if (pos == limit && !fill()) throw new EOFException();
+            return buf[pos++] & 0xff;
+        }
+
+        private long readLong() throws IOException {
+            long n = 0;
+            for (int i = 0; i < 8; i++) n = (n << 8) | readByte();
+            return n;
+        }
+
+        // More bytes into buf, false at the end of the file
+        private boolean fill() throws IOException {
+            int read = in.read(buf);
+            if (read == -1) return false;
+            pos = 0;
+            limit = read;
+            return true;
+        }
+
+        // Move what's left of buf to the front and top it up to at least count bytes
+        private boolean compact(int count) throws IOException {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            while (limit < count) {
+                int read = in.read(buf, limit, buf.length - limit);
+                if (read == -1) throw new EOFException();
+                limit += read;
+            }
+            return true;
+        }
+
+        private Expr readExpr() throws IOException {
+            switch (readByte()) {
+                case 0:
+                    return null;
+                case BINARY:
+                    return new Expr.Binary(readExpr(), readToken(), readExpr());
+                case GROUPING:
+                    return new Expr.Grouping(readExpr());
+                case LITERAL:
+                    return new Expr.Literal(readValue());
+                case UNARY:
+                    return new Expr.Unary(readToken(), readExpr());
+                case TERNARY:
+                    return new Expr.Ternary(readExpr(), readToken(), readExpr(), readExpr());
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(readToken());
+                    expr.depth = readSlot();
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(readToken(), readExpr());
+                    expr.depth = readSlot();
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case INDEX:
+                    return new Expr.Index(readToken(), readExpr(), readExpr(), readExpr());
+                case INDEX_PREFIX:
+                    return new Expr.IndexPrefix(readToken(), readExpr(), readExpr());
+                case INDEX_POSTFIX:
+                    return new Expr.IndexPostfix(readToken(), readExpr(), readExpr());
+                case INDEX_ASSIGN:
+                    return new Expr.IndexAssign(readToken(), readExpr(), readExpr(), readExpr());
+                case PREFIX: {
+                    Expr.Prefix expr = new Expr.Prefix(readToken(), readToken());
+                    expr.depth = readSlot();
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case POSTFIX: {
+                    Expr.Postfix expr = new Expr.Postfix(readToken(), readToken());
+                    expr.depth = readSlot();
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case CALL:
+                    return new Expr.Call(readExpr(), readToken(), readExprs());
+                case ANONYMOUS:
+                    return new Expr.Anonymous(readTokens(), readStmt());
+                case GET:
+                    return new Expr.Get(readExpr(), readToken());
+                case SET:
+                    return new Expr.Set(readExpr(), readToken(), readExpr());
+                case THIS: {
+                    Expr.This expr = new Expr.This(readToken());
+                    expr.depth = readSlot();
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case SUPER: {
+                    Expr.Super expr = new Expr.Super(readToken(), readToken());
+                    expr.depth = readSlot();
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case LIST:
+                    return new Expr.ListExpr(readExprs());
+                case MAP: {
+                    int n = readCount();
+                    List<Map<Expr, Expr>> keyValuePairs = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) {
+                        Map<Expr, Expr> pair = new HashMap<>();
+                        for (int j = readCount(); j > 0; j--) pair.put(readExpr(), readExpr());
+                        keyValuePairs.add(pair);
+                    }
+                    return new Expr.MapExpr(keyValuePairs);
+                }
+                default:
+                    throw new IOException("Bad expression.");
+            }
+        }
+
+        private Stmt readStmt() throws IOException {
+            switch (readByte()) {
+                case 0:
+                    return null;
+                case EXPRESSION:
+                    return new Stmt.Expression(readExpr());
+                case PRINT:
+                    return new Stmt.Print(readExpr());
+                case VAR: {
+                    Stmt.Var stmt = new Stmt.Var(readToken(), readExpr());
+                    stmt.slot = readSlot();
+                    return stmt;
+                }
+                case IF:
+                    return new Stmt.If(readExpr(), readStmt(), readStmt());
+                case WHILE:
+                    return new Stmt.While(readExpr(), readStmt());
+                case FOR:
+                    return new Stmt.For(readStmt(), readExpr(), readStmt(), readStmt());
+                case FOREACH:
+                    return new Stmt.Foreach((Expr.Variable)readExpr(), readExpr(), readStmt());
+                case BLOCK: {
+                    Stmt.Block stmt = new Stmt.Block(readStmts());
+                    stmt.slotCount = readCount();
+                    return stmt;
+                }
+                case BREAK:
+                    return new Stmt.Break(readToken());
+                case CONTINUE:
+                    return new Stmt.Continue(readToken());
+                case FUNCTION: {
+                    Stmt.FunctionDef stmt = new Stmt.FunctionDef(readToken(), readTokens(), readStmt(),
+                        (readByte() != 0), (readByte() != 0));
+                    stmt.slot = readSlot();
+                    return stmt;
+                }
+                case RETURN: {
+                    Stmt.Return stmt = new Stmt.Return(readToken(), readExpr());
+                    stmt.tailCall = (readByte() != 0);
+                    return stmt;
+                }
+                case CLASS: {
+                    Token name = readToken();
+                    int n = readCount();
+                    List<Expr.Variable> superClasses = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) superClasses.add((Expr.Variable)readExpr());
+                    n = readCount();
+                    List<Stmt.FunctionDef> methods = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) methods.add((Stmt.FunctionDef)readStmt());
+                    Stmt.Class stmt = new Stmt.Class(name, superClasses, methods);
+                    stmt.slot = readSlot();
+                    return stmt;
+                }
+                default:
+                    throw new IOException("Bad statement.");
+            }
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.craftinginterpreters.lox;
 
-// Special exception class to signal a break statement
-class Break extends RuntimeException {
+// Completion signal for a break statement (see Interpreter.executeBlockStmt). Nothing throws it.
+class Break {
     // Using a singleton pattern to avoid creating multiple instances
     private static final Break instance = new Break();
 
@@ -0,0 +1,214 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+/**
+ * What?
+ *  The thin client for a jlox --server (see Server): takes the same arguments as jlox, has the
+ *  server run them, and behaves like that run would have - its stdout, stderr and exit code.
+ *  This class is all the JVM has to load, so it starts in a fraction of what a real run does.
+ *
+ *      java -cp bin com.craftinginterpreters.lox.Client [--socket=PATH] [jlox args...]
+ *
+ * How?
+ *  Over the server's Unix domain socket we send a request:
+ *      int MAGIC, UTF working directory, int argc, UTF args...
+ *  What comes back is frames:
+ *      byte STDOUT / STDERR, int length, bytes      - copied to our stdout / stderr
+ *      byte INPUT, int max                           - the script wants stdin: we read up to
+ *                                                      max bytes and send int length, bytes
+ *                                                      (length -1 at EOF)
+ *      byte EXIT, int status                         - the end: we exit with status
+ *  stdin is only read when asked for, never ahead by a thread of our own: the JVM gives a
+ *  thread stuck in a read some 300ms to finish before it lets us exit.
+ *
+ *  Unix domain sockets are JDK 16+ and we still build for Java 11, so (like JitCompiler's
+ *  hidden classes) the two JDK methods involved are looked up reflectively.
+ */
+public final class Client {
+    static final int MAGIC = 0x4a4c5831;    // "JLX1"
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+    static final int INPUT = 3;
+    static final int EXIT = 4;
+
+    private Client() {}
+
+    public static void main(String[] args) throws IOException {
+        Path socket = defaultSocket();
+        int first = 0;
+        if (args.length > 0 && args[0].startsWith("--socket=") && args[0].length() > 9) {
+            socket = Paths.get(args[0].substring(9));
+            first = 1;
+        }
+
+        SocketChannel channel;
+        try {
+            // Our args, working directory and stdin only go to a server of our own
+            if (socket.equals(defaultSocket())) checkPrivate(socket.getParent());
+            checkOwner(socket);
+            channel = connect(socket);
+        } catch (IOException e) {
+            System.err.println("jlox: no server at " + socket + " (" + e.getMessage() + "), start one with 'jlox --server'");
+            System.exit(69);
+            return;
+        }
+
+        DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        request.writeInt(MAGIC);
+        request.writeUTF(Paths.get("").toAbsolutePath().toString());
+        request.writeInt(args.length - first);
+        for (int i = first; i < args.length; i++) request.writeUTF(args[i]);
+        request.flush();
+
+        DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        byte[] buffer = new byte[8192];
+        try {
+            for (;;) {
+                int kind = response.readUnsignedByte();
+                if (kind == EXIT) {
+                    System.out.flush();
+                    System.exit(response.readInt());
+                }
+                if (kind == INPUT) {
+                    int max = Math.min(response.readInt(), buffer.length);
+                    System.out.flush();
+                    int read = System.in.read(buffer, 0, max);
+                    request.writeInt(read);
+                    if (read > 0) request.write(buffer, 0, read);
+                    request.flush();
+                    continue;
+                }
+                int length = response.readInt();
+                if (buffer.length < length) buffer = new byte[length];
+                response.readFully(buffer, 0, length);
+                if (kind == STDOUT) {
+                    System.out.write(buffer, 0, length);
+                    System.out.flush();
+                } else {
+                    System.out.flush();
+                    System.err.write(buffer, 0, length);
+                    System.err.flush();
+                }
+            }
+        } catch (EOFException e) {
+            System.err.println("jlox: the server hung up");
+            System.exit(70);
+        }
+    }
+
+    // jlox.sock in $XDG_RUNTIME_DIR/jlox, or in jlox-<user> in the temp directory if there's no
+    // such thing. The Server makes that directory, only for us (see checkPrivate).
+    static Path defaultSocket() {
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty()) return Paths.get(runtime, "jlox", "jlox.sock");
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jlox-" + System.getProperty("user.name"), "jlox.sock");
+    }
+
+    // Fails unless path (not what it links to) belongs to us
+    static void checkOwner(Path path) throws IOException {
+        UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+        UserPrincipal us = path.getFileSystem().getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!owner.equals(us)) {
+            throw new IOException(path + " belongs to " + owner.getName() + ", not " + us.getName());
+        }
+    }
+
+    /**
+     * Fails unless dir is a directory of ours that nobody else can get into (mode 700, or less).
+     * Anyone else who could would be able to swap our socket for theirs.
+     */
+    static void checkPrivate(Path dir) throws IOException {
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) throw new IOException(dir + " isn't a directory");
+        checkOwner(dir);
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS);
+            permissions.removeAll(PosixFilePermissions.fromString("rwx------"));
+            if (!permissions.isEmpty()) {
+                throw new IOException(dir + " is open to others (" + PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS)) + "), it should be rwx------");
+            }
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system: there's no mode to check
+        }
+    }
+
+    static SocketChannel connect(Path socket) throws IOException {
+        SocketChannel channel = (SocketChannel)open(SocketChannel.class);
+        try {
+            channel.connect(address(socket));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    static ServerSocketChannel listen(Path socket) throws IOException {
+        ServerSocketChannel channel = (ServerSocketChannel)open(ServerSocketChannel.class);
+        try {
+            channel.bind(address(socket));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    // UnixDomainSocketAddress.of(socket)
+    private static SocketAddress address(Path socket) throws IOException {
+        try {
+            return (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", Path.class).invoke(null, socket);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw new IOException("Unix domain sockets need Java 16 or newer");
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+    }
+
+    // type.open(StandardProtocolFamily.UNIX)
+    private static Object open(Class<?> type) throws IOException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            return type.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException e) {
+            throw new IOException("Unix domain sockets need Java 16 or newer");
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) return (IOException)cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        if (cause instanceof Error) throw (Error)cause;
+        return new IOException(cause);
+    }
+}
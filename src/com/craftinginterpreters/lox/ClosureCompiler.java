@@ -0,0 +1,1084 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What?
+ *  An alternative execution engine (jlox --engine=closure).
+ *  The Interpreter re-dispatches through accept/visitXxx for every node every time
+ *  it runs, and re-decides things like which operator a Binary is each time.
+ *  Here we walk the resolved AST exactly once and turn every node into a Java lambda
+ *  with all of those decisions already made (operator picked, global vs local picked,
+ *  depth & slot baked in). Running the program is then just lambdas calling lambdas.
+ *
+ * How?
+ *  - Exprs compile to ExprNodes, Stmts compile to StmtNodes.
+ *  - The current Environment is passed down as an argument instead of living in a
+ *    mutable field like Interpreter.env.
+ *  - Anything that isn't on a hot path (indexing, property access, calls, ...) defers to the
+ *    same helpers the Interpreter uses, so both engines agree on semantics and error messages.
+ *  - break / continue / return don't throw here. Unwinding an exception through a deep stack of
+ *    lambdas is slow (it made fib *slower* than the tree walker), so a StmtNode instead returns
+ *    how it completed: null when it ran off the end, otherwise the Break / Continue singleton or
+ *    a Returned holding the value. Loops, blocks & function calls check for and consume these.
+ */
+class ClosureCompiler implements Expr.ExprVisitor<ClosureCompiler.ExprNode>, Stmt.StmtVisitor<ClosureCompiler.StmtNode> {
+    interface ExprNode {
+        Object eval(Environment env);
+    }
+
+    interface StmtNode {
+        Object exec(Environment env);   // null, Break, Continue or Returned (see above)
+    }
+
+    // An Expr only used for its truthiness (if / loop conditions), so comparisons needn't box a Boolean
+    interface Condition {
+        boolean test(Environment env);
+    }
+
+    private final Interpreter interpreter;  // owns globals, natives & the shared runtime helpers
+    private final Environment globals;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    // For DEBUG (REPL expressions)
+    public void interpretExpression(Expr expr) {
+        try {
+            Object value = compile(expr).eval(globals);
+            value = LoxRope.flatten(value);
+            if (value instanceof String || value instanceof Character) {
+                value = "'" + (String)value + "'";
+            }
+            System.out.println(interpreter.stringify(value));
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    public void interpret(List<Stmt> statements) {
+        StmtNode[] program = compile(statements);
+        try {
+            for (StmtNode statement : program) {
+                Object e = statement.exec(globals);
+                if (e != null) {  // break / continue / return that escaped every loop & function
+                    TokenType type = e instanceof Break ? TokenType.BREAK : e instanceof Continue ? TokenType.CONTINUE : TokenType.RETURN;
+                    String lexeme = type == TokenType.BREAK ? "break" : type == TokenType.CONTINUE ? "continue" : "return";
+                    Token dummyToken = new Token(type, lexeme, null, 0);
+
+                    Lox.runtimeError(
+                        new RuntimeError(
+                            dummyToken,
+                            e instanceof Break ?
+                            "break statement outside of loop." :
+                            e instanceof Continue ?
+                            "continue statement outside of loop." :
+                            "return statement outside of function."
+                        )
+                    );
+                    break;
+                }
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    //=========================
+    // Statements
+    //=========================
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return env -> {
+            expression.eval(env);
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return env -> {
+            System.out.println(interpreter.stringify(expression.eval(env)));
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode initializer = stmt.initializer != null ? compile(stmt.initializer) : env -> null;
+        String name = stmt.name.lexeme;
+        int slot = stmt.slot;
+
+        if (slot == -1) {
+            return env -> {
+                env.define(name, initializer.eval(env));
+                return null;
+            };
+        }
+        return env -> {
+            env.define(slot, initializer.eval(env));
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        Condition condition = compileCondition(stmt.condition);
+        StmtNode thenStmt = compile(stmt.thenStmt);
+
+        if (stmt.elseStmt == null) {
+            return env -> {
+                if (condition.test(env)) return thenStmt.exec(env);
+                return null;
+            };
+        }
+
+        StmtNode elseStmt = compile(stmt.elseStmt);
+        return env -> {
+            if (condition.test(env)) {
+                return thenStmt.exec(env);
+            }
+            return elseStmt.exec(env);
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        Condition condition = compileCondition(stmt.condition);
+        StmtNode body = compile(stmt.body);
+
+        return env -> {
+            while (condition.test(env)) {
+                Object completion = body.exec(env);
+                if (completion instanceof Returned) return completion;
+                if (completion == Break.instance()) break;
+                // Continue: on to the next condition check
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        StmtNode initialization = stmt.initialization != null ? compile(stmt.initialization) : env -> null;
+        Condition condition = stmt.condition != null ? compileCondition(stmt.condition) : env -> true;
+        StmtNode update = stmt.update != null ? compile(stmt.update) : env -> null;
+        StmtNode body = compile(stmt.body);
+
+        return env -> {
+            initialization.exec(env);
+            while (condition.test(env)) {
+                Object completion = body.exec(env);
+                if (completion instanceof Returned) return completion;
+                if (completion == Break.instance()) break;
+                // Continue: on to the update step
+                update.exec(env);
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitForeachStmt(Stmt.Foreach stmt) {
+        ExprNode iterable = compile(stmt.iterable);
+        StmtNode body = compile(stmt.body);
+        Token name = stmt.iterator.name;
+        int slot = stmt.iterator.slot;
+
+        return env -> {
+            Object object = iterable.eval(env);
+            if (!(object instanceof LoxList) &&
+                !(object instanceof LoxMap)  &&
+                !(object instanceof LoxTuple)) {
+                    Lox.error(name, "Can only iterate over iterables.");
+            }
+
+            if (slot == -1) {
+                env.define(name.lexeme, null);
+            } else {
+                env.define(slot, null);
+            }
+
+            int size = object instanceof LoxList ? ((LoxList)object).size() :
+                           object instanceof LoxTuple ? ((LoxTuple)object).size() :
+                       object instanceof LoxMap ? ((LoxMap)object).size() : 0;
+            for (int i = 0; i < size; ++i) {
+                Object val = object instanceof LoxList ? ((LoxList)object).getAt(i) :
+                             object instanceof LoxTuple ? ((LoxTuple)object).getAt(i) :
+                             ((LoxMap)object).getAt(i);
+                if (slot == -1) {
+                    env.update(name, val);
+                } else {
+                    env.assign(slot, val);
+                }
+                Object completion = body.exec(env);
+                if (completion instanceof Returned) return completion;
+                if (completion == Break.instance()) break;
+                // the Interpreter re-reads size() every iteration, so the body can grow / shrink the iterable
+                size = object instanceof LoxList ? ((LoxList)object).size() :
+                       object instanceof LoxTuple ? ((LoxTuple)object).size() :
+                       ((LoxMap)object).size();
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode[] statements = compile(stmt.statements);
+        int slotCount = stmt.slotCount;
+
+        return env -> {
+            Environment scope = new Environment(env, slotCount);
+            for (StmtNode statement : statements) {
+                Object completion = statement.exec(scope);
+                if (completion != null) return completion;     // bubble break / continue / return up
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break stmt) {
+        return env -> Break.instance();
+    }
+
+    @Override
+    public StmtNode visitContinueStmt(Stmt.Continue stmt) {
+        return env -> Continue.instance();
+    }
+
+    @Override
+    public StmtNode visitFunctionDefStmt(Stmt.FunctionDef funcDef) {
+        StmtNode[] body = compileBody(funcDef.body);
+        String name = funcDef.name.lexeme;
+        int slot = funcDef.slot;
+
+        if (slot == -1) {
+            return env -> {
+                env.define(name, new CompiledFunction(funcDef, body, env, false, false, false));
+                return null;
+            };
+        }
+        return env -> {
+            env.define(slot, new CompiledFunction(funcDef, body, env, false, false, false));
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return env -> new Returned(null);
+        }
+        if (stmt.tailCall) return compileTail(stmt.value);
+        ExprNode value = compile(stmt.value);
+        return env -> new Returned(value.eval(env));
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class classStmt) {
+        ExprNode[] superClassExprs = new ExprNode[classStmt.superClasses.size()];
+        for (int i = 0; i < superClassExprs.length; i++) {
+            superClassExprs[i] = compile(classStmt.superClasses.get(i));
+        }
+        StmtNode[][] methodBodies = new StmtNode[classStmt.methods.size()][];
+        for (int i = 0; i < methodBodies.length; i++) {
+            methodBodies[i] = compileBody(classStmt.methods.get(i).body);
+        }
+        Token name = classStmt.name;
+        int slot = classStmt.slot;
+
+        return env -> {
+            List<LoxClass> superClasses = new ArrayList<>();
+            for (int i = 0; i < superClassExprs.length; i++) {
+                Object superClass = superClassExprs[i].eval(env);
+                if (!(superClass instanceof LoxClass)) {
+                    Lox.error(classStmt.superClasses.get(i).name,
+                    "superclass must be a class.");
+                }
+                superClasses.add((LoxClass)superClass);
+            }
+            if (slot == -1) {
+                env.define(name.lexeme, null);
+            } else {
+                env.define(slot, null);
+            }
+
+            Environment classEnv = env;
+            if (!superClasses.isEmpty()) {
+                classEnv = new Environment(env, 1);
+                classEnv.define(0, superClasses);  // "super" is the only slot in this scope
+            }
+            Map<String, LoxFunction> methods = new HashMap<>();
+            for (int i = 0; i < methodBodies.length; i++) {
+                Stmt.FunctionDef method = classStmt.methods.get(i);
+                LoxFunction function = new CompiledFunction(
+                                                    method,
+                                                    methodBodies[i],
+                                                    classEnv,
+                                                    method.name.lexeme.equals("init"),
+                                                    method.isStaticMethod,
+                                                    method.isGetterMethod
+                                                   );
+                methods.put(method.name.lexeme, function);
+            }
+            LoxClass klass = new LoxClass(name.lexeme, superClasses, methods);
+
+            if (slot == -1) {
+                env.update(name, klass);
+            } else {
+                env.assign(slot, klass);
+            }
+            return null;
+        };
+    }
+
+    //=========================
+    // Expressions
+    //=========================
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        Token operator = expr.operator;
+
+        // Logical & comparison: see compileCondition
+        switch (operator.type) {
+            case AND:
+            case OR:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                Condition condition = compileCondition(expr);
+                return env -> condition.test(env);
+            default:
+                break;
+        }
+
+        ExprNode left = compile(expr.left);
+        Object constant = numberLiteral(expr.right);
+        if (constant instanceof Long) {
+            ExprNode arithmetic = longConstantOp(left, operator, (long)constant);
+            if (arithmetic != null) return arithmetic;
+        }
+        ExprNode right = compile(expr.right);
+
+        /**
+         * The common all-doubles / all-integers cases are handled inline, anything else falls back to
+         * Interpreter.binaryOp (which also produces the type errors).
+         */
+        switch (operator.type) {
+            // Arithmetic
+            case PLUS:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double) return (double)l + (double)r;
+                    if (l instanceof Long && r instanceof Long) return LoxNumber.add((long)l, (long)r);
+                    return interpreter.binaryOp(operator, l, r);
+                };
+            case MINUS:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double) return (double)l - (double)r;
+                    if (l instanceof Long && r instanceof Long) return LoxNumber.subtract((long)l, (long)r);
+                    return interpreter.binaryOp(operator, l, r);
+                };
+            case STAR:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double) return (double)l * (double)r;
+                    if (l instanceof Long && r instanceof Long) return LoxNumber.multiply((long)l, (long)r);
+                    return interpreter.binaryOp(operator, l, r);
+                };
+            case SLASH:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double && (double)r != 0) return (double)l / (double)r;
+                    return interpreter.binaryOp(operator, l, r);
+                };
+            case MODULO:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double && (double)r != 0) return (double)l % (double)r;
+                    return interpreter.binaryOp(operator, l, r);
+                };
+
+
+            // Comma
+            case COMMA:
+                return env -> {
+                    left.eval(env);
+                    return right.eval(env);
+                };
+
+            default:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    return interpreter.binaryOp(operator, l, r);
+                };
+        }
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);    // parens only matter to the parser
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return env -> value;
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        if (operator.type == TokenType.MINUS) {
+            return env -> {
+                Object r = right.eval(env);
+                if (r instanceof Double) return -(double)r;
+                return interpreter.unaryOp(operator, r);
+            };
+        }
+        return env -> interpreter.unaryOp(operator, right.eval(env));
+    }
+
+    @Override
+    public ExprNode visitTernaryExpr(Expr.Ternary expr) {
+        ExprNode cond = compile(expr.cond);
+        ExprNode trueBranch = compile(expr.trueBranch);
+        ExprNode falseBranch = compile(expr.falseBranch);
+        Token operator = expr.operator;
+
+        return env -> {
+            Object condVal = cond.eval(env);
+            interpreter.checkTruthyOperand(operator, condVal);
+            return interpreter.getTruthiness(condVal) ? trueBranch.eval(env) : falseBranch.eval(env);
+        };
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode rhs = compile(expr.rhs);
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+
+        if (depth == -1) {
+            return env -> {
+                Object rhsVal = rhs.eval(env);
+                globals.update(name, rhsVal);
+                return rhsVal;
+            };
+        }
+        return env -> {
+            Object rhsVal = rhs.eval(env);
+            env.assignAt(depth, slot, rhsVal);
+            return rhsVal;
+        };
+    }
+
+    @Override
+    public ExprNode visitIndexExpr(Expr.Index expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode idxExpr = compile(expr.idxExpr);
+        ExprNode idxExpr2 = expr.idxExpr2 != null ? compile(expr.idxExpr2) : env -> null;
+
+        return env -> {
+            Object obj = object.eval(env);
+            Object idx = idxExpr.eval(env);
+            Object idx2 = idxExpr2.eval(env);
+            return interpreter.index(expr, obj, idx, idx2);
+        };
+    }
+
+    @Override
+    public ExprNode visitIndexPrefixExpr(Expr.IndexPrefix expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode idxExpr = compile(expr.idxExpr);
+
+        return env -> {
+            Object obj = object.eval(env);
+            return interpreter.indexPrefix(expr, obj, idxExpr.eval(env));
+        };
+    }
+
+    @Override
+    public ExprNode visitIndexPostfixExpr(Expr.IndexPostfix expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode idxExpr = compile(expr.idxExpr);
+
+        return env -> {
+            Object obj = object.eval(env);
+            return interpreter.indexPostfix(expr, obj, idxExpr.eval(env));
+        };
+    }
+
+    @Override
+    public ExprNode visitIndexAssignExpr(Expr.IndexAssign expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode idxExpr = compile(expr.idxExpr);
+        ExprNode rhs = compile(expr.rhs);
+
+        return env -> {
+            Object obj = object.eval(env);
+            Object idx = idxExpr.eval(env);
+            return interpreter.indexAssign(expr, obj, idx, rhs.eval(env));
+        };
+    }
+
+    @Override
+    public ExprNode visitPrefixExpr(Expr.Prefix expr) {
+        ExprNode lookUp = lookUpVariable(expr.name, expr.depth, expr.slot);
+        Token operator = expr.operator;
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+
+        return env -> {
+            Object origVal = lookUp.eval(env);
+            interpreter.checkNumberOperand(operator, origVal);
+            Object newVal = Interpreter.step(operator, origVal);
+            if (depth == -1) {
+                globals.update(name, newVal);
+            } else {
+                env.assignAt(depth, slot, newVal);
+            }
+            return newVal;
+        };
+    }
+
+    @Override
+    public ExprNode visitPostfixExpr(Expr.Postfix expr) {
+        ExprNode lookUp = lookUpVariable(expr.name, expr.depth, expr.slot);
+        Token operator = expr.operator;
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+
+        return env -> {
+            Object origVal = lookUp.eval(env);
+            interpreter.checkNumberOperand(operator, origVal);
+            Object newVal = Interpreter.step(operator, origVal);
+            if (depth == -1) {
+                globals.update(name, newVal);
+            } else {
+                env.assignAt(depth, slot, newVal);
+            }
+            return origVal;
+        };
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode[] args = new ExprNode[expr.args.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(expr.args.get(i));
+        }
+
+        if (expr.callee instanceof Expr.Get) {
+            // list.append(x) etc. are called directly, without binding the method (see NativeMethod)
+            Expr.Get get = (Expr.Get)expr.callee;
+            ExprNode object = compile(get.object);
+            return env -> {
+                Object receiver = object.eval(env);
+                NativeMethod method = NativeMethod.lookup(receiver, get.name.lexeme);
+                if (method != null) return interpreter.callNative(expr, method, receiver, evalArgs(args, env));
+                return call(expr, interpreter.getProperty(get, receiver), args, env);
+            };
+        }
+
+        ExprNode callee = compile(expr.callee);
+        return env -> call(expr, callee.eval(env), args, env);
+    }
+
+    @Override
+    public ExprNode visitAnonymousExpr(Expr.Anonymous expr) {
+        Stmt.FunctionDef funcDef = new Stmt.FunctionDef(new Token(TokenType.IDENTIFIER, "anon", null, 0), expr.params, expr.body, false, false);
+        StmtNode[] body = compileBody(expr.body);
+
+        return env -> new CompiledFunction(funcDef, body, env, false, false, false);
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        ExprNode object = compile(expr.object);
+        return env -> interpreter.getProperty(expr, object.eval(env));
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode rhs = compile(expr.rhs);
+
+        return env -> {
+            Object obj = object.eval(env);
+            if (obj instanceof LoxInstance) {
+                Object rhsVal = rhs.eval(env);
+                ((LoxInstance)obj).set(expr, rhsVal);
+                return rhsVal;
+            }
+
+            throw new RuntimeError(expr.name,
+                "Properties can only be set for instances.");
+        };
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        return env -> interpreter.superProperty(expr, env);
+    }
+
+    @Override
+    public ExprNode visitListExprExpr(Expr.ListExpr expr) {
+        ExprNode[] exprs = new ExprNode[expr.exprs.size()];
+        for (int i = 0; i < exprs.length; i++) {
+            exprs[i] = compile(expr.exprs.get(i));
+        }
+
+        return env -> {
+            List<Object> loxList = new ArrayList<>();
+            for (ExprNode element : exprs) {
+                loxList.add(element.eval(env));
+            }
+            return new LoxList(loxList);
+        };
+    }
+
+    @Override
+    public ExprNode visitMapExprExpr(Expr.MapExpr expr) {
+        List<ExprNode> keys = new ArrayList<>();
+        List<ExprNode> values = new ArrayList<>();
+        for (Map<Expr, Expr> map : expr.KeyValuePairs) {
+            for (Map.Entry<Expr, Expr> entry : map.entrySet()) {
+                keys.add(compile(entry.getKey()));
+                values.add(compile(entry.getValue()));
+            }
+        }
+
+        return env -> {
+            LoxMap loxMap = new LoxMap();
+            for (int i = 0; i < keys.size(); i++) {
+                Object evaluatedKey = keys.get(i).eval(env);
+                Object evaluatedValue = values.get(i).eval(env);
+                loxMap.put(evaluatedKey, evaluatedValue);
+            }
+            return loxMap;
+        };
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private Object call(Expr.Call expr, Object function, ExprNode[] args, Environment env) {
+        if (function instanceof CompiledFunction && ((CompiledFunction)function).arity == args.length) {
+            return ((CompiledFunction)function).invoke(interpreter, expr, args, env);
+        }
+        return interpreter.call(expr, function, evalArgs(args, env));
+    }
+
+    // return expr, where the Resolver found a call in tail position: a call, or a ?: with one in a branch
+    private StmtNode compileTail(Expr expr) {
+        if (expr instanceof Expr.Grouping) return compileTail(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary)expr;
+            ExprNode cond = compile(ternary.cond);
+            StmtNode trueBranch = compileTail(ternary.trueBranch);
+            StmtNode falseBranch = compileTail(ternary.falseBranch);
+            Token operator = ternary.operator;
+
+            return env -> {
+                Object condVal = cond.eval(env);
+                interpreter.checkTruthyOperand(operator, condVal);
+                return interpreter.getTruthiness(condVal) ? trueBranch.exec(env) : falseBranch.exec(env);
+            };
+        }
+        if (!(expr instanceof Expr.Call)) {
+            ExprNode value = compile(expr);
+            return env -> new Returned(value.eval(env));
+        }
+
+        Expr.Call call = (Expr.Call)expr;
+        ExprNode[] args = new ExprNode[call.args.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(call.args.get(i));
+        }
+        if (call.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)call.callee;
+            ExprNode object = compile(get.object);
+            return env -> {
+                Object receiver = object.eval(env);
+                NativeMethod method = NativeMethod.lookup(receiver, get.name.lexeme);
+                if (method != null) return new Returned(interpreter.callNative(call, method, receiver, evalArgs(args, env)));
+                return tailCall(call, interpreter.getProperty(get, receiver), args, env);
+            };
+        }
+        ExprNode callee = compile(call.callee);
+        return env -> tailCall(call, callee.eval(env), args, env);
+    }
+
+    /**
+     * return f(...) in tail position: rather than calling f, complete with a TailCall and let
+     * the trampoline in CompiledFunction.invoke / call run f in place of the function that's
+     * returning, so tail recursion runs in constant Java stack (as in Interpreter.tailCall).
+     * Anything but a compiled function with the right # of args is simply called.
+     */
+    private Object tailCall(Expr.Call expr, Object function, ExprNode[] args, Environment env) {
+        if (function instanceof CompiledFunction && ((CompiledFunction)function).arity == args.length) {
+            return new TailCall((CompiledFunction)function, null, evalArgs(args, env));
+        }
+        return new Returned(interpreter.call(expr, function, evalArgs(args, env)));
+    }
+
+    private static List<Object> evalArgs(ExprNode[] args, Environment env) {
+        List<Object> argVals = new ArrayList<>(args.length);
+        for (ExprNode arg : args) {
+            argVals.add(arg.eval(env));
+        }
+        return argVals;
+    }
+
+    private ExprNode lookUpVariable(Token name, int depth, int slot) {
+        if (depth == -1) return lookUpGlobal(name);
+        if (depth == 0) return env -> env.getAt(name, 0, slot);
+        return env -> env.getAt(name, depth, slot);
+    }
+
+    /**
+     * A global read keeps hold of the global's entry instead of hashing its name every time
+     * (fib(n) looks fib up twice per call). Assignments update the entry in place; only a
+     * (re)definition replaces it, and then Environment.generation tells us to look again.
+     */
+    private ExprNode lookUpGlobal(Token name) {
+        return new ExprNode() {
+            private Map.Entry<Boolean, Object> entry = null;
+            private int generation = -1;
+
+            @Override
+            public Object eval(Environment env) {
+                if (generation != globals.generation()) {
+                    entry = globals.entry(name);
+                    generation = globals.generation();
+                }
+                return entry.getValue();
+            }
+        };
+    }
+
+    /**
+     * What?
+     *  Compile an Expr whose value is only tested for truthiness (if / while / for conditions,
+     *  and the operands of and / or).
+     *
+     * How?
+     *  and / or and comparisons produce the boolean directly, so 'n <= 1' is a primitive compare
+     *  instead of a boxed Boolean that getTruthiness then unpacks. A comparison against a number
+     *  literal (i < 10) doesn't evaluate the literal as a node either. Anything else is evaluated
+     *  as usual and handed to getTruthiness.
+     */
+    private Condition compileCondition(Expr expr) {
+        while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping)expr).expression;
+        if (!(expr instanceof Expr.Binary)) {
+            ExprNode node = compile(expr);
+            return env -> interpreter.getTruthiness(node.eval(env));
+        }
+
+        Expr.Binary binary = (Expr.Binary)expr;
+        Token operator = binary.operator;
+        switch (operator.type) {
+            case AND: {
+                Condition left = compileCondition(binary.left);
+                Condition right = compileCondition(binary.right);
+                return env -> left.test(env) && right.test(env);
+            }
+            case OR: {
+                Condition left = compileCondition(binary.left);
+                Condition right = compileCondition(binary.right);
+                return env -> left.test(env) || right.test(env);
+            }
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                break;
+            default: {
+                ExprNode node = compile(expr);
+                return env -> interpreter.getTruthiness(node.eval(env));
+            }
+        }
+
+        ExprNode left = compile(binary.left);
+        Object constant = numberLiteral(binary.right);
+        if (constant instanceof Long) {
+            long c = (long)constant;
+            switch (operator.type) {
+                case GREATER:
+                    return env -> {
+                        Object l = left.eval(env);
+                        if (l instanceof Long) return (long)l > c;
+                        return interpreter.getTruthiness(interpreter.binaryOp(operator, l, constant));
+                    };
+                case GREATER_EQUAL:
+                    return env -> {
+                        Object l = left.eval(env);
+                        if (l instanceof Long) return (long)l >= c;
+                        return interpreter.getTruthiness(interpreter.binaryOp(operator, l, constant));
+                    };
+                case LESS:
+                    return env -> {
+                        Object l = left.eval(env);
+                        if (l instanceof Long) return (long)l < c;
+                        return interpreter.getTruthiness(interpreter.binaryOp(operator, l, constant));
+                    };
+                default:
+                    return env -> {
+                        Object l = left.eval(env);
+                        if (l instanceof Long) return (long)l <= c;
+                        return interpreter.getTruthiness(interpreter.binaryOp(operator, l, constant));
+                    };
+            }
+        }
+
+        ExprNode right = compile(binary.right);
+        switch (operator.type) {
+            case GREATER:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double) return (double)l > (double)r;
+                    if (l instanceof Long && r instanceof Long) return (long)l > (long)r;
+                    return interpreter.getTruthiness(interpreter.binaryOp(operator, l, r));
+                };
+            case GREATER_EQUAL:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double) return (double)l >= (double)r;
+                    if (l instanceof Long && r instanceof Long) return (long)l >= (long)r;
+                    return interpreter.getTruthiness(interpreter.binaryOp(operator, l, r));
+                };
+            case LESS:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double) return (double)l < (double)r;
+                    if (l instanceof Long && r instanceof Long) return (long)l < (long)r;
+                    return interpreter.getTruthiness(interpreter.binaryOp(operator, l, r));
+                };
+            default:
+                return env -> {
+                    Object l = left.eval(env);
+                    Object r = right.eval(env);
+                    if (l instanceof Double && r instanceof Double) return (double)l <= (double)r;
+                    if (l instanceof Long && r instanceof Long) return (long)l <= (long)r;
+                    return interpreter.getTruthiness(interpreter.binaryOp(operator, l, r));
+                };
+        }
+    }
+
+    // n - 1, i + 1, ...: an integer literal on the right isn't a node of its own. null: not one of those
+    private ExprNode longConstantOp(ExprNode left, Token operator, long c) {
+        Object constant = c;
+        switch (operator.type) {
+            case PLUS:
+                return env -> {
+                    Object l = left.eval(env);
+                    if (l instanceof Long) return LoxNumber.add((long)l, c);
+                    return interpreter.binaryOp(operator, l, constant);
+                };
+            case MINUS:
+                return env -> {
+                    Object l = left.eval(env);
+                    if (l instanceof Long) return LoxNumber.subtract((long)l, c);
+                    return interpreter.binaryOp(operator, l, constant);
+                };
+            case STAR:
+                return env -> {
+                    Object l = left.eval(env);
+                    if (l instanceof Long) return LoxNumber.multiply((long)l, c);
+                    return interpreter.binaryOp(operator, l, constant);
+                };
+            default:
+                return null;
+        }
+    }
+
+    // The value of a number literal (parenthesized or not), null for any other Expr
+    private static Object numberLiteral(Expr expr) {
+        while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping)expr).expression;
+        if (!(expr instanceof Expr.Literal)) return null;
+        Object value = ((Expr.Literal)expr).value;
+        return LoxNumber.isNumber(value) ? value : null;
+    }
+
+    // A function body's statements run directly in the call's Environment (params live there too)
+    private StmtNode[] compileBody(Stmt body) {
+        return compile(((Stmt.Block)body).statements);
+    }
+
+    private StmtNode[] compile(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private StmtNode compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * A LoxFunction whose body has already been compiled to StmtNodes.
+     * Everything else (arity, getters, statics, toString, ...) comes from LoxFunction, so
+     * LoxClass / LoxInstance / Interpreter.call can't tell the difference.
+     */
+    static class CompiledFunction extends LoxFunction {
+        private final StmtNode[] body;
+        private final int slotCount;
+        private final int arity;
+
+        CompiledFunction(Stmt.FunctionDef funcDef, StmtNode[] body, Environment closure, Boolean isInit, Boolean isStatic, Boolean isGetter) {
+            super(funcDef, closure, isInit, isStatic, isGetter);
+            this.body = body;
+            this.slotCount = Math.max(funcDef.params.size(), ((Stmt.Block)funcDef.body).slotCount);
+            this.arity = funcDef.params.size();
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        /**
+         * What?
+         *  A call from compiled code with the right # of args: the fast path of call() above.
+         *  The args go straight into the callee's slots, no List in between.
+         *
+         * How?
+         *  One method, body loop and all, rather than a few small ones: a recursive Lox
+         *  function is a cycle of small methods (call site -> body -> call site) and HotSpot's C2
+         *  inlines small hot methods into their callers, so fib had C2 compiling its whole body
+         *  into itself again and again, and on a short run that compile time cost more than the
+         *  compiled code saved. The fewer, bigger methods in the cycle, the less of that there is.
+         *  It skips Interpreter.dispatch, so it counts against maxDepth itself. Like
+         *  LoxFunction.call it's a trampoline: a body that completes with a TailCall (see
+         *  tailCall) has the callee run here, in the same Java frame.
+         */
+        Object invoke(Interpreter interpreter, Expr.Call call, ExprNode[] args, Environment env) {
+            Environment callEnv = new Environment(closure, slotCount);
+            for (int i = 0; i < args.length; i++) {
+                callEnv.define(i, args[i].eval(env));
+            }
+
+            CompiledFunction function = this;
+            Object completion;
+            interpreter.enterCall(call.paren);      // this skips Interpreter.dispatch, not maxDepth
+            try {
+                for (;;) {
+                    completion = null;
+                    for (StmtNode stmt : function.body) {
+                        completion = stmt.exec(callEnv);
+                        if (completion != null) break;
+                    }
+                    if (!(completion instanceof TailCall)) break;
+
+                    // return g(...) in tail position (see tailCall): g runs here, in place of function
+                    TailCall tailCall = (TailCall)completion;
+                    function = (CompiledFunction)tailCall.function;
+                    callEnv = function.frame(tailCall.args);
+                }
+            } catch (StackOverflowError e) {
+                throw new RuntimeError(call.paren, "Stack overflow.");  // same as Interpreter.call
+            } finally {
+                interpreter.exitCall();
+            }
+            return function.result(completion);
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            CompiledFunction function = this;
+            Environment env = frame(args);
+            for (;;) {
+                Object completion = null;
+                for (StmtNode stmt : function.body) {
+                    completion = stmt.exec(env);
+                    if (completion != null) break;
+                }
+                if (!(completion instanceof TailCall)) return function.result(completion);
+
+                TailCall tailCall = (TailCall)completion;
+                function = (CompiledFunction)tailCall.function;
+                env = function.frame(tailCall.args);
+            }
+        }
+
+        // A call's Environment, args in the first slots
+        private Environment frame(List<Object> args) {
+            Environment env = new Environment(closure, slotCount);
+            int N = args.size();
+            for (int i = 0; i < N; i++) {
+                env.define(i, args.get(i));    // params occupy the first N slots
+            }
+            return env;
+        }
+
+        // What a call returns once the body completed with completion (null, Returned, Break or Continue)
+        private Object result(Object completion) {
+            if (isInitializer) return closure.getAt(THIS, 0, 0);
+            if (completion == null) return null;
+            if (completion instanceof Returned) return ((Returned)completion).value;
+
+            // In a function context, break/continue are errors
+            TokenType type = completion instanceof Break ? TokenType.BREAK : TokenType.CONTINUE;
+            String lexeme = type == TokenType.BREAK ? "break" : "continue";
+            Token dummyToken = new Token(type, lexeme, null, 0);
+
+            throw new RuntimeError(
+                dummyToken, completion instanceof Break ?
+                "break statement outside of loop." :
+                "continue statement outside of loop."
+            );
+        }
+
+        @Override
+        public LoxFunction bind(LoxInstance instance) {
+            Environment environment = new Environment(closure, 1);
+            environment.define(0, instance);    // "this" is the only slot in this scope
+            return new CompiledFunction(funcDef, body, environment, isInitializer, isStatic, isGetter);
+        }
+    }
+}
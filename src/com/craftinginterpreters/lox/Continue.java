@@ -1,7 +1,7 @@
 package com.craftinginterpreters.lox;
 
-// Special exception class to signal a continue statement
-class Continue extends RuntimeException {
+// Completion signal for a continue statement (see Interpreter.executeBlockStmt). Nothing throws it.
+class Continue {
     // Using a singleton pattern to avoid creating multiple instances
     private static final Continue instance = new Continue();
 
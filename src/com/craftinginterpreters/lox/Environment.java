@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,51 +13,109 @@ public class Environment {
      *       each of these hypothetical Tokens refer to.
      *       Programmatically speaking, using a raw string ensures
      *       that all tokens refer to the same HashMap key.
+     *
+     * UPDATE: Only the global Environment is keyed by name now. Globals can be
+     *         (re)defined at any time (think REPL), so the Resolver can't pin them
+     *         to a fixed location. Every local scope, on the other hand, is fully
+     *         known after resolution, so the Resolver hands each local a slot
+     *         index and local Environments are just flat arrays indexed by slot.
     */
-    
-    Environment() {
+
+    // Marks a slot that has been declared but not yet given a value (e.g. var a;)
+    private static final Object UNINITIALIZED = new Object();
+    private static final int DEFAULT_CAPACITY = 4;
+
+    public Environment() {
         this.enclosing = null;
+        this.values = new HashMap<>();
+        this.slots = null;
+    }
+
+    public Environment(Environment enclosing) {
+        this(enclosing, DEFAULT_CAPACITY);
     }
 
-    Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int capacity) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[Math.max(capacity, 1)];
     }
 
-    private final Map<String, Map.Entry<Boolean, Object>> values = new HashMap<>();
-    final Environment enclosing;
+    private final Map<String, Map.Entry<Boolean, Object>> values;   // globals only
+    private Object[] slots;                                         // locals only
+    public final Environment enclosing;
+    private int generation = 0;     // bumped whenever a global's entry is replaced (see entry())
 
     /**
-     * Define a variable in the current environment.
+     * Define a variable in the current (global) environment.
      * @param name The name of the variable
      * @param value The initial value (nil for uninitialized variables)
      */
     public void define(String name, Object value) {
         boolean is_initialized = value != null;
-        values.put(name, new java.util.AbstractMap.SimpleEntry<>(is_initialized, value));
+        values.put(Symbols.intern(name), new java.util.AbstractMap.SimpleEntry<>(is_initialized, value));
+        generation++;
+    }
+
+    /**
+     * Define a variable in the current (local) environment.
+     * @param slot The slot the Resolver assigned to the variable
+     * @param value The initial value (nil for uninitialized variables)
+     */
+    public void define(int slot, Object value) {
+        if (slot >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
+        }
+        slots[slot] = value != null ? value : UNINITIALIZED;
     }
 
     public Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            if (!values.get(name.lexeme).getKey()) {    // Check is_initialized field
-                throw new RuntimeError(name, "Uninitialized variable: " 
+        Map.Entry<Boolean, Object> entry = values.get(name.lexeme);   // one lookup, globals are read a lot
+        if (entry != null) {
+            if (!entry.getKey()) {    // Check is_initialized field
+                throw new RuntimeError(name, "Uninitialized variable: "
                                 + name.lexeme + ".");
             }
-            return values.get(name.lexeme).getValue();
+            return entry.getValue();
         }
 
         if (enclosing != null) {
             return enclosing.get(name); // recursively search outer scopes for name
         }
 
-        throw new RuntimeError(name, "Undefined variable: " 
+        throw new RuntimeError(name, "Undefined variable: "
                                 + name.lexeme + ".");
     }
 
-    public Object getAt(Token name, Integer hops) {
-        return ancestor(hops).get(name);
+    /**
+     * The (initialized) entry holding global name, for callers that read it over and over.
+     * Its value stays current for as long as generation() doesn't change; after that, ask again.
+     */
+    Map.Entry<Boolean, Object> entry(Token name) {
+        get(name);      // the errors get would raise
+        return values.get(name.lexeme);
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    public Object getAt(Token name, int hops, int slot) {
+        Object[] scope = ancestor(hops).slots;
+        Object value = slot < scope.length ? scope[slot] : null;
+        if (value == UNINITIALIZED) {
+            throw new RuntimeError(name, "Uninitialized variable: "
+                            + name.lexeme + ".");
+        }
+        return value;
+    }
+
+    // Whether slot holds exactly value (e.g. to check a scope can be reused)
+    boolean holds(int slot, Object value) {
+        return slot < slots.length && slots[slot] == value;
     }
 
-    private Environment ancestor(Integer hops) {
+    private Environment ancestor(int hops) {
         Environment curr = this;
         while (hops > 0) {
             curr = curr.enclosing;
@@ -65,13 +124,26 @@ public class Environment {
         return curr;
     }
 
-    public void assignAt(Token name, Integer hops, Object value) {
-        ancestor(hops).update(name, value);
+    public void assignAt(int hops, int slot, Object value) {
+        ancestor(hops).assign(slot, value);
+    }
+
+    public void assign(int slot, Object value) {
+        if (slot >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
+        }
+        slots[slot] = value;
     }
 
     public Object update(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, new java.util.AbstractMap.SimpleEntry<>(true, value));
+        Map.Entry<Boolean, Object> entry = values.get(name.lexeme);
+        if (entry != null) {
+            if (entry.getKey()) {
+                entry.setValue(value);      // same entry, so whoever cached it sees the new value
+            } else {
+                values.put(name.lexeme, new java.util.AbstractMap.SimpleEntry<>(true, value));
+                generation++;
+            }
             return null;
         }
 
@@ -79,7 +151,7 @@ public class Environment {
             return enclosing.update(name, value);
         }
 
-        throw new RuntimeError(name, "Undefined variable: " 
+        throw new RuntimeError(name, "Undefined variable: "
                                 + name.lexeme + ".");
     }
 
@@ -87,7 +159,7 @@ public class Environment {
         if (values.containsKey(name.lexeme)) {
             return true;
         }
-        
+
         if (enclosing != null) {
             return enclosing.contains(name);
         }
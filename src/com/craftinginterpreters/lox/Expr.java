@@ -3,8 +3,8 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 import java.util.Map;
 
-abstract class Expr {
-	interface ExprVisitor<R> {
+public abstract class Expr {
+	public interface ExprVisitor<R> {
 		R visitBinaryExpr(Expr.Binary binary);
 		R visitGroupingExpr(Expr.Grouping grouping);
 		R visitLiteralExpr(Expr.Literal literal);
@@ -27,9 +27,9 @@ abstract class Expr {
 		R visitListExprExpr(Expr.ListExpr listexpr);
 		R visitMapExprExpr(Expr.MapExpr mapexpr);
 	}
-	abstract <R> R accept(ExprVisitor<R> visitor);
-	static class Binary extends Expr {
-		Binary(Expr left, Token operator, Expr right) {
+	public abstract <R> R accept(ExprVisitor<R> visitor);
+	public static class Binary extends Expr {
+		public Binary(Expr left, Token operator, Expr right) {
 			this.left = left;
 			this.operator = operator;
 			this.right = right;
@@ -40,12 +40,13 @@ abstract class Expr {
 			return visitor.visitBinaryExpr(this);
 		}
 
-		final Expr left;
-		final Token operator;
-		final Expr right;
+		public final Expr left;
+		public final Token operator;
+		public final Expr right;
+		public int specialization = 0;
 	}
-	static class Grouping extends Expr {
-		Grouping(Expr expression) {
+	public static class Grouping extends Expr {
+		public Grouping(Expr expression) {
 			this.expression = expression;
 		}
 
@@ -54,10 +55,10 @@ abstract class Expr {
 			return visitor.visitGroupingExpr(this);
 		}
 
-		final Expr expression;
+		public final Expr expression;
 	}
-	static class Literal extends Expr {
-		Literal(Object value) {
+	public static class Literal extends Expr {
+		public Literal(Object value) {
 			this.value = value;
 		}
 
@@ -66,10 +67,10 @@ abstract class Expr {
 			return visitor.visitLiteralExpr(this);
 		}
 
-		final Object value;
+		public final Object value;
 	}
-	static class Unary extends Expr {
-		Unary(Token operator, Expr right) {
+	public static class Unary extends Expr {
+		public Unary(Token operator, Expr right) {
 			this.operator = operator;
 			this.right = right;
 		}
@@ -79,11 +80,11 @@ abstract class Expr {
 			return visitor.visitUnaryExpr(this);
 		}
 
-		final Token operator;
-		final Expr right;
+		public final Token operator;
+		public final Expr right;
 	}
-	static class Ternary extends Expr {
-		Ternary(Expr cond, Token operator, Expr trueBranch, Expr falseBranch) {
+	public static class Ternary extends Expr {
+		public Ternary(Expr cond, Token operator, Expr trueBranch, Expr falseBranch) {
 			this.cond = cond;
 			this.operator = operator;
 			this.trueBranch = trueBranch;
@@ -95,13 +96,13 @@ abstract class Expr {
 			return visitor.visitTernaryExpr(this);
 		}
 
-		final Expr cond;
-		final Token operator;
-		final Expr trueBranch;
-		final Expr falseBranch;
+		public final Expr cond;
+		public final Token operator;
+		public final Expr trueBranch;
+		public final Expr falseBranch;
 	}
-	static class Variable extends Expr {
-		Variable(Token name) {
+	public static class Variable extends Expr {
+		public Variable(Token name) {
 			this.name = name;
 		}
 
@@ -110,10 +111,12 @@ abstract class Expr {
 			return visitor.visitVariableExpr(this);
 		}
 
-		final Token name;
+		public final Token name;
+		public int depth = -1;
+		public int slot = -1;
 	}
-	static class Assign extends Expr {
-		Assign(Token name, Expr rhs) {
+	public static class Assign extends Expr {
+		public Assign(Token name, Expr rhs) {
 			this.name = name;
 			this.rhs = rhs;
 		}
@@ -123,11 +126,13 @@ abstract class Expr {
 			return visitor.visitAssignExpr(this);
 		}
 
-		final Token name;
-		final Expr rhs;
+		public final Token name;
+		public final Expr rhs;
+		public int depth = -1;
+		public int slot = -1;
 	}
-	static class Index extends Expr {
-		Index(Token lbrack, Expr object, Expr idxExpr, Expr idxExpr2) {
+	public static class Index extends Expr {
+		public Index(Token lbrack, Expr object, Expr idxExpr, Expr idxExpr2) {
 			this.lbrack = lbrack;
 			this.object = object;
 			this.idxExpr = idxExpr;
@@ -139,13 +144,13 @@ abstract class Expr {
 			return visitor.visitIndexExpr(this);
 		}
 
-		final Token lbrack;
-		final Expr object;
-		final Expr idxExpr;
-		final Expr idxExpr2;
+		public final Token lbrack;
+		public final Expr object;
+		public final Expr idxExpr;
+		public final Expr idxExpr2;
 	}
-	static class IndexPrefix extends Expr {
-		IndexPrefix(Token operator, Expr object, Expr idxExpr) {
+	public static class IndexPrefix extends Expr {
+		public IndexPrefix(Token operator, Expr object, Expr idxExpr) {
 			this.operator = operator;
 			this.object = object;
 			this.idxExpr = idxExpr;
@@ -156,12 +161,12 @@ abstract class Expr {
 			return visitor.visitIndexPrefixExpr(this);
 		}
 
-		final Token operator;
-		final Expr object;
-		final Expr idxExpr;
+		public final Token operator;
+		public final Expr object;
+		public final Expr idxExpr;
 	}
-	static class IndexPostfix extends Expr {
-		IndexPostfix(Token operator, Expr object, Expr idxExpr) {
+	public static class IndexPostfix extends Expr {
+		public IndexPostfix(Token operator, Expr object, Expr idxExpr) {
 			this.operator = operator;
 			this.object = object;
 			this.idxExpr = idxExpr;
@@ -172,12 +177,12 @@ abstract class Expr {
 			return visitor.visitIndexPostfixExpr(this);
 		}
 
-		final Token operator;
-		final Expr object;
-		final Expr idxExpr;
+		public final Token operator;
+		public final Expr object;
+		public final Expr idxExpr;
 	}
-	static class IndexAssign extends Expr {
-		IndexAssign(Token lbrack, Expr object, Expr idxExpr, Expr rhs) {
+	public static class IndexAssign extends Expr {
+		public IndexAssign(Token lbrack, Expr object, Expr idxExpr, Expr rhs) {
 			this.lbrack = lbrack;
 			this.object = object;
 			this.idxExpr = idxExpr;
@@ -189,13 +194,13 @@ abstract class Expr {
 			return visitor.visitIndexAssignExpr(this);
 		}
 
-		final Token lbrack;
-		final Expr object;
-		final Expr idxExpr;
-		final Expr rhs;
+		public final Token lbrack;
+		public final Expr object;
+		public final Expr idxExpr;
+		public final Expr rhs;
 	}
-	static class Prefix extends Expr {
-		Prefix(Token operator, Token name) {
+	public static class Prefix extends Expr {
+		public Prefix(Token operator, Token name) {
 			this.operator = operator;
 			this.name = name;
 		}
@@ -205,11 +210,13 @@ abstract class Expr {
 			return visitor.visitPrefixExpr(this);
 		}
 
-		final Token operator;
-		final Token name;
+		public final Token operator;
+		public final Token name;
+		public int depth = -1;
+		public int slot = -1;
 	}
-	static class Postfix extends Expr {
-		Postfix(Token name, Token operator) {
+	public static class Postfix extends Expr {
+		public Postfix(Token name, Token operator) {
 			this.name = name;
 			this.operator = operator;
 		}
@@ -219,11 +226,13 @@ abstract class Expr {
 			return visitor.visitPostfixExpr(this);
 		}
 
-		final Token name;
-		final Token operator;
+		public final Token name;
+		public final Token operator;
+		public int depth = -1;
+		public int slot = -1;
 	}
-	static class Call extends Expr {
-		Call(Expr callee, Token paren, List<Expr> args) {
+	public static class Call extends Expr {
+		public Call(Expr callee, Token paren, List<Expr> args) {
 			this.callee = callee;
 			this.paren = paren;
 			this.args = args;
@@ -234,12 +243,13 @@ abstract class Expr {
 			return visitor.visitCallExpr(this);
 		}
 
-		final Expr callee;
-		final Token paren;
-		final List<Expr> args;
+		public final Expr callee;
+		public final Token paren;
+		public final List<Expr> args;
+		public Environment thisScope = null;
 	}
-	static class Anonymous extends Expr {
-		Anonymous(List<Token> params, Stmt body) {
+	public static class Anonymous extends Expr {
+		public Anonymous(List<Token> params, Stmt body) {
 			this.params = params;
 			this.body = body;
 		}
@@ -249,11 +259,11 @@ abstract class Expr {
 			return visitor.visitAnonymousExpr(this);
 		}
 
-		final List<Token> params;
-		final Stmt body;
+		public final List<Token> params;
+		public final Stmt body;
 	}
-	static class Get extends Expr {
-		Get(Expr object, Token name) {
+	public static class Get extends Expr {
+		public Get(Expr object, Token name) {
 			this.object = object;
 			this.name = name;
 		}
@@ -263,11 +273,12 @@ abstract class Expr {
 			return visitor.visitGetExpr(this);
 		}
 
-		final Expr object;
-		final Token name;
+		public final Expr object;
+		public final Token name;
+		public PropertyCache cache = null;
 	}
-	static class Set extends Expr {
-		Set(Expr object, Token name, Expr rhs) {
+	public static class Set extends Expr {
+		public Set(Expr object, Token name, Expr rhs) {
 			this.object = object;
 			this.name = name;
 			this.rhs = rhs;
@@ -278,12 +289,13 @@ abstract class Expr {
 			return visitor.visitSetExpr(this);
 		}
 
-		final Expr object;
-		final Token name;
-		final Expr rhs;
+		public final Expr object;
+		public final Token name;
+		public final Expr rhs;
+		public PropertyCache cache = null;
 	}
-	static class This extends Expr {
-		This(Token keyword) {
+	public static class This extends Expr {
+		public This(Token keyword) {
 			this.keyword = keyword;
 		}
 
@@ -292,10 +304,12 @@ abstract class Expr {
 			return visitor.visitThisExpr(this);
 		}
 
-		final Token keyword;
+		public final Token keyword;
+		public int depth = -1;
+		public int slot = -1;
 	}
-	static class Super extends Expr {
-		Super(Token keyword, Token property) {
+	public static class Super extends Expr {
+		public Super(Token keyword, Token property) {
 			this.keyword = keyword;
 			this.property = property;
 		}
@@ -305,11 +319,13 @@ abstract class Expr {
 			return visitor.visitSuperExpr(this);
 		}
 
-		final Token keyword;
-		final Token property;
+		public final Token keyword;
+		public final Token property;
+		public int depth = -1;
+		public int slot = -1;
 	}
-	static class ListExpr extends Expr {
-		ListExpr(List<Expr> exprs) {
+	public static class ListExpr extends Expr {
+		public ListExpr(List<Expr> exprs) {
 			this.exprs = exprs;
 		}
 
@@ -318,10 +334,10 @@ abstract class Expr {
 			return visitor.visitListExprExpr(this);
 		}
 
-		final List<Expr> exprs;
+		public final List<Expr> exprs;
 	}
-	static class MapExpr extends Expr {
-		MapExpr(List<Map<Expr,Expr>> KeyValuePairs) {
+	public static class MapExpr extends Expr {
+		public MapExpr(List<Map<Expr,Expr>> KeyValuePairs) {
 			this.KeyValuePairs = KeyValuePairs;
 		}
 
@@ -330,6 +346,6 @@ abstract class Expr {
 			return visitor.visitMapExprExpr(this);
 		}
 
-		final List<Map<Expr,Expr>> KeyValuePairs;
+		public final List<Map<Expr,Expr>> KeyValuePairs;
 	}
 }
@@ -4,14 +4,31 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.lang.reflect.Method;
-import java.lang.reflect.InvocationTargetException;
 
-public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<Void> {
-    final Environment globals = new Environment();  // always refers to inner-most scope
+import com.craftinginterpreters.lox.jit.JitCompiler;
+import com.craftinginterpreters.lox.jit.JitFunction;
+
+public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<Object> {
+    public final Environment globals = new Environment();  // always refers to inner-most scope
     private Environment env = globals;      // env can change
-    private HashMap<Expr, Integer> locals = new HashMap<>();
     private int tupSize = 0;
+    private JitCompiler jit = null;         // non-null when running with --engine=jit
+    private int maxDepth = DEFAULT_MAX_DEPTH;   // nested (non-tail) calls allowed before a RuntimeError
+    private int callDepth = 0;
+
+    private boolean unboxed = true;         // evaluateDouble / evaluateLong for DOUBLES / LONGS Binaries, off with --no-unboxed
+    private boolean missed = false;         // evaluateDouble's "not a number after all" (see there)
+    private Object missedValue = null;
+    private double rightOperand;            // doubleOperands' second result
+
+    public static final int DEFAULT_MAX_DEPTH = 10000;
+
+    // Expr.Binary.specialization: the operand types a Binary has seen so far (see visitBinaryExpr)
+    private static final int UNSPECIALIZED = 0;
+    private static final int DOUBLES = 1;
+    private static final int LONGS = 2;
+    private static final int STRINGS = 3;
+    private static final int GENERIC = 4;
 
     public Interpreter() {
         /**\
@@ -54,7 +71,7 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
                 StringBuilder sb = new StringBuilder();
                 try {
                     // Print user-provided message
-                    String msg = (String)args.get(0);
+                    String msg = (String)LoxRope.flatten(args.get(0));
                     System.out.print(msg);
 
                     // Read all available input from stdin until EOF or newline
@@ -82,7 +99,7 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
             public Object call(Interpreter interpreter, List<Object> args) {
                 try {
                     // User-provided input to print to stdout
-                    String rawInput = (String)args.get(0);
+                    String rawInput = (String)LoxRope.flatten(args.get(0));
                     System.out.println(rawInput);
                 } catch (NumberFormatException e) {
                     throw new RuntimeError(null, "Cannot convert input to number: '" + args.get(0) + "'");
@@ -102,15 +119,19 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
 
             @Override
             public Object call(Interpreter interpreter, List<Object> args) {
-                double inputAsNum;
+                Object inputAsNum;
                 // User-provided input
-                Object arg = args.get(0);
+                Object arg = LoxRope.flatten(args.get(0));
                 try {
                     if (arg instanceof String) {
-                        String rawInput = (String)args.get(0);
-                        inputAsNum = Double.parseDouble(rawInput);
-                    } else if (arg instanceof Number) {
-                        inputAsNum = ((Number) arg).doubleValue();
+                        String rawInput = ((String)arg).trim();
+                        try {
+                            inputAsNum = Long.parseLong(rawInput);
+                        } catch (NumberFormatException e) {
+                            inputAsNum = Double.parseDouble(rawInput);
+                        }
+                    } else if (LoxNumber.isNumber(arg)) {
+                        inputAsNum = arg;
                     } else {
                         throw new RuntimeError(null, "Invalid input type: '" + arg + "'");
                     }
@@ -145,10 +166,30 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         // TODO: Add native functions to implement file I/O
     }
 
+    // Set by Lox for --engine=jit (null turns it back off)
+    public void setJit(JitCompiler jit) {
+        this.jit = jit;
+    }
+
+    // Set by Lox for --max-depth
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    // Set by Lox for --no-unboxed
+    public void setUnboxed(boolean unboxed) {
+        this.unboxed = unboxed;
+    }
+
     // For DEBUG
     public void interpretExpression(Expr expr) {
         try {
             Object value = evaluate(expr);
+            value = LoxRope.flatten(value);
             if (value instanceof String || value instanceof Character) {
                 value = "'" + (String)value + "'";
             }
@@ -161,9 +202,8 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     public void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
-                try {
-                    execute(statement);
-                } catch (Break | Continue | Return e) {  // Can only get here if break or continue used outside of for / while
+                Object e = execute(statement);
+                if (e != null) {  // break / continue / return that escaped every loop & function
                     // dummy token for error reporting
                     TokenType type = e instanceof Break ? TokenType.BREAK : e instanceof Continue ? TokenType.CONTINUE : TokenType.RETURN;
                     String lexeme = type == TokenType.BREAK ? "break" : type == TokenType.CONTINUE ? "continue" : "return";
@@ -187,28 +227,53 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         }
     }
 
-    public void resolve(Expr expr, Integer depth) {
-        if (!locals.containsKey(expr)) locals.put(expr, depth);
+    /**
+     * depth / slot are written onto the AST node by the Resolver.
+     * A depth of -1 means the Resolver didn't find name in any local scope (i.e. it's a global).
+     */
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth == -1) {
+            return globals.get(name);
+        } else {
+            return env.getAt(name, depth, slot);
+        }
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer hops = locals.get(expr);
-        if (hops == null) {
-            return globals.get(name);
+    private void assignVariable(Token name, int depth, int slot, Object value) {
+        if (depth == -1) {
+            globals.update(name, value);
+        } else {
+            env.assignAt(depth, slot, value);
+        }
+    }
+
+    // Declarations the Resolver placed in a local scope go in their slot, everything else is a global
+    private void define(Token name, int slot, Object value) {
+        if (slot == -1) {
+            env.define(name.lexeme, value);
+        } else {
+            env.define(slot, value);
+        }
+    }
+
+    // Give an already-defined declaration in the current scope a new value
+    private void redefine(Token name, int slot, Object value) {
+        if (slot == -1) {
+            env.update(name, value);
         } else {
-            return env.getAt(name, hops);
+            env.assign(slot, value);
         }
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression exprStmt) {
+    public Object visitExpressionStmt(Stmt.Expression exprStmt) {
         evaluate(exprStmt.expression);
 
         return null;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print printStmt) {
+    public Object visitPrintStmt(Stmt.Print printStmt) {
         Object value = evaluate(printStmt.expression);
         System.out.println(stringify(value));
 
@@ -216,37 +281,30 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If ifStmt) {
+    public Object visitIfStmt(Stmt.If ifStmt) {
         if (getTruthiness(evaluate(ifStmt.condition))) {
-            execute(ifStmt.thenStmt); 
+            return execute(ifStmt.thenStmt);
         } else if (ifStmt.elseStmt != null) {
-            execute(ifStmt.elseStmt); 
+            return execute(ifStmt.elseStmt);
         }
 
         return null;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While whileStmt) {
-        try {
-            while (getTruthiness(evaluate(whileStmt.condition))) {
-                try {
-                    execute(whileStmt.body);
-                } catch (Continue ignored) {
-                    // When continue is encountered, we just skip to the next iteration
-                    // by breaking out of the inner try and continuing the outer loop
-                    continue;
-                }
-            }
-        } catch (Break ignored) {
-            // When break is encountered, we just exit the loop completely
+    public Object visitWhileStmt(Stmt.While whileStmt) {
+        while (getTruthiness(evaluate(whileStmt.condition))) {
+            Object completion = execute(whileStmt.body);
+            if (completion instanceof Returned) return completion;
+            if (completion == Break.instance()) break;
+            // Continue: on to the next condition check
         }
-        
+
         return null;
     }
 
     @Override
-    public Void visitForeachStmt(Stmt.Foreach stmt) {
+    public Object visitForeachStmt(Stmt.Foreach stmt) {
         Object iterable = evaluate(stmt.iterable);
         if (!(iterable instanceof LoxList) &&
             !(iterable instanceof LoxMap)  &&
@@ -254,93 +312,63 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
                 Lox.error(stmt.iterator.name, "Can only iterate over iterables.");
         }
 
-        env.define(stmt.iterator.name.lexeme, null);
+        define(stmt.iterator.name, stmt.iterator.slot, null);
 
-        try {
-            if (iterable instanceof LoxList) {
-                LoxList list = (LoxList)iterable;
-                for (int i=0; i<list.size(); ++i) {
-                    Object val = list.getAt(i);
-                    env.update(stmt.iterator.name, val);
-                    try {
-                        execute(stmt.body);
-                    } catch (Continue ignored) {
-                        // When continue is encountered, jump to next iteration
-                    }
-                }
-            } else if (iterable instanceof LoxTuple) {
-                LoxTuple tup = (LoxTuple)iterable;
-                for (int i=0; i<tup.size(); ++i) {
-                    Object val = tup.getAt(i);
-                    env.update(stmt.iterator.name, val);
-                    try {
-                        execute(stmt.body);
-                    } catch (Continue ignored) {
-                        // When continue is encountered, jump to next iteration
-                    }
-                }
-            } else if (iterable instanceof LoxMap) {
-                LoxMap map = (LoxMap)iterable;
-                for (int i=0; i<map.size(); ++i) {
-                    Map.Entry<Object, Object> entry = map.getAt(i);
-                    env.update(stmt.iterator.name, entry);
-                    try {
-                        execute(stmt.body);
-                    } catch (Continue ignored) {
-                        // When continue is encountered, jump to next iteration
-                    }
-                }
+        if (iterable instanceof LoxList) {
+            LoxList list = (LoxList)iterable;
+            for (int i=0; i<list.size(); ++i) {
+                Object val = list.getAt(i);
+                redefine(stmt.iterator.name, stmt.iterator.slot, val);
+                Object completion = execute(stmt.body);
+                if (completion instanceof Returned) return completion;
+                if (completion == Break.instance()) break;
+            }
+        } else if (iterable instanceof LoxTuple) {
+            LoxTuple tup = (LoxTuple)iterable;
+            for (int i=0; i<tup.size(); ++i) {
+                Object val = tup.getAt(i);
+                redefine(stmt.iterator.name, stmt.iterator.slot, val);
+                Object completion = execute(stmt.body);
+                if (completion instanceof Returned) return completion;
+                if (completion == Break.instance()) break;
+            }
+        } else if (iterable instanceof LoxMap) {
+            LoxMap map = (LoxMap)iterable;
+            for (int i=0; i<map.size(); ++i) {
+                Map.Entry<Object, Object> entry = map.getAt(i);
+                redefine(stmt.iterator.name, stmt.iterator.slot, entry);
+                Object completion = execute(stmt.body);
+                if (completion instanceof Returned) return completion;
+                if (completion == Break.instance()) break;
             }
-        } catch (Break ignored) {
-            // When break is encountered, we just exit the loop completely
         }
 
         return null;
     }
 
     @Override
-    public Void visitForStmt(Stmt.For forStmt) {
+    public Object visitForStmt(Stmt.For forStmt) {
         if (forStmt.initialization != null) {
             execute(forStmt.initialization);
         }
 
-        try {
-            if (forStmt.condition != null) {
-                // Execute body, execute update, repeat while condition is true
-                while (getTruthiness(evaluate(forStmt.condition))) {
-                    try {
-                        execute(forStmt.body);
-                    } catch (Continue ignored) {
-                        // When continue is encountered, skip to the update step
-                    }
-                    
-                    if (forStmt.update != null) {
-                        execute(forStmt.update);
-                    }
-                }
-            } else {
-                // Infinite loop case (no condition)
-                while (true) {
-                    try {
-                        execute(forStmt.body);
-                    } catch (Continue ignored) {
-                        // When continue is encountered, skip to the update step
-                    }
-                    
-                    if (forStmt.update != null) {
-                        execute(forStmt.update);
-                    }
-                }
+        // No condition: loop until break / return
+        while (forStmt.condition == null || getTruthiness(evaluate(forStmt.condition))) {
+            Object completion = execute(forStmt.body);
+            if (completion instanceof Returned) return completion;
+            if (completion == Break.instance()) break;
+            // Continue: on to the update step
+
+            if (forStmt.update != null) {
+                execute(forStmt.update);
             }
-        } catch (Break ignored) {
-            // When break is encountered, we just exit the loop completely
         }
 
         return null;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var varStmt) {
+    public Object visitVarStmt(Stmt.Var varStmt) {
         /* 
          * This function handles variable declarations.
          * Variables with initializers are fully defined and initialized.
@@ -376,95 +404,69 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         if (varStmt.initializer != null) {
             value = evaluate(varStmt.initializer);
         }
-        env.define(varStmt.name.lexeme, value);
+        define(varStmt.name, varStmt.slot, value);
 
         return null;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block block) {
-        return executeBlockStmt(block, new Environment(this.env));
+    public Object visitBlockStmt(Stmt.Block block) {
+        return executeBlockStmt(block, new Environment(this.env, block.slotCount));
     }
 
-    public Void executeBlockStmt(Stmt.Block block, Environment env) {
+    /**
+     * What?
+     *  Run block's statements in env and report how the block completed.
+     *
+     * How?
+     *  Statements don't throw to break / continue / return. Every visitXxxStmt returns its
+     *  completion instead, same as the closure engine's StmtNodes: null when it ran off the end,
+     *  otherwise the Break / Continue singleton or a Returned holding the value.
+     *  A block stops at the first non-null completion and hands it to its caller, until
+     *  a loop (break / continue) or LoxFunction.call (return) consumes it.
+     */
+    public Object executeBlockStmt(Stmt.Block block, Environment env) {
         Environment enclosing = this.env;    // Set parent to current environment
         try {
             this.env = env;   // set current environment to newly alloc'd Environment (more "innner" scope)
             for (Stmt stmt : block.statements) {
-                execute(stmt);
+                Object completion = execute(stmt);
+                if (completion != null) return completion;     // bubble break / continue / return up
             }
-        } catch (Break | Continue e) {
-            // Re-throw break and continue exceptions so they propagate up to the enclosing loop
-            this.env = enclosing;    // Make sure we restore the environment
-            throw e;
         } finally {
-            // restore env even if exception is thrown
-            this.env = enclosing;    // Reset env to previous scope
-        }
-        return null;
-    }
-    
-    // Overloaded version for function bodies
-    public Void executeBlockStmt(Stmt.Block block, Environment env, boolean inFunction) {
-        Environment enclosing = this.env;    // Set parent to current environment
-        try {
-            this.env = env;   // set current environment to newly alloc'd Environment (more "innner" scope)
-            for (Stmt stmt : block.statements) {
-                execute(stmt);
-            }
-        } catch (Break | Continue e) {
-            this.env = enclosing;    // Make sure we restore the environment
-            
-            if (inFunction) {
-                // In a function context, break/continue are errors
-                TokenType type = e instanceof Break ? TokenType.BREAK : TokenType.CONTINUE;
-                String lexeme = type == TokenType.BREAK ? "break" : "continue";
-                Token dummyToken = new Token(type, lexeme, null, 0);
-                
-                throw new RuntimeError(
-                    dummyToken, e instanceof Break ? 
-                    "break statement outside of loop." : 
-                    "continue statement outside of loop."
-                );
-
-            } else {
-                // Re-throw for loops to handle
-                throw e;
-            }
-        } finally {
-            // restore env even if exception is thrown
+            // restore env even if a RuntimeError is thrown
             this.env = enclosing;    // Reset env to previous scope
         }
         return null;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break breakStmt) {
-        throw Break.instance();
+    public Object visitBreakStmt(Stmt.Break breakStmt) {
+        return Break.instance();
     }
 
     @Override 
-    public Void visitContinueStmt(Stmt.Continue continueStmt) {
-        throw Continue.instance();
+    public Object visitContinueStmt(Stmt.Continue continueStmt) {
+        return Continue.instance();
     }
 
     @Override
-    public Void visitFunctionDefStmt(Stmt.FunctionDef funcDef) {
-        if (env.contains(funcDef.name)) {
-            env.update(funcDef.name, new LoxFunction(funcDef, this.env, false, false, false));
-        } else {
-            env.define(funcDef.name.lexeme, new LoxFunction(funcDef, this.env, false, false, false));
-        }
+    public Object visitFunctionDefStmt(Stmt.FunctionDef funcDef) {
+        LoxFunction function = jit != null ? jit.function(funcDef, this.env)
+                                            : new LoxFunction(funcDef, this.env, false, false, false);
+        define(funcDef.name, funcDef.slot, function);
 
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return retStmt) {
+    public Object visitReturnStmt(Stmt.Return retStmt) {
+        if (retStmt.tailCall) return tailPosition(retStmt.value);
+
         Object retValue = null;
         if (retStmt.value != null) retValue = evaluate(retStmt.value);
 
-        throw new Return(retValue);
+        return new Returned(retValue);
     }
 
     @Override
@@ -477,37 +479,398 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
             return (boolean)(getTruthiness(evaluate(expr.left))) || 
                    (boolean)(getTruthiness(evaluate(expr.right)));
         
+        if (expr.specialization == DOUBLES && unboxed) return evaluateDoubles(expr);
+        if (expr.specialization == LONGS && unboxed) return evaluateLongs(expr);
+
         // Declare here so short-cirtuiting works correctly
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+
+        /**
+         * What?
+         *  Type feedback. binaryOp has to try every operand type combination it supports
+         *  (up to 16 instanceof checks for +), but any one Binary in a real program nearly
+         *  always sees the same types - usually two numbers. (DOUBLES: numbers, at least one
+         *  of them a Double - both, for a comparison. LONGS: two integers.)
+         *
+         * How?
+         *  The first time a Binary runs it records what it saw in expr.specialization.
+         *  From then on a DOUBLES / LONGS / STRINGS node checks just for those types and does the
+         *  operation itself. The first time that check fails the node deoptimizes to GENERIC
+         *  for good (so a polymorphic node doesn't flip-flop) and binaryOp takes over.
+         */
+        switch (expr.specialization) {
+            case DOUBLES:
+                if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right) &&
+                        !(left instanceof Long && right instanceof Long) &&
+                        (isArithmetic(expr.operator.type) || (left instanceof Double && right instanceof Double))) {
+                    Object result = doubleOp(expr.operator, LoxNumber.toDouble(left), LoxNumber.toDouble(right));
+                    if (result != null) return result;
+                    return binaryOp(expr.operator, left, right);  // x / 0 - an error, not a type miss
+                }
+                break;
+            case LONGS:
+                if (left instanceof Long && right instanceof Long) {
+                    Object result = longOp(expr.operator, (long)left, (long)right);
+                    if (result != null) return result;
+                    return binaryOp(expr.operator, left, right);  // x / 0
+                }
+                break;
+            case STRINGS:
+                if (LoxRope.isString(left) && LoxRope.isString(right)) {
+                    return LoxRope.concat(left, right);
+                }
+                break;
+            case GENERIC:
+                return binaryOp(expr.operator, left, right);
+            default:
+                expr.specialization = specialize(expr.operator, left, right);
+                return binaryOp(expr.operator, left, right);
+        }
+
+        expr.specialization = GENERIC;
+        return binaryOp(expr.operator, left, right);
+    }
+
+    /**
+     * What?
+     *  A DOUBLES Binary without boxing the intermediate results. Going through evaluate, every
+     *  inner number is a fresh Double that the parent immediately unboxes again, e.g.
+     *      (a * a + b * b) / 2     allocates a*a, b*b and their sum only to throw them away
+     *  Now only the value of the whole expression gets boxed (and comparisons don't allocate
+     *  at all - Boolean.valueOf).
+     *
+     * How?
+     *  Both operands go through evaluateDouble (see doubleOperands). If they don't turn out
+     *  to be numbers after all, the node deoptimizes like in visitBinaryExpr and binaryOp
+     *  finishes the job (the operand that missed isn't evaluated twice - see evaluateDouble).
+     */
+    private Object evaluateDoubles(Expr.Binary expr) {
+        double left = doubleOperands(expr);
+        if (missed) return takeMiss();
+        double right = rightOperand;
+
+        Object result = doubleOp(expr.operator, left, right);
+        if (result != null) return result;
+        return binaryOp(expr.operator, left, right);  // x / 0 - an error, not a type miss
+    }
+
+    /**
+     * What?
+     *  The value of a numeric expression as a primitive double. Recurses through the shapes
+     *  that produce numbers out of numbers (DOUBLES arithmetic, unary minus, grouping), so a
+     *  whole tree of them is computed without allocating. Anything else (variables, calls,
+     *  ++x...) is evaluated normally and unboxed.
+     *
+     * How?
+     *  When expr turns out not to be a Double (a Long included - whether the result is an
+     *  integer depends on it), its boxed value is parked in missedValue, missed is set and 0
+     *  is returned. Callers check missed right away and finish with takeMiss(), the same
+     *  way they would have through evaluate.
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable)expr;
+            return unbox(lookUpVariable(var.name, var.depth, var.slot));
+        } else if (expr instanceof Expr.Literal) {
+            return unbox(((Expr.Literal)expr).value);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.specialization == DOUBLES && isArithmetic(binary.operator.type)) {
+                double left = doubleOperands(binary);
+                if (missed) return unbox(takeMiss());
+                double right = rightOperand;
+
+                switch (binary.operator.type) {
+                    case PLUS:  return left + right;
+                    case MINUS: return left - right;
+                    case STAR:  return left * right;
+                    default:
+                        if (right == 0) return unbox(binaryOp(binary.operator, left, right));   // throws
+                        return binary.operator.type == TokenType.SLASH ? left / right : left % right;
+                }
+            }
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.operator.type == TokenType.MINUS) {
+                double right = evaluateDouble(unary.right);
+                if (missed) return unbox(unaryOp(unary.operator, takeMiss()));
+                return -right;
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping)expr).expression);
+        }
+
+        return unbox(evaluate(expr));
+    }
+
+    /**
+     * What?
+     *  Both operands of a DOUBLES Binary as doubles: the left one is returned, the right one
+     *  left in rightOperand for the caller to pick up straight away.
+     *
+     * How?
+     *  A Long operand is fine as long as the other one is a Double (mixing makes a Double),
+     *  for arithmetic. Comparisons of a Long with a Double aren't done in doubles (see
+     *  LoxNumber.compare). Anything else means the node has to be finished generically -
+     *  that's done here, and its value is handed back as a miss.
+     */
+    private double doubleOperands(Expr.Binary expr) {
+        double left = evaluateDouble(expr.left);
+        double right;
+        if (missed) {
+            Object boxedLeft = takeMiss();
+            Object boxedRight = evaluate(expr.right);
+            if (!(boxedLeft instanceof Long && boxedRight instanceof Double) || !isArithmetic(expr.operator.type)) {
+                return miss(deoptimize(expr, boxedLeft, boxedRight));
+            }
+            left = (long)boxedLeft;
+            right = (double)boxedRight;
+        } else {
+            right = evaluateDouble(expr.right);
+            if (missed) {
+                Object boxedRight = takeMiss();
+                if (!(boxedRight instanceof Long) || !isArithmetic(expr.operator.type)) {
+                    return miss(deoptimize(expr, left, boxedRight));
+                }
+                right = (long)boxedRight;
+            }
+        }
+        rightOperand = right;
+        return left;
+    }
+
+    // evaluateDoubles for two integers
+    private Object evaluateLongs(Expr.Binary expr) {
+        long left = evaluateLong(expr.left);
+        if (missed) return deoptimize(expr, takeMiss(), evaluate(expr.right));
+        long right = evaluateLong(expr.right);
+        if (missed) return deoptimize(expr, left, takeMiss());
+
+        Object result = longOp(expr.operator, left, right);
+        if (result != null) return result;
+        return binaryOp(expr.operator, left, right);  // x / 0
+    }
+
+    /**
+     * What?
+     *  evaluateDouble for integers: a tree of LONGS +, -, *, %, bitwise and shift operators
+     *  (think loop counters and hash functions) without boxing the intermediate results.
+     *
+     * How?
+     *  Misses the same way evaluateDouble does - for anything that isn't a Long, and for
+     *  results that overflowed into a Double.
+     */
+    private long evaluateLong(Expr expr) {
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable)expr;
+            return unboxLong(lookUpVariable(var.name, var.depth, var.slot));
+        } else if (expr instanceof Expr.Literal) {
+            return unboxLong(((Expr.Literal)expr).value);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.specialization == LONGS && isIntegerOp(binary.operator.type)) {
+                long left = evaluateLong(binary.left);
+                if (missed) return unboxLong(deoptimize(binary, takeMiss(), evaluate(binary.right)));
+                long right = evaluateLong(binary.right);
+                if (missed) return unboxLong(deoptimize(binary, left, takeMiss()));
+
+                switch (binary.operator.type) {
+                    case PLUS:
+                        if (LoxNumber.addOverflows(left, right)) return unboxLong(LoxNumber.add(left, right));
+                        return left + right;
+                    case MINUS:
+                        if (LoxNumber.subtractOverflows(left, right)) return unboxLong(LoxNumber.subtract(left, right));
+                        return left - right;
+                    case STAR:
+                        if (LoxNumber.multiplyOverflows(left, right)) return unboxLong(LoxNumber.multiply(left, right));
+                        return left * right;
+                    case MODULO:
+                        if (right == 0) return unboxLong(binaryOp(binary.operator, left, right));   // throws
+                        return left % right;
+                    case BITWISE_AND:    return left & right;
+                    case BITWISE_OR:     return left | right;
+                    case BITWISE_XOR:    return left ^ right;
+                    case BITSHIFT_LEFT:  return left << right;
+                    default:             return left >> right;
+                }
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateLong(((Expr.Grouping)expr).expression);
+        }
+
+        return unboxLong(evaluate(expr));
+    }
+
+    private long unboxLong(Object value) {
+        if (value instanceof Long) return (long)value;
+        miss(value);
+        return 0;
+    }
+
+    private double unbox(Object value) {
+        if (value instanceof Double) return (double)value;
+        return miss(value);
+    }
+
+    private double miss(Object value) {
+        missed = true;
+        missedValue = value;
+        return 0;
+    }
+
+    private Object takeMiss() {
+        Object value = missedValue;
+        missed = false;
+        missedValue = null;
+        return value;
+    }
+
+    // A DOUBLES / LONGS node just saw something else - from now on it's GENERIC
+    private Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        expr.specialization = GENERIC;
+        return binaryOp(expr.operator, left, right);
+    }
+
+    private static boolean isArithmetic(TokenType type) {
+        switch (type) {
+            case PLUS:
+            case MINUS:
+            case STAR:
+            case SLASH:
+            case MODULO:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // The LONGS operators that always give an integer back (or overflow)
+    private static boolean isIntegerOp(TokenType type) {
+        switch (type) {
+            case PLUS:
+            case MINUS:
+            case STAR:
+            case MODULO:
+            case BITWISE_AND:
+            case BITWISE_OR:
+            case BITWISE_XOR:
+            case BITSHIFT_LEFT:
+            case BITSHIFT_RIGHT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Which specialization a Binary should start out with after seeing left & right
+    private int specialize(Token operator, Object left, Object right) {
+        switch (operator.type) {
+            case PLUS:
+                if (LoxRope.isString(left) && LoxRope.isString(right)) return STRINGS;
+                return specializeNumeric(left, right);
+            case MINUS:
+            case STAR:
+            case SLASH:
+            case MODULO:
+                return specializeNumeric(left, right);
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                // A Long against a Double isn't compared in doubles (see LoxNumber.compare)
+                if (left instanceof Double && right instanceof Double) return DOUBLES;
+                if (left instanceof Long && right instanceof Long) return LONGS;
+                return GENERIC;
+            case BITWISE_AND:
+            case BITWISE_OR:
+            case BITWISE_XOR:
+            case BITSHIFT_LEFT:
+            case BITSHIFT_RIGHT:
+                if (left instanceof Long && right instanceof Long) return LONGS;
+                return GENERIC;
+            default:
+                return GENERIC;     // ==, **, comma - nothing to gain
+        }
+    }
+
+    private static int specializeNumeric(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return LONGS;
+        if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right)) return DOUBLES;
+        return GENERIC;
+    }
+
+    // Same results as binaryOp for two numbers. null: let binaryOp raise the division by zero error
+    private Object doubleOp(Token operator, double left, double right) {
+        switch (operator.type) {
+            case PLUS:          return left + right;
+            case MINUS:         return left - right;
+            case STAR:          return left * right;
+            case SLASH:         return right != 0 ? (Object)(left / right) : null;
+            case MODULO:        return right != 0 ? (Object)(left % right) : null;
+            case GREATER:       return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS:          return left < right;
+            case LESS_EQUAL:    return left <= right;
+            default:            return null;
+        }
+    }
+
+    // Same for two integers
+    private Object longOp(Token operator, long left, long right) {
+        switch (operator.type) {
+            case PLUS:           return LoxNumber.add(left, right);
+            case MINUS:          return LoxNumber.subtract(left, right);
+            case STAR:           return LoxNumber.multiply(left, right);
+            case SLASH:          return right != 0 ? LoxNumber.divide(left, right) : null;
+            case MODULO:         return right != 0 ? (Object)(left % right) : null;
+            case GREATER:        return left > right;
+            case GREATER_EQUAL:  return left >= right;
+            case LESS:           return left < right;
+            case LESS_EQUAL:     return left <= right;
+            case BITWISE_AND:    return left & right;
+            case BITWISE_OR:     return left | right;
+            case BITWISE_XOR:    return left ^ right;
+            case BITSHIFT_LEFT:  return left << right;
+            case BITSHIFT_RIGHT: return left >> right;
+            default:             return null;
+        }
+    }
+
+    // Everything but the short-circuiting operators, once both operands are evaluated
+    public Object binaryOp(Token operator, Object left, Object right) {
         double leftVal, rightVal;
 
-        switch (expr.operator.type) {
-            // Arithmetic
+        switch (operator.type) {
+            // Arithmetic (see LoxNumber for when integers stay integers)
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
+                if (left instanceof Long && right instanceof Long) {
+                    return LoxNumber.add((long)left, (long)right);
+                }
+                if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right)) {
+                    return LoxNumber.toDouble(left) + LoxNumber.toDouble(right);
                 }
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                // Strings may be ropes, see LoxRope
+                if (LoxRope.isString(left) && LoxRope.isString(right)) {
+                    return LoxRope.concat(left, right);
                 }
-                if (left instanceof String && right instanceof LoxList) {
-                    return (String)left + ((LoxList)right).toString();
+                if (LoxRope.isString(left) && right instanceof LoxList) {
+                    return LoxRope.concat(left, ((LoxList)right).toString());
                 }
-                if (left instanceof LoxList && right instanceof String) {
-                    return ((LoxList)left).toString() + (String)right;
+                if (left instanceof LoxList && LoxRope.isString(right)) {
+                    return LoxRope.concat(((LoxList)left).toString(), right);
                 }
-                if (left instanceof String && right instanceof LoxTuple) {
-                    return (String)left + ((LoxTuple)right).toString();
+                if (LoxRope.isString(left) && right instanceof LoxTuple) {
+                    return LoxRope.concat(left, ((LoxTuple)right).toString());
                 }
-                if (left instanceof LoxTuple && right instanceof String) {
-                    return ((LoxTuple)left).toString() + (String)right;
+                if (left instanceof LoxTuple && LoxRope.isString(right)) {
+                    return LoxRope.concat(((LoxTuple)left).toString(), right);
                 }
-                if (left instanceof String && right instanceof LoxMap) {
-                    return (String)left + ((LoxMap)right).toString();
+                if (LoxRope.isString(left) && right instanceof LoxMap) {
+                    return LoxRope.concat(left, ((LoxMap)right).toString());
                 }
-                if (left instanceof LoxMap && right instanceof String) {
-                    return ((LoxMap)left).toString() + (String)right;
+                if (left instanceof LoxMap && LoxRope.isString(right)) {
+                    return LoxRope.concat(((LoxMap)left).toString(), right);
                 }
                 if (left instanceof LoxList && right instanceof LoxList) {
                     return ((LoxList)left).add((LoxList)right);
@@ -515,103 +878,91 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
                 if (left instanceof LoxTuple && right instanceof LoxTuple) {
                     return ((LoxTuple)left).add((LoxTuple)right);
                 }
-                if (left instanceof String && right instanceof Double) {
-                    String sright = canonicalizeNum(right.toString());
-                    return (String)left + sright;
-                }
-                if (left instanceof Double && right instanceof String) {
-                    String sleft = canonicalizeNum(left.toString());
-                    return sleft + (String)right;
-                }
-                if (left instanceof String && right instanceof Integer) {
-                    String sright = ((Integer)right).toString();
-                    return (String)left + sright;
-                }
-                if (left instanceof Integer && right instanceof String) {
-                    String sleft = ((Integer)left).toString();
-                    return sleft + (String)right;
+                if (LoxRope.isString(left) && LoxNumber.isNumber(right)) {
+                    return LoxRope.concat(left, stringify(right));
                 }
-                if (left instanceof Integer && right instanceof Double) {
-                    return ((Integer)left).doubleValue() + (double)right;
+                if (LoxNumber.isNumber(left) && LoxRope.isString(right)) {
+                    return LoxRope.concat(stringify(left), right);
                 }
-                if (left instanceof Double && right instanceof Integer) {
-                    return (double)left + ((Integer)right).doubleValue();
-                }
-                if (left instanceof Integer && right instanceof Integer) {
-                    return ((Integer)left).doubleValue() + ((Integer)right).doubleValue();
-                }
-                throw new RuntimeError(expr.operator, expr.operator + 
+                throw new RuntimeError(operator, operator + 
                     " operator only supports number and/or string types.");
             case MINUS: 
-                checkNumberOperands(expr.operator, left, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) {
+                    return LoxNumber.subtract((long)left, (long)right);
+                }
+                leftVal = LoxNumber.toDouble(left);
+                rightVal = LoxNumber.toDouble(right);
                 return leftVal - rightVal;
             case STAR: 
-                checkNumberOperands(expr.operator, left, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) {
+                    return LoxNumber.multiply((long)left, (long)right);
+                }
+                leftVal = LoxNumber.toDouble(left);
+                rightVal = LoxNumber.toDouble(right);
                 return leftVal * rightVal;
             case STAR_STAR: 
-                checkNumberOperands(expr.operator, left, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) {
+                    return LoxNumber.power((long)left, (long)right);
+                }
+                leftVal = LoxNumber.toDouble(left);
+                rightVal = LoxNumber.toDouble(right);
                 return Math.pow(leftVal, rightVal);
             case SLASH: 
-                checkNumberOperands(expr.operator, left, right);
-                checkDivisor(expr.operator, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
+                checkNumberOperands(operator, left, right);
+                checkDivisor(operator, right);
+                if (left instanceof Long && right instanceof Long) {
+                    return LoxNumber.divide((long)left, (long)right);
+                }
+                leftVal = LoxNumber.toDouble(left);
+                rightVal = LoxNumber.toDouble(right);
                 return leftVal / rightVal;
             case MODULO: 
-                checkNumberOperands(expr.operator, left, right);
-                checkDivisor(expr.operator, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
+                checkNumberOperands(operator, left, right);
+                checkDivisor(operator, right);
+                if (left instanceof Long && right instanceof Long) {
+                    return (long)left % (long)right;
+                }
+                leftVal = LoxNumber.toDouble(left);
+                rightVal = LoxNumber.toDouble(right);
                 return leftVal % rightVal;
 
-            // Bitwise
+            // Bitwise - always integers, Doubles are truncated
             case BITSHIFT_LEFT:
             case BITSHIFT_RIGHT:
             case BITWISE_AND:
             case BITWISE_OR:
             case BITWISE_XOR:
-                checkBitwiseOperands(expr.operator, left, right);
-                int ileft = (left instanceof Double) ? ((Double)left).intValue() : (int)left;
-                int iright = (right instanceof Double) ? ((Double)right).intValue() : (int)right;
-                if (expr.operator.type == TokenType.BITWISE_AND) return ileft & iright;
-                if (expr.operator.type == TokenType.BITWISE_OR) return ileft | iright;
-                if (expr.operator.type == TokenType.BITWISE_XOR) return ileft ^ iright;
-                if (expr.operator.type == TokenType.BITSHIFT_LEFT) return ileft << iright;
-                if (expr.operator.type == TokenType.BITSHIFT_RIGHT) return ileft >> iright;
+                checkBitwiseOperands(operator, left, right);
+                long lleft = LoxNumber.toLong(left);
+                long lright = LoxNumber.toLong(right);
+                if (operator.type == TokenType.BITWISE_AND) return lleft & lright;
+                if (operator.type == TokenType.BITWISE_OR) return lleft | lright;
+                if (operator.type == TokenType.BITWISE_XOR) return lleft ^ lright;
+                if (operator.type == TokenType.BITSHIFT_LEFT) return lleft << lright;
+                if (operator.type == TokenType.BITSHIFT_RIGHT) return lleft >> lright;
 
             // Comparison
             case EQUAL_EQUAL: 
-                checkTruthyOperands(expr.operator, left, right);
+                checkTruthyOperands(operator, left, right);
                 return isEqual(left, right);
             case BANG_EQUAL: 
-                checkTruthyOperands(expr.operator, left, right);
+                checkTruthyOperands(operator, left, right);
                 return !isEqual(left, right);
             case GREATER: 
-                checkNumberOperands(expr.operator, left, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
-                return leftVal > rightVal;
+                checkNumberOperands(operator, left, right);
+                return LoxNumber.greater(left, right);
             case LESS: 
-                checkNumberOperands(expr.operator, left, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
-                return leftVal < rightVal;
+                checkNumberOperands(operator, left, right);
+                return LoxNumber.less(left, right);
             case GREATER_EQUAL: 
-                checkNumberOperands(expr.operator, left, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
-                return leftVal >= rightVal;
+                checkNumberOperands(operator, left, right);
+                return LoxNumber.greaterEqual(left, right);
             case LESS_EQUAL: 
-                checkNumberOperands(expr.operator, left, right);
-                leftVal = convertToLoxNum(left);
-                rightVal = convertToLoxNum(right);
-                return leftVal <= rightVal;
+                checkNumberOperands(operator, left, right);
+                return LoxNumber.lessEqual(left, right);
 
             // Comma
             case COMMA: return right;
@@ -633,17 +984,22 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
-        switch(expr.operator.type) {
+        return unaryOp(expr.operator, right);
+    }
+
+    public Object unaryOp(Token operator, Object right) {
+        switch(operator.type) {
             case BANG: 
-                checkTruthyOperand(expr.operator, right);
+                checkTruthyOperand(operator, right);
                 return !getTruthiness(right);
             case MINUS: 
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
+                if (right instanceof Long) return LoxNumber.negate((long)right);
                 return -(double)right;
             case BITWISE_NOT: 
-                // checkNumberOperand(expr.operator, right);
-                checkBitwiseOperand(expr.operator, right);
-                return ~(((Double)right).intValue());
+                // checkNumberOperand(operator, right);
+                checkBitwiseOperand(operator, right);
+                return ~LoxNumber.toLong(right);
             // Prefix
             case PLUS_PLUS:
             case MINUS_MINUS:
@@ -655,26 +1011,13 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     @Override
     public Object visitPostfixExpr(Expr.Postfix postfix) {
         // Get value assoc'd with identifier
-        Object origVal = lookUpVariable(postfix.name, postfix);
+        Object origVal = lookUpVariable(postfix.name, postfix.depth, postfix.slot);
 
         // Confirm value is a number
         checkNumberOperand(postfix.operator, origVal);
 
         // Update value in storage location
-        Integer hops = locals.get(postfix);
-        if (hops == null) {     // TODO: Clean up this if-else
-            if (postfix.operator.type == TokenType.PLUS_PLUS) {
-                globals.update(postfix.name, ((Double)origVal) + 1);
-            } else {
-                globals.update(postfix.name, ((Double)origVal) - 1);
-            }
-        } else {
-            if (postfix.operator.type == TokenType.PLUS_PLUS) {
-                env.assignAt(postfix.name, hops, ((Double)origVal) + 1);
-            } else {
-                env.assignAt(postfix.name, hops, ((Double)origVal) - 1);
-            }
-        }
+        assignVariable(postfix.name, postfix.depth, postfix.slot, step(postfix.operator, origVal));
 
         // Return original value
         return origVal;
@@ -683,24 +1026,14 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     @Override
     public Object visitPrefixExpr(Expr.Prefix prefix) {
         // Get value assoc'd with identifier
-        Object origVal = lookUpVariable(prefix.name, prefix);
+        Object origVal = lookUpVariable(prefix.name, prefix.depth, prefix.slot);
 
         // Confirm value is a number
         checkNumberOperand(prefix.operator, origVal);
 
-        // Update value in storage location
-        double newVal;
-        if (prefix.operator.type == TokenType.PLUS_PLUS) {
-            newVal = ((Double)origVal) + 1;
-        } else {
-            newVal = ((Double)origVal) - 1;
-        }
-        Integer hops = locals.get(prefix);
-        if (hops == null) {
-            globals.update(prefix.name, newVal);
-        } else {
-            env.assignAt(prefix.name, hops, newVal);  
-        } 
+        // Update value in storage location (boxed once, for both the variable and the result)
+        Object newVal = step(prefix.operator, origVal);
+        assignVariable(prefix.name, prefix.depth, prefix.slot, newVal);
 
         // Return updated value
         return newVal;
@@ -716,26 +1049,19 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
 
     @Override
     public Object visitVariableExpr(Expr.Variable var) {
-        return lookUpVariable(var.name, var);
+        return lookUpVariable(var.name, var.depth, var.slot);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign assignment) {
         Object rhsVal = evaluate(assignment.rhs);
-        // env.update(assignment.name, rhsVal);
-
-        Integer hops = locals.get(assignment);
-        if (hops == null) {
-            globals.update(assignment.name, rhsVal);
-        } else {
-            env.assignAt(assignment.name, hops, rhsVal);
-        }
+        assignVariable(assignment.name, assignment.depth, assignment.slot, rhsVal);
 
         return rhsVal;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class classStmt) {
+    public Object visitClassStmt(Stmt.Class classStmt) {
         List<LoxClass> superClasses = new ArrayList<>();
         if (!classStmt.superClasses.isEmpty()) {
             for (Expr.Variable superClassExpr : classStmt.superClasses) {
@@ -747,10 +1073,10 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
                 superClasses.add((LoxClass)superClass);
             }
         }
-        env.define(classStmt.name.lexeme, null);
+        define(classStmt.name, classStmt.slot, null);
         if (!superClasses.isEmpty()) {
-            this.env = new Environment(this.env);
-            this.env.define("super", superClasses);
+            this.env = new Environment(this.env, 1);
+            this.env.define(0, superClasses);  // "super" is the only slot in this scope
         }
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.FunctionDef method : classStmt.methods) {
@@ -767,7 +1093,7 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         if (!superClasses.isEmpty()) {
             this.env = this.env.enclosing;
         }
-        env.update(classStmt.name, klass);
+        redefine(classStmt.name, classStmt.slot, klass);
         return null;
     }
 
@@ -777,9 +1103,13 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         Object idxExpr = evaluate(idx.idxExpr);
         Object idxExpr2 = idx.idxExpr2 != null ? evaluate(idx.idxExpr2) : null;
 
+        return index(idx, object, idxExpr, idxExpr2);
+    }
+
+    public Object index(Expr.Index idx, Object object, Object idxExpr, Object idxExpr2) {
         try {
-            if (object instanceof String) {
-                String str = (String)object;
+            if (LoxRope.isString(object)) {
+                CharSequence str = (CharSequence)object;     // slices stay views, see LoxRope
                 int start = toIntIndex(idxExpr, idx.lbrack, str.length());
                 int end = idxExpr2 != null ? toIntIndex(idxExpr2, idx.lbrack, str.length()) : -1;
 
@@ -787,7 +1117,7 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
                     if (start > end) {
                         throw new RuntimeError(idx.lbrack, "Start index cannot be greater than end index.");
                     }
-                    return str.substring(start, end);
+                    return LoxRope.substring(str, start, end);
                 } else {
                     return Character.toString(str.charAt(start));
                 }
@@ -844,55 +1174,30 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         Object object = evaluate(obj.object);
         Object idxExpr = evaluate(obj.idxExpr);
 
+        return indexPrefix(obj, object, idxExpr);
+    }
+
+    public Object indexPrefix(Expr.IndexPrefix obj, Object object, Object idxExpr) {
         try {
             if (object instanceof LoxList) {
                 LoxList list = (LoxList)object;
                 int idx = toIntIndex(idxExpr, obj.operator, list.size());
+                if (list.step(idx, delta(obj.operator))) return list.getAt(idx);
                 Object val = list.getAt(idx);
-                if (val instanceof Integer) {
-                    Integer ival = (Integer)val;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        ival++;
-                    } else {
-                        ival--;
-                    }
-                    list.set(idx, ival);
-                    return ival;
-                }
-                if (val instanceof Double) {
-                    Double dval = (Double)val;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        dval = dval + 1;
-                    } else {
-                        dval = dval - 1;
-                    }
-                    list.set(idx, dval);
-                    return dval;
+                if (LoxNumber.isNumber(val)) {
+                    Object newVal = step(obj.operator, val);
+                    list.set(idx, newVal);
+                    return newVal;
                 }
             }
 
             if (object instanceof LoxMap) {
                 LoxMap map = (LoxMap)object;
                 Object val = map.get(idxExpr);
-                if (val instanceof Integer) {
-                    Integer ival = (Integer)val;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        ival++;
-                    } else {
-                        ival--;
-                    }
-                    map.put(idxExpr, ival);
-                    return ival;
-                }
-                if (val instanceof Double) {
-                    Double dval = (Double)val;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        dval = dval + 1;
-                    } else {
-                        dval = dval - 1;
-                    }
-                    map.put(idxExpr, dval);
-                    return dval;
+                if (LoxNumber.isNumber(val)) {
+                    Object newVal = step(obj.operator, val);
+                    map.put(idxExpr, newVal);
+                    return newVal;
                 }
             }
 
@@ -912,59 +1217,28 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         Object object = evaluate(obj.object);
         Object idxExpr = evaluate(obj.idxExpr);
 
+        return indexPostfix(obj, object, idxExpr);
+    }
+
+    public Object indexPostfix(Expr.IndexPostfix obj, Object object, Object idxExpr) {
         try {
             if (object instanceof LoxList) {
                 LoxList list = (LoxList)object;
                 int idx = toIntIndex(idxExpr, obj.operator, list.size());
                 Object val = list.getAt(idx);
-                if (val instanceof Integer) {
-                    Integer ival = (Integer)val;
-                    Integer ivalOrig = ival;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        ival++;
-                    } else {
-                        ival--;
-                    }
-                    list.set(idx, ival);
-                    return ivalOrig;
-                }
-                if (val instanceof Double) {
-                    Double dval = (Double)val;
-                    Double dvalOrig = dval;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        dval = dval + 1;
-                    } else {
-                        dval = dval - 1;
-                    }
-                    list.set(idx, dval);
-                    return dvalOrig;
+                if (list.step(idx, delta(obj.operator))) return val;
+                if (LoxNumber.isNumber(val)) {
+                    list.set(idx, step(obj.operator, val));
+                    return val;
                 }
             }
 
             if (object instanceof LoxMap) {
                 LoxMap map = (LoxMap)object;
                 Object val = map.get(idxExpr);
-                if (val instanceof Integer) {
-                    Integer ival = (Integer)val;
-                    Integer ivalOrig = ival;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        ival++;
-                    } else {
-                        ival--;
-                    }
-                    map.put(idxExpr, ival);
-                    return ivalOrig;
-                }
-                if (val instanceof Double) {
-                    Double dval = (Double)val;
-                    Double dvalOrig = dval;
-                    if (obj.operator.type == TokenType.PLUS_PLUS) {
-                        dval = dval + 1;
-                    } else {
-                        dval = dval - 1;
-                    }
-                    map.put(idxExpr, dval);
-                    return dvalOrig;
+                if (LoxNumber.isNumber(val)) {
+                    map.put(idxExpr, step(obj.operator, val));
+                    return val;
                 }
             }
 
@@ -981,13 +1255,68 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
 
     @Override
     public Object visitCallExpr(Expr.Call call) {
+        if (call.callee instanceof Expr.Get) {
+            // obj.method(...): see methodFor
+            Expr.Get get = (Expr.Get)call.callee;
+            Object object = evaluate(get.object);
+            LoxFunction method = methodFor(get, object);
+            if (method != null) {
+                List<Object> args = evaluateArgs(call);
+                tupSize = args.size();
+                checkArity(call, method, args);
+                return dispatch(call, method, (LoxInstance)object, args);
+            }
+            NativeMethod nativeMethod = NativeMethod.lookup(object, get.name.lexeme);
+            if (nativeMethod != null) {
+                return callNative(call, nativeMethod, object, evaluateArgs(call));
+            }
+            Object callee = getProperty(get, object);
+            return call(call, callee, evaluateArgs(call));
+        }
+
         Object callee = evaluate(call.callee);
-        List<Object> args = new ArrayList<>();
+        return call(call, callee, evaluateArgs(call));
+    }
+
+    private List<Object> evaluateArgs(Expr.Call call) {
+        List<Object> args = new ArrayList<>(call.args.size());
 
         for (Expr arg : call.args) {
             args.add(evaluate(arg));
         }
+        return args;
+    }
+
+    /**
+     * What?
+     *  Calling obj.method(...) without materializing the bound method.
+     *
+     * How?
+     *  getProperty would hand back method.bind(obj): a new LoxFunction whose closure is a new
+     *  scope holding 'this', only for the call to throw it away again. When the property is an
+     *  ordinary method (no field by that name, not a getter) we return the unbound method
+     *  instead and the caller runs it with LoxFunction.invoke. The 'this' scope is kept on the
+     *  Expr.Call, so a site that keeps calling methods on the same object (this.helper(),
+     *  obj.method() in a loop) doesn't allocate one per call either.
+     *  bind is left for methods used as values (var m = obj.method;).
+     *  null: obj.name isn't a plain method, evaluate it with getProperty as usual.
+     */
+    private LoxFunction methodFor(Expr.Get get, Object object) {
+        if (object == null || object.getClass() != LoxInstance.class) return null;
+        if (get.cache == null) get.cache = new PropertyCache();
+        LoxFunction method = get.cache.method((LoxInstance)object, get.name);
+        if (method == null || method.isGetter || method.getClass() != LoxFunction.class) return null;
+        return method;
+    }
+
+    // list.append(x) etc. (call.callee is the Expr.Get), without binding the method first
+    Object callNative(Expr.Call call, NativeMethod method, Object receiver, List<Object> args) {
+        tupSize = args.size();
+        checkArity(call, method.arity, args);
+        return method.invoke(((Expr.Get)call.callee).name, receiver, args);
+    }
 
+    public Object call(Expr.Call call, Object callee, List<Object> args) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(call.paren,
                 "Can only call functions or classes."
@@ -997,13 +1326,132 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         tupSize = args.size();
 
         LoxCallable callable = (LoxCallable)callee;
-        if (args.size() != callable.arity()) {
+        checkArity(call, callable, args);
+        return dispatch(call, callable, null, args);
+    }
+
+    // Every call ends up here, so this is where maxDepth is enforced (receiver: see methodFor)
+    private Object dispatch(Expr.Call call, LoxCallable callable, LoxInstance receiver, List<Object> args) {
+        enterCall(call.paren);
+        try {
+            if (receiver != null) {
+                // Reuse the last 'this' scope made at this call site when it's for the same receiver & method
+                LoxFunction method = (LoxFunction)callable;
+                Environment scope = call.thisScope;
+                if (!method.isThisScope(scope, receiver)) {
+                    scope = method.thisScope(receiver);
+                    call.thisScope = scope;
+                }
+                return method.invoke(this, scope, args);
+            }
+            return callable.call(this, args);
+        } catch (StackOverflowError e) {
+            // Ran out of Java stack before maxDepth (e.g. very deeply nested expressions)
+            throw new RuntimeError(call.paren, "Stack overflow.");
+        } finally {
+            callDepth--;
+        }
+    }
+
+    // One more nested call, for the engines whose calls don't go through dispatch (closure, jit).
+    // Every enterCall is paired with an exitCall.
+    public void enterCall(Token paren) {
+        if (++callDepth > maxDepth) {
+            callDepth--;
+            throw new RuntimeError(paren, "Maximum call depth (" + maxDepth + ") exceeded.");
+        }
+    }
+
+    public void exitCall() {
+        callDepth--;
+    }
+
+    /**
+     * What?
+     *  return f(...) in tail position (marked by the Resolver).
+     *
+     * How?
+     *  Evaluate the callee & args here, but instead of calling f (which would nest another
+     *  LoxFunction.call -> executeBlockStmt -> ... on the Java stack) complete with a TailCall.
+     *  It unwinds like any other return, and the trampoline in LoxFunction.call then runs f
+     *  in place of the function that just returned. So tail recursion runs in constant
+     *  Java stack and doesn't count against maxDepth.
+     *  Only LoxFunctions the trampoline can run (see tailCallTo) go through it, anything else
+     *  (natives, classes) is simply called.
+     */
+    private Object tailCall(Expr.Call call) {
+        if (call.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)call.callee;
+            Object object = evaluate(get.object);
+            LoxFunction method = methodFor(get, object);
+            if (method != null) {
+                List<Object> args = evaluateArgs(call);
+                checkArity(call, method, args);
+                return new TailCall(method, (LoxInstance)object, args);
+            }
+            NativeMethod nativeMethod = NativeMethod.lookup(object, get.name.lexeme);
+            if (nativeMethod != null) {
+                return new Returned(callNative(call, nativeMethod, object, evaluateArgs(call)));
+            }
+            return new Returned(call(call, getProperty(get, object), evaluateArgs(call)));
+        }
+
+        Object callee = evaluate(call.callee);
+        List<Object> args = evaluateArgs(call);
+
+        return LoxFunction.completion(tailCallTo(call, callee, args));
+    }
+
+    // The value of a return statement the Resolver marked: a call, or a ?: with one in a branch
+    private Object tailPosition(Expr expr) {
+        if (expr instanceof Expr.Grouping) return tailPosition(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary)expr;
+            Object condVal = evaluate(ternary.cond);
+            checkTruthyOperand(ternary.operator, condVal);
+            return tailPosition(getTruthiness(condVal) ? ternary.trueBranch : ternary.falseBranch);
+        }
+        if (expr instanceof Expr.Call) return tailCall((Expr.Call)expr);
+        return new Returned(evaluate(expr));
+    }
+
+    /**
+     * What?
+     *  The tail call half of call(), for compiled code (jit) as well as tailCall above: returns
+     *  a TailCall for the caller to complete with when the trampoline in LoxFunction.call can
+     *  run callee, otherwise calls it and returns its value.
+     *
+     * How?
+     *  The trampoline runs plain LoxFunctions and JitFunctions (compiled or not, see
+     *  JitFunction.execute). Whoever runs compiled code that may return a TailCall finishes
+     *  it with complete().
+     */
+    public Object tailCallTo(Expr.Call call, Object callee, List<Object> args) {
+        if (callee == null || (callee.getClass() != LoxFunction.class && !(callee instanceof JitFunction))) {
+            return call(call, callee, args);
+        }
+        LoxFunction function = (LoxFunction)callee;
+        checkArity(call, function, args);
+        return new TailCall(function, null, args);
+    }
+
+    // The value of compiled code that may have ended in a tail call (see tailCallTo)
+    public Object complete(Object value) {
+        if (!(value instanceof TailCall)) return value;
+        TailCall tailCall = (TailCall)value;
+        return tailCall.function.call(this, tailCall.args);
+    }
+
+    private void checkArity(Expr.Call call, LoxCallable callable, List<Object> args) {
+        checkArity(call, callable.arity(), args);
+    }
+
+    private void checkArity(Expr.Call call, int arity, List<Object> args) {
+        if (args.size() != arity) {
             throw new RuntimeError(call.paren, "Expected " +
-                callable.arity() + " arguments but received " +
+                arity + " arguments but received " +
                 args.size() + " arguments.");
         }
-        
-        return callable.call(this, args);
     }
 
     @Override
@@ -1014,8 +1462,18 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     @Override
     public Object visitGetExpr(Expr.Get getExpr) {
         Object object = evaluate(getExpr.object);
+        return getProperty(getExpr, object);
+    }
+
+    public Object getProperty(Expr.Get getExpr, Object object) {
         if (object instanceof LoxInstance) {
-            Object value = ((LoxInstance)object).get(getExpr.name, false);
+            Object value;
+            if (object.getClass() == LoxInstance.class) {   // not a LoxClass (static access)
+                if (getExpr.cache == null) getExpr.cache = new PropertyCache();
+                value = getExpr.cache.get((LoxInstance)object, getExpr.name);
+            } else {
+                value = ((LoxInstance)object).get(getExpr.name, false);
+            }
             if (value instanceof LoxFunction) {
                 LoxFunction method = (LoxFunction)value;
                 if (method.isGetter) {
@@ -1029,225 +1487,24 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
             return ((LoxClass)object).get(getExpr.name, false);
         }
 
-        if (object instanceof LoxList) {
-            try {
-                final LoxList list = (LoxList)object;
-                final String methodName = getExpr.name.lexeme;
-                Class<?> listClass = list.getClass();
-                
-                // Find the method but don't invoke it yet
-                Method tmp = null;
-                switch (methodName) {
-                    case "append":
-                    case "prepend":
-                        tmp = listClass.getMethod(methodName, Object.class);
-                        break;
-                    case "popFront":
-                    case "popBack":
-                    case "clear":
-                    case "isEmpty":
-                    case "size":
-                    // case "toString":
-                        tmp = listClass.getMethod(methodName);
-                        break;
-                    case "add":
-                        tmp = listClass.getMethod(methodName, LoxList.class);
-                        break;
-                    case "set":
-                        tmp = listClass.getMethod(methodName, Object.class, Object.class);
-                        break;
-                    default:
-                        throw new RuntimeError(getExpr.name, 
-                            "No such method '" + getExpr.name.lexeme + "' on list.");
-                }
-                final Method method = tmp;
-
-                // Return a LoxCallable that will invoke the method when called
-                return new LoxCallable() {
-                    @Override
-                    public int arity() {
-                        return method.getParameterCount();
-                    }
-
-                    @Override
-                    public Object call(Interpreter interpreter, List<Object> arguments) {
-                        try {
-                            if (arguments.isEmpty()) {
-                                return method.invoke(list);
-                            } else {
-                                return method.invoke(list, arguments.toArray());
-                            }
-                        } catch (IllegalAccessException | InvocationTargetException e) {
-                            throw new RuntimeError(getExpr.name,
-                                "Error invoking method '" + methodName + "': " + e.getMessage());
-                        }
-                    }
-
-                    @Override
-                    public String toString() {
-                        return "<list method: " + methodName + ">";
-                    }
-                };
-            } catch (NoSuchMethodException e) {
-                throw new RuntimeError(getExpr.name, 
-                    "No such method '" + getExpr.name.lexeme + "' on list.");
-            }
-        }
-
-        if (object instanceof LoxTuple) {
-            try {
-                final LoxTuple tup = (LoxTuple)object;
-                final String methodName = getExpr.name.lexeme;
-                Class<?> tupClass = tup.getClass();
-                
-                // Find the method but don't invoke it yet
-                Method tmp = null;
-                switch (methodName) {
-                    case "clear":
-                    case "isEmpty":
-                    case "size":
-                        tmp = tupClass.getMethod(methodName);
-                        break;
-                    default:
-                        throw new RuntimeError(getExpr.name, 
-                            "No such method '" + getExpr.name.lexeme + "' on tuple.");
-                }
-                final Method method = tmp;
-
-                // Return a LoxCallable that will invoke the method when called
-                return new LoxCallable() {
-                    @Override
-                    public int arity() {
-                        return method.getParameterCount();
-                    }
-
-                    @Override
-                    public Object call(Interpreter interpreter, List<Object> arguments) {
-                        try {
-                            if (arguments.isEmpty()) {
-                                return method.invoke(tup);
-                            } else {
-                                return method.invoke(tup, arguments.toArray());
-                            }
-                        } catch (IllegalAccessException | InvocationTargetException e) {
-                            throw new RuntimeError(getExpr.name,
-                                "Error invoking method '" + methodName + "': " + e.getMessage());
-                        }
-                    }
+        // list.append, map.get, ...: see NativeMethod
+        LoxCallable nativeMethod = NativeMethod.get(object, getExpr.name);
+        if (nativeMethod != null) return nativeMethod;
 
-                    @Override
-                    public String toString() {
-                        return "<tup method: " + methodName + ">";
-                    }
-                };
-            } catch (NoSuchMethodException e) {
-                throw new RuntimeError(getExpr.name, 
-                    "No such method '" + getExpr.name.lexeme + "' on tuple.");
-            }
-        }
-
-        if (object instanceof LoxMap) {
-            try {
-                final LoxMap map = (LoxMap)object;
-                final String methodName = getExpr.name.lexeme;
-                Class<?> mapClass = map.getClass();
-                
-                // Find the method but don't invoke it yet
-                Method tmp = null;
-                switch (methodName) {
-                    case "put":
-                        tmp = mapClass.getMethod(methodName, Object.class, Object.class);
-                        break;
-                    case "containsKey":
-                    case "containsValue":
-                    case "remove":
-                    case "get":
-                        tmp = mapClass.getMethod(methodName, Object.class);
-                        break;
-                    case "clear":
-                    case "isEmpty":
-                    case "size":
-                        tmp = mapClass.getMethod(methodName);
-                        break;
-                    default:
-                        throw new RuntimeError(getExpr.name, 
-                            "No such method '" + getExpr.name.lexeme + "' on map.");
-                }
-                final Method method = tmp;
-
-                // Return a LoxCallable that will invoke the method when called
-                return new LoxCallable() {
-                    @Override
-                    public int arity() {
-                        return method.getParameterCount();
-                    }
-
-                    @Override
-                    public Object call(Interpreter interpreter, List<Object> arguments) {
-                        try {
-                            if (arguments.isEmpty()) {
-                                return method.invoke(map);
-                            } else {
-                                return method.invoke(map, arguments.toArray());
-                            }
-                        } catch (IllegalAccessException | InvocationTargetException e) {
-                            throw new RuntimeError(getExpr.name,
-                                "Error invoking method '" + methodName + "': " + e.getMessage());
-                        }
-                    }
-
-                    @Override
-                    public String toString() {
-                        return "<map method: " + methodName + ">";
-                    }
-                };
-            } catch (NoSuchMethodException e) {
-                throw new RuntimeError(getExpr.name, 
-                    "No such method '" + getExpr.name.lexeme + "' on map.");
-            }
-        }
-        
-        if (object instanceof Map.Entry) {
-            @SuppressWarnings("unchecked")
-            final Map.Entry<Object, Object> entry = (Map.Entry<Object, Object>)object;
-            final String methodName = getExpr.name.lexeme;
-            
-            // Return a LoxCallable that calls the appropriate method directly
-            return new LoxCallable() {
-                @Override
-                public int arity() {
-                    return 0;                 
-                }
-
-                @Override
-                public Object call(Interpreter interpreter, List<Object> arguments) {
-                    if (methodName.equals("getKey")) {
-                        return entry.getKey();
-                    } else if (methodName.equals("getValue")) {
-                        return entry.getValue();
-                    } else {
-                        throw new RuntimeError(getExpr.name,
-                            "No such method '" + methodName + "' on key-value pair.");
-                    }
-                }
-
-                @Override
-                public String toString() {
-                    return "<pair method: " + methodName + ">";
-                }
-            };
-        }
-        
         throw new RuntimeError(getExpr.name,
             "Only instances have properties.");
     }
 
-@Override
+    @Override
     public Object visitIndexAssignExpr(Expr.IndexAssign obj) {
         Object object = evaluate(obj.object);
         Object idxExpr = evaluate(obj.idxExpr);
         Object rhsVal = evaluate(obj.rhs);
 
+        return indexAssign(obj, object, idxExpr, rhsVal);
+    }
+
+    public Object indexAssign(Expr.IndexAssign obj, Object object, Object idxExpr, Object rhsVal) {
         try {
             if (object instanceof LoxList) {
                 LoxList list = (LoxList)object;
@@ -1283,7 +1540,7 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         Object object = evaluate(setExpr.object);
         if (object instanceof LoxInstance) {
             Object rhsVal = evaluate(setExpr.rhs);
-            ((LoxInstance)object).set(setExpr.name, rhsVal);
+            ((LoxInstance)object).set(setExpr, rhsVal);
             return rhsVal;
         }
         
@@ -1293,15 +1550,19 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
 
     @Override
     public Object visitThisExpr(Expr.This thisExpr) {
-        return lookUpVariable(thisExpr.keyword, thisExpr);
+        return lookUpVariable(thisExpr.keyword, thisExpr.depth, thisExpr.slot);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Object visitSuperExpr(Expr.Super superExpr) {
-        int distance = locals.get(superExpr);
-        List<LoxClass> superClasses = (List<LoxClass>)env.getAt(new Token(TokenType.IDENTIFIER, "super", null, 0), distance);
-        LoxInstance instance = (LoxInstance)env.getAt(new Token(TokenType.IDENTIFIER, "this", null, 0), distance - 1);
+        return superProperty(superExpr, this.env);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Object superProperty(Expr.Super superExpr, Environment env) {
+        int distance = superExpr.depth;
+        List<LoxClass> superClasses = (List<LoxClass>)env.getAt(superExpr.keyword, distance, superExpr.slot);
+        LoxInstance instance = (LoxInstance)env.getAt(new Token(TokenType.IDENTIFIER, "this", null, 0), distance - 1, 0);
 
         // TODO: Extend this to support fields and methods
         //      Call get() instead of findMethod - only bind if a LoxFunction
@@ -1311,7 +1572,13 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         }
         
         for (LoxClass superClass : superClasses) {
-            Object property = superClass.get(superExpr.property, true);
+            // Don't go through get() here - it hands back methods already bound to the
+            // class object, and binding that again to the instance adds an extra scope
+            // between the method body and the scopes the Resolver counted hops through.
+            Object property = superClass.getField(superExpr.property);
+            if (property == null) {
+                property = superClass.findMethod(superExpr.property.lexeme);
+            }
             
             if (property != null) {
                 if (property instanceof LoxFunction) {
@@ -1338,7 +1605,7 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
 
     @Override
     public Object visitMapExprExpr(Expr.MapExpr mapExpr) {
-        Map<Object, Object> loxMap = new HashMap<>();
+        LoxMap loxMap = new LoxMap();
 
         for (Map<Expr, Expr> map : mapExpr.KeyValuePairs) {
             for (Map.Entry<Expr, Expr> entry : map.entrySet()) {
@@ -1350,7 +1617,7 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
             }
         }
 
-        return new LoxMap(loxMap);
+        return loxMap;
     }
 
     //==================
@@ -1361,18 +1628,15 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         return expression.accept(this);
     }
 
-    private Void execute(Stmt statement) {
-        // if (statement == null) return null;
-        statement.accept(this);
-        return null;
+    // null, Break, Continue or Returned (see executeBlockStmt)
+    private Object execute(Stmt statement) {
+        return statement.accept(this);
     }
 
     private int toIntIndex(Object idxVal, Token lbrack, int length) {
         int idx;
-        if (idxVal instanceof Integer) {
-            idx = (Integer) idxVal;
-        } else if (idxVal instanceof Double) {
-            idx = ((Double) idxVal).intValue();
+        if (LoxNumber.isNumber(idxVal)) {
+            idx = (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, LoxNumber.toLong(idxVal)));
         } else {
             throw new RuntimeError(lbrack, "String indices must be integers.");
         }
@@ -1385,11 +1649,13 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         return idx;
     }
 
-    private boolean getTruthiness(Object object) {
+    public boolean getTruthiness(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
+        if (object instanceof Long) return (long)object != 0;
         if (object instanceof Double) return (double)object != 0;
         if (object instanceof String) return !((String)object).isEmpty();
+        if (object instanceof LoxRope) return ((LoxRope)object).length() != 0;
         if (object instanceof LoxList) return !((LoxList)object).isEmpty();
         if (object instanceof LoxMap) return !((LoxMap)object).isEmpty();
         if (object instanceof LoxTuple) return !((LoxTuple)object).isEmpty();
@@ -1400,7 +1666,9 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     private boolean isTruthy(Object object) {
         return object instanceof Boolean      || 
                object instanceof String       || 
+               object instanceof LoxRope      ||
                object instanceof Double       ||
+               object instanceof Long         ||
                object instanceof LoxFunction  ||
                object instanceof LoxClass     ||
                object instanceof LoxInstance  ||
@@ -1411,6 +1679,8 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
     }
     
     private boolean isEqual(Object left, Object right) {
+        left = LoxRope.flatten(left);
+        right = LoxRope.flatten(right);
         if (left instanceof LoxFunction  ||
             left instanceof LoxInstance  ||
             left instanceof LoxList      ||
@@ -1423,20 +1693,21 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         if (left == null && right == null) return true;
         if (left == null) return false;
         if (right == null) return false;
+        if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right)) return LoxNumber.equal(left, right);
 
         return left.equals(right);
     }
 
-    private void checkTruthyOperand(Token operator, Object object) {
-        if (object instanceof Boolean || object instanceof Double  || object instanceof String) return;
+    public void checkTruthyOperand(Token operator, Object object) {
+        if (object instanceof Boolean || LoxNumber.isNumber(object) || LoxRope.isString(object)) return;
 
         throw new RuntimeError(operator, "Operand must be a truthy type.");
     }
 
     private void checkTruthyOperands(Token operator, Object left, Object right) {
         if ((left instanceof Boolean && right instanceof Boolean)         ||
-            (left instanceof Double && right instanceof Double)           ||
-            (left instanceof String && right instanceof String)           || 
+            (LoxNumber.isNumber(left) && LoxNumber.isNumber(right))       ||
+            (LoxRope.isString(left) && LoxRope.isString(right))           || 
             (isTruthy(left) && right == null)                             ||
             (left == null && isTruthy(right))                             ||
             (left instanceof LoxInstance && right instanceof LoxInstance) ||
@@ -1450,47 +1721,48 @@ public class Interpreter implements Expr.ExprVisitor<Object>, Stmt.StmtVisitor<V
         throw new RuntimeError(operator, "Operands must be matching truthy types.");
     }
 
-    private void checkNumberOperand(Token operator, Object object) {
-        if (object instanceof Double) return;
+    public void checkNumberOperand(Token operator, Object object) {
+        if (LoxNumber.isNumber(object)) return;
 
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
     private void checkNumberOperands(Token operator, Object left, Object right) {
-        if ((left instanceof Double && right instanceof Double) ||
-            (left instanceof Integer && right instanceof Integer) ||
-            (left instanceof Integer && right instanceof Double) ||
-            (left instanceof Double && right instanceof Integer)) return;
+        if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right)) return;
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
-    private double convertToLoxNum(Object num) {
-        if (num instanceof Integer) return ((Integer)num).doubleValue();
-        if (num instanceof Double) return ((double)num);
-        throw new RuntimeError(new Token(TokenType.IDENTIFIER, "convertToLoxNum", null, 0), 
-                              "Cannot convert object to number.");
-    }
 
     private void checkBitwiseOperands(Token operator, Object left, Object right) {
-        if ((left instanceof Double || left instanceof Integer) &&
-            (right instanceof Double || right instanceof Integer)) return;
+        if (LoxNumber.isNumber(left) && LoxNumber.isNumber(right)) return;
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
     private void checkBitwiseOperand(Token operator, Object right) {
-        if (right instanceof Double || right instanceof Integer) return;
+        if (LoxNumber.isNumber(right)) return;
 
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
     private void checkDivisor(Token operator, Object divisor) {
-        if ((Double)divisor == 0) {
+        if (LoxNumber.toDouble(divisor) == 0) {
             throw new RuntimeError(operator, "Division by 0 not allowed.");
         }
     }
 
-    private String stringify(Object object) {
+    // x + 1 / x - 1 for the ++ and -- operators, x is a number
+    public static Object step(Token operator, Object value) {
+        long delta = delta(operator);
+        if (value instanceof Long) return LoxNumber.add((long)value, delta);
+        return (double)value + delta;
+    }
+
+    private static long delta(Token operator) {
+        return operator.type == TokenType.PLUS_PLUS ? 1 : -1;
+    }
+
+    public String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -2,12 +2,20 @@ package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
+import com.craftinginterpreters.lox.jit.JitCompiler;
+import com.craftinginterpreters.lox.vm.VM;
+
 public class Lox {
     private static enum LOG_LEVEL {
         DEBUG,
@@ -20,37 +28,185 @@ public class Lox {
     static boolean hadRuntimeError = false;
     private static Scanner scanner = null;
     private static Parser parser = null;
-    private static final Interpreter interpreter = new Interpreter();
-    private static final Resolver resolver = new Resolver(interpreter);
+    private static Interpreter interpreter = null;          // new ones for every run (see launch)
+    private static Resolver resolver = null;
+    private static Optimizer optimizer = null;
+    static boolean optimize = true;                         // constant folding, off with --no-optimize
+    private static ClosureCompiler closureCompiler = null;  // non-null when running with --engine=closure
+    private static VM vm = null;                            // non-null when running with --engine=vm
+    private static final long STACK_PER_CALL = 4 * 1024;    // generous Java stack bytes per nested Lox call
+    private static final int MAX_DEPTH_LIMIT = 1000000;     // highest --max-depth: a ~4GB stack is as far as we go
+    private static Path cacheDir = null;                    // where resolved scripts are kept (see AstCache), with --cache / --cache-dir
+    private static List<String> warnings = null;            // non-null: warnings printed get added to it too
+    private static final String USAGE =
+        "usage: jlox [--engine=tree|closure|vm|jit] [--max-depth=1..1000000] [--no-optimize] [--no-unboxed] [--cache | --cache-dir=DIR | --no-cache] [script]\n" +
+        "       jlox --server [--socket=PATH]";
 
     // Entry point
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("usage: jlox <script>");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+        if (args.length > 0 && args[0].equals("--server")) {
+            Path socket = Client.defaultSocket();
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].startsWith("--socket=") && args[i].length() > 9) {
+                    socket = Paths.get(args[i].substring(9));
+                } else {
+                    System.out.println(USAGE);
+                    System.exit(64);
+                }
+            }
+            Server.serve(socket);
+            return;
         }
+        int status = launch(args, null);
+        if (status != 0) System.exit(status);
     }
 
-    private static void runFile(String path) throws IOException {
+    /**
+     * What?
+     *  One jlox run - what the command line asks for, with a fresh Interpreter / Resolver /
+     *  Optimizer - returning the exit code instead of exiting. main does one of these, a
+     *  Server one per request. Relative paths in args are taken from dir (null: the
+     *  process's own working directory).
+     */
+    static int launch(String[] args, Path dir) throws IOException {
+        hadError = false;
+        hadRuntimeError = false;
+        scanner = null;
+        parser = null;
+        interpreter = new Interpreter();
+        resolver = new Resolver();
+        optimizer = new Optimizer(interpreter);
+        optimize = true;
+        closureCompiler = null;
+        vm = null;
+        cacheDir = null;
+        warnings = null;
+
+        Path base = dir != null ? dir : Paths.get("");
+        String script = null;
+        int maxDepth = Interpreter.DEFAULT_MAX_DEPTH;
+        for (String arg : args) {
+            if (arg.equals("--engine=closure")) {
+                closureCompiler = new ClosureCompiler(interpreter);
+                vm = null;
+                interpreter.setJit(null);
+            } else if (arg.equals("--engine=vm")) {
+                vm = new VM(interpreter);
+                closureCompiler = null;
+                interpreter.setJit(null);
+            } else if (arg.equals("--engine=jit")) {
+                // Still the tree walker, it just hands out functions that compile themselves
+                interpreter.setJit(new JitCompiler(interpreter));
+                closureCompiler = null;
+                vm = null;
+            } else if (arg.equals("--engine=tree")) {
+                closureCompiler = null;
+                vm = null;
+                interpreter.setJit(null);
+            } else if (arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if (arg.equals("--no-unboxed")) {
+                interpreter.setUnboxed(false);
+            } else if (arg.equals("--cache")) {
+                cacheDir = AstCache.defaultDir();
+            } else if (arg.equals("--no-cache")) {
+                cacheDir = null;
+            } else if (arg.startsWith("--cache-dir=") && arg.length() > 12) {
+                cacheDir = base.resolve(arg.substring(12));
+            } else if (arg.startsWith("--max-depth=") && arg.substring(12).matches("[1-9][0-9]{0,6}")
+                       && Integer.parseInt(arg.substring(12)) <= MAX_DEPTH_LIMIT) {
+                maxDepth = Integer.parseInt(arg.substring(12));
+            } else if (script == null && !arg.startsWith("--")) {
+                script = base.resolve(arg).toString();
+            } else {
+                System.out.println(USAGE);
+                return 64;
+            }
+        }
+        interpreter.setMaxDepth(maxDepth);
+
+        /**
+         * What?
+         *  Run on a thread whose stack can actually hold maxDepth nested Lox calls.
+         *
+         * How?
+         *  Every Lox call nests a dozen or so Java frames (evaluate -> visitCallExpr -> call ->
+         *  LoxFunction.call -> executeBlockStmt -> ...), so the main thread's default stack
+         *  overflows long before DEFAULT_MAX_DEPTH. Interpreter.call reports going past
+         *  maxDepth as a RuntimeError, and this makes sure that's what happens first.
+         *  Anything else the thread dies of is reported the way Java would, and exits with 1.
+         */
+        final String path = script;
+        final IOException[] failure = { null };
+        final int[] status = { 0 };
+        Thread thread = new Thread(null, () -> {
+            try {
+                if (path != null) {
+                    status[0] = runFile(path);
+                } else {
+                    runPrompt();
+                }
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        }, "lox", maxDepth * STACK_PER_CALL);
+        thread.setUncaughtExceptionHandler((t, e) -> {
+            status[0] = 1;
+            System.err.print("Exception in thread \"" + t.getName() + "\" ");
+            e.printStackTrace();
+        });
+        try {
+            thread.start();
+        } catch (OutOfMemoryError e) {
+            // Even below MAX_DEPTH_LIMIT the OS may not give us that much stack
+            System.err.println("jlox: can't get a stack for --max-depth=" + maxDepth + ": " + e.getMessage());
+            return 71;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] != null) throw failure[0];
+        return status[0];
+    }
+
+    private static int runFile(String path) throws IOException {
         /**
          * In C:
          * int fd = read(path, O_RDONLY);
          * OR
          * FILE *fh = fread(path, "rb");
          */
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        // runningFile = true;
-        // System.out.println("Reading " + path);
-        run(new String(bytes, Charset.defaultCharset()));
+        // Unchanged since it was last run? Then its resolved tree is in the cache. Neither the
+        // lookup nor a parse keeps the file in memory (see AstCache).
+        AstCache cache = cacheDir != null ? AstCache.of(cacheDir, Paths.get(path)) : null;
+        List<String> saved = new ArrayList<>();
+        List<Stmt> statements = cache != null ? cache.load(saved) : null;
+        if (statements != null) {
+            for (String warning : saved) System.err.println(warning);
+        } else {
+            // Streamed: the scanner reads the file as the parser asks for tokens (see Scanner)
+            InputStream in = Files.newInputStream(Paths.get(path));
+            if (cache != null) in = cache.source(in);
+            try (Reader reader = new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()))) {
+                // runningFile = true;
+                // System.out.println("Reading " + path);
+                warnings = saved;
+                statements = compile(new Scanner(reader));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                warnings = null;
+            }
+            if (statements != null && cache != null) cache.store(statements, saved);
+        }
+        if (statements != null) execute(statements);
 
         // Indicate an error in exit code
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
-        return;
+        if (hadError) return 65;
+        if (hadRuntimeError) return 70;
+        return 0;
     }
 
     private static void runPrompt() throws IOException {
@@ -73,16 +229,9 @@ public class Lox {
     private static void evalExpr(String source) throws IOException {
         // Scan baby :)
         scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
 
-        // FOR DEBUG
-        // System.out.println("\nPRINTING TOKENS:\n");
-        // for (Token token : tokens) {
-        //     System.out.println(token);
-        // }
-        
         // Parse & interpret baby :)
-        parser = new Parser(tokens);
+        parser = new Parser(scanner);
 
         while (!parser.doneParsing()) {
             Expr expression = parser.parseExpression();
@@ -94,24 +243,34 @@ public class Lox {
             // System.out.println("~~~~~~~~~~~~~~~~~~");
             // System.out.println("~~~ RESULT ~~~");
             resolver.resolveExpression(expression);
-            interpreter.interpretExpression(expression);
+            if (optimize) expression = optimizer.optimize(expression);
+            if (closureCompiler != null) {
+                closureCompiler.interpretExpression(expression);
+            } else if (vm != null) {
+                vm.interpretExpression(expression);
+            } else {
+                interpreter.interpretExpression(expression);
+            }
             // System.out.println("~~~~~~~~~~~~~~~~~~");
         }
     }
 
     private static void run(String source) throws IOException {
-        // Scan baby :)
-        scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        run(new Scanner(source));
+    }
+
+    private static void run(Scanner source) throws IOException {
+        List<Stmt> statements = compile(source);
+        if (statements != null) execute(statements);
+    }
+
+    // Parse and resolve, null if there were errors
+    private static List<Stmt> compile(Scanner source) {
+        // Scan (as the parser pulls tokens) baby :)
+        scanner = source;
 
-        // FOR DEBUG
-        // System.out.println("\nPRINTING TOKENS:\n");
-        // for (Token token : tokens) {
-        //     System.out.println(token);
-        // }
-        
         // Parse & interpret baby :)
-        parser = new Parser(tokens);
+        parser = new Parser(scanner);
         // FOR DEBUG
         // while (!parser.doneParsing()) {
             //     Expr expression = parser.parseExpression();
@@ -126,13 +285,23 @@ public class Lox {
         // }
         
         List<Stmt> statements = parser.parse();
-        if (hadError) return;
+        if (hadError) return null;
         resolver.resolve(statements);
-        if (hadError) return;
+        if (hadError) return null;
         // TODO: figure out why anyUnused isn't working
         // String unused = resolver.anyUnused();
-        interpreter.interpret(statements);
+        return statements;
+    }
 
+    private static void execute(List<Stmt> statements) {
+        if (optimize) optimizer.optimize(statements);
+        if (closureCompiler != null) {
+            closureCompiler.interpret(statements);
+        } else if (vm != null) {
+            vm.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
     }
 
     static void error(int line, String msg) {
@@ -141,12 +310,13 @@ public class Lox {
 
     private static void report(int line, String where, String msg, LOG_LEVEL level) {
         String levelString = level == LOG_LEVEL.WARNING ? " Warning" : level == LOG_LEVEL.ERROR ? " Error" : " Debug error";
-        System.err.println(
-            "[line " + line + "]" + levelString + where + ": " + msg);
+        String report = "[line " + line + "]" + levelString + where + ": " + msg;
+        System.err.println(report);
+        if (level == LOG_LEVEL.WARNING && warnings != null) warnings.add(report);
         if (level == LOG_LEVEL.ERROR) hadError = true;
     }
 
-    static void error(Token token, String message) {
+    public static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
             report(token.line, " at end", message, LOG_LEVEL.ERROR);
         } else {
@@ -162,7 +332,7 @@ public class Lox {
         }
     }
 
-    static void runtimeError(RuntimeError error) {
+    public static void runtimeError(RuntimeError error) {
         System.err.println(error.getMessage() +
             "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
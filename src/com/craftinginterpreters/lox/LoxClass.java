@@ -1,57 +1,87 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable {
     private final String name;
-    private final Map<String, LoxFunction> methods;
     public final List<LoxClass> superClasses;
-    private Integer arity;
+    public final List<LoxClass> mro;                        // method resolution order, see below
+    private final Map<String, LoxFunction> methodTable;     // every method visible on this class
+    private final LoxFunction initializer;                  // null if there's no init anywhere in the mro
 
-    // Lox class definition
-    LoxClass(String name, List<LoxClass> superClasses, Map<String, LoxFunction> methods) {
+    // Bumped whenever any class gets a new static field, so PropertyCaches know to look again
+    static int staticFieldsVersion = 0;
+
+    /**
+     * What?
+     *  Lox class definition. Everything about where methods come from is worked out once, here.
+     *
+     * How?
+     *  mro: this class, then each superclass' mro in the order they're listed after 'extends',
+     *  keeping only the first occurrence of a class. That's the depth-first, left-to-right search
+     *  findMethod always did, so e.g. for the diamond
+     *      class A {}  class B extends A {}  class C extends A {}  class D extends B, C {}
+     *  D's mro is D, B, A, C: B's copy of a method wins over C's, and A's over C's too.
+     *  methodTable: walk the mro and keep the first method seen for each name. Since methods
+     *  can't be added to a class after it's defined, lookups are then a single map probe.
+     */
+    public LoxClass(String name, List<LoxClass> superClasses, Map<String, LoxFunction> methods) {
         super(null);
         this.name = name;
         this.superClasses = superClasses;
-        this.methods = methods;
+
+        List<LoxClass> mro = new ArrayList<>();
+        mro.add(this);
+        for (LoxClass superClass : superClasses) {
+            for (LoxClass klass : superClass.mro) {
+                if (!mro.contains(klass)) mro.add(klass);
+            }
+        }
+        this.mro = Collections.unmodifiableList(mro);
+
+        Map<String, LoxFunction> methodTable = new HashMap<>(methods);
+        for (LoxClass superClass : superClasses) {
+            for (Map.Entry<String, LoxFunction> method : superClass.methodTable.entrySet()) {
+                methodTable.putIfAbsent(method.getKey(), method.getValue());
+            }
+        }
+        this.methodTable = Collections.unmodifiableMap(methodTable);
+        this.initializer = methodTable.get("init");
     }
 
     @Override
     public int arity() { 
-        LoxFunction initMethod = findMethod("init");
-        if (initMethod == null) {
-            return 0;
-            // System.out.println("DEBUG: setting " + this.toString() + " arity to " + this.arity);
-        }
-        return initMethod.arity();
+        if (initializer == null) return 0;
+        return initializer.arity();
      }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
-        try {
-            LoxInstance instance = instantiate();
-            LoxFunction initMethod = findMethod("init");
-            if (initMethod != null) {   // run constructor
-                findMethod("init").bind(instance).call(interpreter, args);
-            }
-            return instance;
-        } catch (Return r) {
-            return r.returnValue;
+        LoxInstance instance = instantiate();
+        if (initializer != null) {   // run constructor
+            initializer.bind(instance).call(interpreter, args);
         }
+        return instance;
+    }
+
+    @Override
+    public Object set(Token name, Object rhsVal) {
+        if (!hasField(name.lexeme)) staticFieldsVersion++;
+        return super.set(name, rhsVal);
+    }
+
+    // Static fields aren't cached: every new one has to bump staticFieldsVersion
+    @Override
+    public Object set(Expr.Set site, Object rhsVal) {
+        return set(site.name, rhsVal);
     }
 
     public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-        if (!superClasses.isEmpty()) {
-            for (LoxClass superClass : superClasses) {
-                LoxFunction method = superClass.findMethod(name);
-                if (method != null) return method;
-            }
-        }
-        return null;
+        return methodTable.get(name);
     }
     
     public LoxInstance instantiate() {
@@ -3,14 +3,15 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
-    private final Stmt.FunctionDef funcDef;
-    private final Environment closure;
-    private Boolean isInitializer;
+    protected static final Token THIS = new Token(TokenType.THIS, "this", null, 0);
+    protected final Stmt.FunctionDef funcDef;
+    protected final Environment closure;
+    protected final Boolean isInitializer;
     public Boolean isGetter;
     public Boolean isStatic;
 
     // Ordinary function definition
-    LoxFunction(Stmt.FunctionDef funcDef, Environment closure, Boolean isInit, Boolean isStatic, Boolean isGetter) {
+    protected LoxFunction(Stmt.FunctionDef funcDef, Environment closure, Boolean isInit, Boolean isStatic, Boolean isGetter) {
         this.funcDef = funcDef;
         this.closure = closure;
         this.isInitializer = isInit;
@@ -30,20 +31,61 @@ public class LoxFunction implements LoxCallable {
     @Override
     public int arity() { return funcDef.params.size(); }
 
+    /**
+     * Runs the body, then keeps going for as long as it completes with a tail call
+     * (see Interpreter.tailCall): the callee runs here instead of one Java frame deeper.
+     */
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
-        Environment env = new Environment(this.closure);
-        try {
-            int N = this.arity();
-            for (int i = 0; i < N; i++) {
-                env.define(funcDef.params.get(i).lexeme, args.get(i));
-            }
-            interpreter.executeBlockStmt((Stmt.Block)funcDef.body, env, true);
-        } catch (Return r) {
-            if (isInitializer) return closure.getAt(new Token(TokenType.IDENTIFIER, "this", null, 0), 0);
-            return r.returnValue;
+        return run(interpreter, this.closure, args);
+    }
+
+    // Same as bind(instance).call(interpreter, args), minus the bound LoxFunction. thisScope: see thisScope()
+    Object invoke(Interpreter interpreter, Environment thisScope, List<Object> args) {
+        return run(interpreter, thisScope, args);
+    }
+
+    private Object run(Interpreter interpreter, Environment closure, List<Object> args) {
+        LoxFunction function = this;
+        for (;;) {
+            Object completion = function.execute(interpreter, closure, args);
+            if (!(completion instanceof TailCall)) return function.result(completion, closure);
+
+            TailCall tailCall = (TailCall)completion;
+            function = tailCall.function;
+            closure = tailCall.receiver != null ? function.thisScope(tailCall.receiver) : function.closure;
+            args = tailCall.args;
+        }
+    }
+
+    // One run of the body, returns its completion (null, Returned or TailCall)
+    protected Object execute(Interpreter interpreter, Environment closure, List<Object> args) {
+        int N = this.arity();
+        int slotCount = ((Stmt.Block)funcDef.body).slotCount;  // params + body locals (set by the Resolver)
+        Environment env = new Environment(closure, Math.max(N, slotCount));
+        for (int i = 0; i < N; i++) {
+            env.define(i, args.get(i));    // params occupy the first N slots
+        }
+        Object completion = interpreter.executeBlockStmt((Stmt.Block)funcDef.body, env);
+        if (completion == Break.instance() || completion == Continue.instance()) {
+            // break / continue that no loop inside the function consumed
+            TokenType type = completion == Break.instance() ? TokenType.BREAK : TokenType.CONTINUE;
+            String lexeme = type == TokenType.BREAK ? "break" : "continue";
+            Token dummyToken = new Token(type, lexeme, null, 0);
+
+            throw new RuntimeError(dummyToken, lexeme + " statement outside of loop.");
         }
-        if (isInitializer) return closure.getAt(new Token(TokenType.IDENTIFIER, "this", null, 0), 0);
+        return completion;
+    }
+
+    // The completion of a body that returned value (which may be a TailCall, see Interpreter.tailCallTo)
+    protected static Object completion(Object value) {
+        return value instanceof TailCall ? value : new Returned(value);
+    }
+
+    private Object result(Object completion, Environment closure) {
+        if (isInitializer) return closure.getAt(THIS, 0, 0);
+        if (completion instanceof Returned) return ((Returned)completion).value;
         return null;
     }
 
@@ -53,8 +95,17 @@ public class LoxFunction implements LoxCallable {
     }
 
     public LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(funcDef, environment, isInitializer, isStatic, isGetter);
+        return new LoxFunction(funcDef, thisScope(instance), isInitializer, isStatic, isGetter);
+    }
+
+    // The scope bind wraps around the method. Nothing ever assigns to it, so callers may reuse it.
+    Environment thisScope(LoxInstance instance) {
+        Environment environment = new Environment(closure, 1);
+        environment.define(0, instance);    // "this" is the only slot in this scope
+        return environment;
+    }
+
+    boolean isThisScope(Environment scope, LoxInstance instance) {
+        return scope != null && scope.enclosing == closure && scope.holds(0, instance);
     }
 }
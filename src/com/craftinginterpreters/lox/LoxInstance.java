@@ -1,11 +1,14 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
+    private static final Object[] NO_VALUES = new Object[0];
+
     protected LoxClass klass;
-    protected Map<String, Object> fields = new HashMap<>();
+    // Field names & their slots live in the (shared) Shape, the values in a plain array
+    protected Shape shape = Shape.EMPTY;
+    protected Object[] values = NO_VALUES;
     LoxInstance(LoxClass klass) {
         this.klass = klass;
     }
@@ -31,23 +34,48 @@ public class LoxInstance {
     }
 
     public Object set(Token name, Object rhsVal) {
-        fields.put(name.lexeme, rhsVal);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot == -1) slot = addField(shape.with(name.lexeme));
+        values[slot] = rhsVal;
         
         return rhsVal;
     }
 
+    // set(site.name, rhsVal) for an obj.name = ... site, which remembers where name goes (see PropertyCache)
+    public Object set(Expr.Set site, Object rhsVal) {
+        if (site.cache == null) site.cache = new PropertyCache();
+        site.cache.set(this, site.name, rhsVal);
+        return rhsVal;
+    }
+
     /* Helper methods */
 
+    boolean hasField(String name) {
+        return shape.slotOf(name) != -1;
+    }
+
+    // Move to next (our Shape plus one field) and make room for the new field's value, returns its slot
+    int addField(Shape next) {
+        int slot = shape.size();
+        shape = next;
+        if (slot == values.length) {
+            values = Arrays.copyOf(values, Math.max(2, slot * 2));
+        }
+        return slot;
+    }
+
     protected Object getField(Token name) {
         // instance fields LUT
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot != -1) {
+            return values[slot];
         }
 
         // class (static) fields LUT
         if (!(this instanceof LoxClass)) {
-            if (klass.fields.containsKey(name.lexeme)) {
-                return klass.fields.get(name.lexeme);
+            slot = klass.shape.slotOf(name.lexeme);
+            if (slot != -1) {
+                return klass.values[slot];
             }
         }
 
@@ -3,96 +3,303 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 import java.util.ArrayList;
 
+/**
+ * What?
+ *  A Lox list. Scripts use lists as stacks and as queues (BFS, work lists), so both ends
+ *  have to be cheap: append / prepend / popFront / popBack are O(1) amortized, and indexing
+ *  stays O(1).
+ *  Numerical scripts also keep lists of millions of numbers around. Boxed, each one is a
+ *  pointer plus a 16 byte Double / Long, so while every element is the same kind of number
+ *  the list stores them unboxed in a double[] / long[] instead (about 3x less heap).
+ *
+ * How?
+ *  A growable circular buffer (a.k.a. ring buffer). The elements are
+ *      elements[head], elements[head + 1], ... (size of them, wrapping around at the end)
+ *  so prepend / popFront just move head instead of shifting everything over. When it's full
+ *  the buffer doubles, unwrapping the elements to start at 0 again.
+ *
+ *  Which array holds them depends on kind:
+ *      DOUBLES     doubles[]   every element is a Double
+ *      LONGS       longs[]     every element is a Long
+ *      OBJECTS     elements[]  anything else (mixing Longs and Doubles too - a Long has to
+ *                              come back out as a Long)
+ *  Storing something that doesn't fit generalizes the list to OBJECTS for good. An empty
+ *  list takes the kind of whatever's stored first.
+ *
+ *  A slice (list[i:j]) doesn't copy: it's a LoxList over the same array, with its own head and
+ *  size. Both sides are then marked shared, and whichever writes to the array first
+ *  (set, append, ...) copies out its own elements before it does. Divide and conquer scripts
+ *  that just keep slicing never copy at all. The flip side is that a small slice keeps its
+ *  parent's whole array alive until one of them writes.
+ */
 public class LoxList {
-    private final List<Object> list;
+    private static final int MIN_CAPACITY = 8;
+    private static final int DOUBLES = 0;
+    private static final int LONGS = 1;
+    private static final int OBJECTS = 2;
 
-    LoxList(List<Object> list) {
-        this.list = list;
+    private int kind;
+    private double[] doubles;   // only the array for kind is non-null
+    private long[] longs;
+    private Object[] elements;
+    private int capacity;
+    private int head = 0;       // where element 0 is
+    private int size;
+    private boolean shared = false;     // the array is also another list's (slices), copy before writing to it
+
+    public LoxList(List<Object> list) {
+        this.size = list.size();
+        allocate(kindOf(list), Math.max(MIN_CAPACITY, size));
+        for (int i = 0; i < size; i++) {
+            store(i, list.get(i));
+        }
+    }
+
+    // A slice of list, sharing its array
+    private LoxList(LoxList list, int start, int end) {
+        this.kind = list.kind;
+        this.doubles = list.doubles;
+        this.longs = list.longs;
+        this.elements = list.elements;
+        this.capacity = list.capacity;
+        this.head = list.slot(start);
+        this.size = end - start;
+        this.shared = true;
+        list.shared = true;
     }
 
     public void append(Object value) {
-        list.add(value);
+        if (!fits(value)) generalize(value);
+        if (size == capacity || shared) grow();
+        store(slot(size), value);
+        size++;
     }
 
     public void prepend(Object value) {
-        List<Object> newList = new ArrayList<>();
-        newList.add(value);
-        newList.addAll(list);
-        list.clear();
-        list.addAll(newList);
+        if (!fits(value)) generalize(value);
+        if (size == capacity || shared) grow();
+        head = head == 0 ? capacity - 1 : head - 1;
+        store(head, value);
+        size++;
     }
 
     public Object popBack() {
-        if (list.isEmpty()) return null;
-        int idx = list.size() - 1;
-        Object val = list.get(idx);
-        list.remove(idx);
+        if (size == 0) return null;
+        int last = slot(size - 1);
+        Object val = load(last);
+        if (kind == OBJECTS && !shared) elements[last] = null;     // don't keep it alive
+        size--;
         return val;
     }
 
     public Object popFront() {
-        if (list.isEmpty()) return null;
-        int idx = 0;
-        Object val = list.get(idx);
-        list.remove(idx);
+        if (size == 0) return null;
+        Object val = load(head);
+        if (kind == OBJECTS && !shared) elements[head] = null;
+        head = head == capacity - 1 ? 0 : head + 1;
+        size--;
         return val;
     }
 
     public void clear() {
-        list.clear();
+        allocate(DOUBLES, MIN_CAPACITY);
+        head = 0;
+        size = 0;
     }
 
     public Boolean isEmpty() {
-        return list.isEmpty();
+        return size == 0;
     }
 
     public Integer size() {
-        return list.size();
+        return size;
     }
 
     public LoxList subList(int start, int end) {
-        return new LoxList(new ArrayList<Object>().subList(start, end));
+        if (start == end) return new LoxList(new ArrayList<>());
+        return new LoxList(this, start, end);
     }
 
     public Object getAt(int idx) {
-        return list.get(idx);
+        return load(slot(checkIndex(idx)));
     }
 
     public Object set(int idx, Object rhsVal) {
-        list.set(idx, rhsVal);
+        checkIndex(idx);
+        if (!fits(rhsVal)) generalize(rhsVal);
+        unshare();
+        store(slot(idx), rhsVal);
         return rhsVal;
     }
 
+    /**
+     * list[idx] += delta in place, for ++ / --. Only for unboxed lists: false (and nothing
+     * done) if the list is OBJECTS or the Long would overflow into a Double, the caller
+     * then goes through getAt / set.
+     */
+    public boolean step(int idx, long delta) {
+        checkIndex(idx);
+        if (kind == OBJECTS) return false;
+        unshare();
+        int slot = slot(idx);
+        if (kind == DOUBLES) {
+            doubles[slot] += delta;
+            return true;
+        }
+        if (kind == LONGS && !LoxNumber.addOverflows(longs[slot], delta)) {
+            longs[slot] += delta;
+            return true;
+        }
+        return false;
+    }
+
     public LoxList add(LoxList rhs) {
-        List<Object> newList = new ArrayList<>();
-        newList.addAll(this.list);
-        newList.addAll(rhs.getList());
+        List<Object> newList = new ArrayList<>(size + rhs.size);
+        this.copyInto(newList);
+        rhs.copyInto(newList);
         return new LoxList(newList);
     }
 
     public String toString() {
-        if (list.isEmpty()) return "[]";
-        String repr = "[ ";
-        int i = 0;
-        for (Object value : list) {
+        if (size == 0) return "[]";
+        StringBuilder repr = new StringBuilder("[ ");
+        for (int i = 0; i < size; i++) {
+            Object value = getAt(i);
             String valueStr = value.toString();
-            if (value instanceof String) {
+            if (LoxRope.isString(value)) {
                 valueStr = "'" + valueStr + "'";
             }
             if (value instanceof Double) {
                 valueStr = Interpreter.canonicalizeNum(valueStr);
             }
-            if (i == list.size() - 1) {
-                repr += valueStr + " ]";
-            } else {
-                repr += valueStr + ", ";
-                i += 1;
+            repr.append(valueStr).append(i == size - 1 ? " ]" : ", ");
+        }
+        return repr.toString();
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    // Index into the array of element idx (0 <= idx < capacity)
+    private int slot(int idx) {
+        int slot = head + idx;
+        return slot < capacity ? slot : slot - capacity;
+    }
+
+    private int checkIndex(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for length " + size);
+        }
+        return idx;
+    }
+
+    private Object load(int slot) {
+        switch (kind) {
+            case DOUBLES: return doubles[slot];
+            case LONGS:   return longs[slot];
+            default:      return elements[slot];
+        }
+    }
+
+    // value has to fit (see fits)
+    private void store(int slot, Object value) {
+        switch (kind) {
+            case DOUBLES: doubles[slot] = (double)value; break;
+            case LONGS:   longs[slot] = (long)value; break;
+            default:      elements[slot] = value;
+        }
+    }
+
+    private boolean fits(Object value) {
+        switch (kind) {
+            case DOUBLES: return value instanceof Double;
+            case LONGS:   return value instanceof Long;
+            default:      return true;
+        }
+    }
+
+    private static int kindOf(Object value) {
+        if (value instanceof Double) return DOUBLES;
+        if (value instanceof Long) return LONGS;
+        return OBJECTS;
+    }
+
+    private static int kindOf(List<Object> list) {
+        if (list.isEmpty()) return DOUBLES;
+        int kind = kindOf(list.get(0));
+        for (Object value : list) {
+            if (kindOf(value) != kind) return OBJECTS;
+        }
+        return kind;
+    }
+
+    // Make room for value, which doesn't fit the current kind
+    private void generalize(Object value) {
+        if (size == 0) {
+            allocate(kindOf(value), capacity);
+            head = 0;
+            return;
+        }
+        Object[] boxed = new Object[capacity];
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            boxed[slot] = load(slot);
+        }
+        kind = OBJECTS;
+        doubles = null;
+        longs = null;
+        elements = boxed;
+        shared = false;
+    }
+
+    private void allocate(int kind, int capacity) {
+        this.kind = kind;
+        this.capacity = capacity;
+        doubles = kind == DOUBLES ? new double[capacity] : null;
+        longs = kind == LONGS ? new long[capacity] : null;
+        elements = kind == OBJECTS ? new Object[capacity] : null;
+        shared = false;
+    }
+
+    // A copy of our own elements, if the array is shared
+    private void unshare() {
+        if (shared) reallocate(Math.max(MIN_CAPACITY, size));
+    }
+
+    private void grow() {
+        reallocate(Math.max(MIN_CAPACITY, size * 2));
+    }
+
+    // Move the elements to a new array of grownCapacity (>= size), starting at 0
+    private void reallocate(int grownCapacity) {
+        switch (kind) {
+            case DOUBLES: {
+                double[] grown = new double[grownCapacity];
+                for (int i = 0; i < size; i++) grown[i] = doubles[slot(i)];
+                doubles = grown;
+                break;
+            }
+            case LONGS: {
+                long[] grown = new long[grownCapacity];
+                for (int i = 0; i < size; i++) grown[i] = longs[slot(i)];
+                longs = grown;
+                break;
+            }
+            default: {
+                Object[] grown = new Object[grownCapacity];
+                for (int i = 0; i < size; i++) grown[i] = elements[slot(i)];
+                elements = grown;
             }
         }
-        return repr;
+        capacity = grownCapacity;
+        head = 0;
+        shared = false;
     }
 
-    private List<Object> getList() {
-        return this.list;
+    private void copyInto(List<Object> out) {
+        for (int i = 0; i < size; i++) {
+            out.add(load(slot(i)));
+        }
     }
 }
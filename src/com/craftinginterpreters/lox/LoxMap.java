@@ -1,76 +1,126 @@
 package com.craftinginterpreters.lox;
 
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Objects;
 
+/**
+ * What?
+ *  A Lox map. Iterates in insertion order, and foreach gets at entry i in O(1) (getAt) -
+ *  walking a HashMap's entry set to position i made iterating a map O(n^2).
+ *
+ * How?
+ *  A compact hash table, like CPython's dict. The entries live in insertion order in dense
+ *  keys / values / hashes arrays, and a separate open-addressing table maps a hash to the
+ *  entry's position:
+ *      index:  [ -, 2, -, 0, -, 1, -, - ]      (linear probing, 2x the entries so it stays sparse)
+ *      keys:   [ 'a', 'b', 'c' ]
+ *  Removing an entry leaves a hole (DELETED) in the dense arrays and a tombstone in the index.
+ *  Holes are squeezed out when the arrays fill up, or before the next positional getAt.
+ */
 public class LoxMap {
-    private final HashMap<Object, Object> map;
+    private static final int MIN_CAPACITY = 8;
+    private static final int EMPTY = -1;                    // index slot never used
+    private static final int TOMBSTONE = -2;                // index slot of a removed entry
+    private static final Object DELETED = new Object();     // key of a removed entry
 
-    LoxMap() {
-        this.map = new HashMap<>();
-    }
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int[] index;
+    private int used = 0;       // entries taken in keys / values / hashes, holes included
+    private int size = 0;
 
-    LoxMap(Map<Object, Object> map) {
-        this.map = new HashMap<>(map);
+    public LoxMap() {
+        allocate(MIN_CAPACITY);
     }
 
     public Object put(Object key, Object value) {
-        map.put(key, value);
+        key = key(key);
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot >= 0 && index[slot] >= 0) {
+            values[index[slot]] = value;
+            return value;
+        }
+
+        if (used == keys.length) {
+            resize();
+            slot = find(key, hash);
+        }
+        keys[used] = key;
+        values[used] = value;
+        hashes[used] = hash;
+        index[-slot - 1] = used;
+        used++;
+        size++;
         return value;
     }
 
     public void remove(Object key) {
-        map.remove(key);
+        key = key(key);
+        int slot = find(key, hash(key));
+        if (slot < 0) return;
+
+        int entry = index[slot];
+        keys[entry] = DELETED;
+        values[entry] = null;
+        index[slot] = TOMBSTONE;
+        size--;
     }
 
     public Object get(Object key) {
-        return map.get(key);
+        key = key(key);
+        int slot = find(key, hash(key));
+        return slot >= 0 ? values[index[slot]] : null;
     }
 
     public boolean containsKey(Object key) {
-        return map.containsKey(key);
+        key = key(key);
+        return find(key, hash(key)) >= 0;
     }
 
     public boolean containsValue(Object value) {
-        return map.containsValue(value);
+        value = LoxRope.flatten(value);
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == DELETED) continue;
+            if (Objects.equals(LoxRope.flatten(values[i]), value)) return true;
+        }
+        return false;
     }
 
     public void clear() {
-        map.clear();
+        allocate(MIN_CAPACITY);
+        used = 0;
+        size = 0;
     }
 
     public Boolean isEmpty() {
-        return map.isEmpty();
+        return size == 0;
     }
 
     public Integer size() {
-        return map.size();
+        return size;
     }
 
+    // The idx'th entry in insertion order
     public Map.Entry<Object, Object> getAt(Integer idx) {
-        if (idx < 0 || idx >= map.size()) {
-            throw new RuntimeException("Map index " + idx + " out of bounds for map of size " + map.size());
+        if (idx < 0 || idx >= size) {
+            throw new RuntimeException("Map index " + idx + " out of bounds for map of size " + size);
         }
-        
-        int currentIndex = 0;
-        for (Map.Entry<Object, Object> entry : map.entrySet()) {
-            if (currentIndex == idx) {
-                return entry;
-            }
-            currentIndex++;
-        }
-        
-        // This should never be reached due to bounds check above
-        throw new RuntimeException("Unexpected error in getAt method");
+        if (used != size) compact();
+        return new AbstractMap.SimpleImmutableEntry<>(keys[idx], values[idx]);
     }
 
     public String toString() {
-        if (map.isEmpty()) return "{}";
+        if (size == 0) return "{}";
         StringBuilder repr = new StringBuilder("{ ");
         int i = 0;
-        for (Map.Entry<Object, Object> entry : map.entrySet()) {
-            Object key = entry.getKey();
-            Object value = entry.getValue();
+        for (int entry = 0; entry < used; entry++) {
+            if (keys[entry] == DELETED) continue;
+            Object key = keys[entry];
+            Object value = values[entry];
             String keyStr = key.toString();
             String valueStr = value.toString();
             if (key instanceof String) {
@@ -82,10 +132,10 @@ public class LoxMap {
             if (value instanceof Double) {
                 valueStr = Interpreter.canonicalizeNum(valueStr);
             }
-            if (value instanceof String) {
+            if (LoxRope.isString(value)) {
                 valueStr = "'" + valueStr + "'";
             }
-            if (i == map.size() - 1) {
+            if (i == size - 1) {
                 repr.append(keyStr).append(": ").append(valueStr).append(" }");
             } else {
                 repr.append(keyStr).append(": ").append(valueStr).append(", ");
@@ -95,7 +145,78 @@ public class LoxMap {
         return repr.toString();
     }
 
-    private HashMap<Object, Object> getMap() {
-        return this.map;
+    //==================
+    // Helper methods
+    //==================
+
+    // How a key is stored, so that equal keys are the same entry: m[1] / m[1.0], a rope / its String
+    private static Object key(Object key) {
+        if (key instanceof LoxRope) return key.toString();
+        return LoxNumber.key(key);
+    }
+
+    private static int hash(Object key) {
+        int h = Objects.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The index slot holding key if it's there (>= 0). Otherwise -(slot + 1) of where it
+     * should go: the first tombstone on the way, or else the empty slot that ended the probe.
+     */
+    private int find(Object key, int hash) {
+        int mask = index.length - 1;
+        int free = -1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot];
+            if (entry == EMPTY) return -((free != -1 ? free : slot) + 1);
+            if (entry == TOMBSTONE) {
+                if (free == -1) free = slot;
+            } else if (hashes[entry] == hash && Objects.equals(keys[entry], key)) {
+                return slot;
+            }
+        }
+    }
+
+    // Room for more entries: squeeze out the holes, and grow unless that freed up enough
+    private void resize() {
+        int capacity = keys.length;
+        while (capacity < size * 2) capacity *= 2;
+        if (capacity == keys.length && size == used) capacity *= 2;
+        rebuild(capacity);
+    }
+
+    // Squeeze out the holes, so entry i is at position i
+    private void compact() {
+        rebuild(keys.length);
+    }
+
+    private void rebuild(int capacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        int oldUsed = used;
+
+        allocate(capacity);
+        used = 0;
+        int mask = index.length - 1;
+        for (int i = 0; i < oldUsed; i++) {
+            if (oldKeys[i] == DELETED) continue;
+            keys[used] = oldKeys[i];
+            values[used] = oldValues[i];
+            hashes[used] = oldHashes[i];
+            int slot = oldHashes[i] & mask;
+            while (index[slot] != EMPTY) slot = (slot + 1) & mask;
+            index[slot] = used;
+            used++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        index = new int[capacity * 2];
+        Arrays.fill(index, EMPTY);
     }
 }
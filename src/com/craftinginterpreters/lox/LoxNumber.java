@@ -0,0 +1,163 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What?
+ *  The numeric tower. A Lox number is either a Long (integer literals, and whatever stays an
+ *  integer from there) or a Double (anything with a '.', or that stopped being exact).
+ *  e.g.
+ *      1 + 2           -> 3        Long
+ *      7 / 2           -> 3.5      Double, / only stays an integer when it divides evenly
+ *      1 + 0.5         -> 1.5      Double, mixing promotes
+ *      2 ** 64         -> 1.8446744073709552E19    Double, overflow promotes instead of wrapping
+ *
+ * How?
+ *  Integer operations check for overflow themselves (no ArithmeticException - hashing code
+ *  would be throwing all day) and redo the operation in doubles when it happens. Anything
+ *  involving a Double is done in doubles. Divisors of 0 are the callers' problem.
+ */
+public final class LoxNumber {
+    private LoxNumber() {}
+
+    public static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    // For a value isNumber said yes to
+    public static double toDouble(Object value) {
+        return value instanceof Long ? (double)(long)value : (double)value;
+    }
+
+    // Truncates Doubles, for bitwise operators and indices
+    public static long toLong(Object value) {
+        return value instanceof Long ? (long)value : (long)(double)value;
+    }
+
+    public static Object add(long left, long right) {
+        if (addOverflows(left, right)) return (double)left + (double)right;
+        return left + right;
+    }
+
+    public static Object subtract(long left, long right) {
+        if (subtractOverflows(left, right)) return (double)left - (double)right;
+        return left - right;
+    }
+
+    public static Object multiply(long left, long right) {
+        if (multiplyOverflows(left, right)) return (double)left * (double)right;
+        return left * right;
+    }
+
+    public static boolean addOverflows(long left, long right) {
+        long result = left + right;
+        return ((left ^ result) & (right ^ result)) < 0;
+    }
+
+    public static boolean subtractOverflows(long left, long right) {
+        long result = left - right;
+        return ((left ^ right) & (left ^ result)) < 0;
+    }
+
+    public static boolean multiplyOverflows(long left, long right) {
+        long high = Math.multiplyHigh(left, right);
+        long result = left * right;
+        return !((high == 0 && result >= 0) || (high == -1 && result < 0));
+    }
+
+    // right != 0
+    public static Object divide(long left, long right) {
+        if (left % right == 0 && !(left == Long.MIN_VALUE && right == -1)) return left / right;
+        return (double)left / (double)right;
+    }
+
+    public static Object power(long base, long exponent) {
+        if (exponent < 0) return Math.pow(base, exponent);
+        long result = 1;
+        for (long i = 0; i < exponent; i++) {
+            Object next = multiply(result, base);
+            if (next instanceof Double) return Math.pow(base, exponent);
+            result = (long)next;
+            if (result == 0 || result == 1) break;     // 0 ** n, 1 ** n
+            if (result == -1 && base == -1) return (exponent % 2 == 0) ? 1L : -1L;
+        }
+        return result;
+    }
+
+    public static Object negate(long value) {
+        if (value == Long.MIN_VALUE) return -(double)value;
+        return -value;
+    }
+
+    // Equal as numbers, so 1 == 1.0 (but 2**53 + 1 != 2.0**53, see compare)
+    public static boolean equal(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return (long)left == (long)right;
+        if (left instanceof Double && right instanceof Double) return (double)left == (double)right;
+        return !unordered(left, right) && compare(left, right) == 0;
+    }
+
+    public static boolean less(Object left, Object right) {
+        return !unordered(left, right) && compare(left, right) < 0;
+    }
+
+    public static boolean lessEqual(Object left, Object right) {
+        return !unordered(left, right) && compare(left, right) <= 0;
+    }
+
+    public static boolean greater(Object left, Object right) {
+        return !unordered(left, right) && compare(left, right) > 0;
+    }
+
+    public static boolean greaterEqual(Object left, Object right) {
+        return !unordered(left, right) && compare(left, right) >= 0;
+    }
+
+    // How a number is stored as a map key, so that m[1] and m[1.0] are the same entry
+    public static Object key(Object value) {
+        if (value instanceof Double) {
+            double d = (double)value;
+            if (d == Math.rint(d) && d >= Long.MIN_VALUE && d < Long.MAX_VALUE) {
+                return (long)d;
+            }
+        }
+        return value;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    // A NaN isn't less than, equal to or greater than anything
+    private static boolean unordered(Object left, Object right) {
+        return (left instanceof Double && Double.isNaN((double)left)) ||
+               (right instanceof Double && Double.isNaN((double)right));
+    }
+
+    /**
+     * What?
+     *  <0, 0 or >0 as left is less than, equal to or greater than right, exactly. Going
+     *  through toDouble would round a Long past 2**53 to the nearest double first, and then
+     *  9007199254740993 == 9007199254740992.0.
+     *
+     * How?
+     *  A Long against a Double: a double at or past 2**63 (infinities too) is beyond every
+     *  long. Anything in between truncates to a long exactly, which compares as a long; if
+     *  that's a tie, the double's fraction decides. Neither side is NaN (see unordered).
+     */
+    private static int compare(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return Long.compare((long)left, (long)right);
+        if (left instanceof Double && right instanceof Double) {
+            double l = (double)left, r = (double)right;
+            return l < r ? -1 : l > r ? 1 : 0;      // not Double.compare: -0.0 == 0.0
+        }
+        if (left instanceof Long) return compare((long)left, (double)right);
+        return -compare((long)right, (double)left);
+    }
+
+    private static int compare(long left, double right) {
+        if (right < -0x1p63) return 1;
+        if (right >= 0x1p63) return -1;
+        long whole = (long)right;
+        if (left != whole) return Long.compare(left, whole);
+        double fraction = right - whole;
+        return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+    }
+}
@@ -0,0 +1,141 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * What?
+ *  A Lox string that's the concatenation of two others, not yet copied into one String.
+ *  Building a string up piece by piece,
+ *      var s = "";
+ *      for (var i = 0; i < 100000; i++) s = s + i + "\n";
+ *  copies everything so far on every +, i.e. quadratic time and garbage. As a rope each + is
+ *  one small node, and the whole thing gets copied once, when it's first looked at.
+ *
+ * How?
+ *  Only + makes ropes (see concat), and only once the result is at least MIN_LENGTH chars -
+ *  below that copying is cheaper than a node. Anything that needs the characters (printing,
+ *  indexing, ==, map keys...) calls toString, which flattens the rope into one String, keeps
+ *  it, and lets go of the pieces.
+ *  Everywhere else a rope has to pass for a String: isString / flatten.
+ *
+ *  The same goes for slices, s[i:j]: a long one is a rope too, just a window (base, offset,
+ *  length) into the String it came from, so parsing loops that keep slicing the rest of their
+ *  input don't copy it every time. Slicing a slice gives a window into the same base, and
+ *  indexing one reads straight from the base.
+ */
+public final class LoxRope implements CharSequence {
+    private static final int MIN_LENGTH = 64;
+
+    private Object left;        // String or LoxRope, null once flattened
+    private Object right;
+    private String base;        // for a slice (instead of left / right), null once flattened
+    private final int offset;
+    private String flat = null;
+    private final int length;
+
+    private LoxRope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.offset = 0;
+        this.length = length;
+    }
+
+    private LoxRope(String base, int offset, int length) {
+        this.base = base;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    // left + right, for two isString values
+    public static Object concat(Object left, Object right) {
+        int leftLength = ((CharSequence)left).length();
+        int rightLength = ((CharSequence)right).length();
+        if (leftLength == 0) return right;
+        if (rightLength == 0) return left;
+
+        long length = (long)leftLength + rightLength;
+        if (length < MIN_LENGTH) return left.toString() + right.toString();
+        if (length > Integer.MAX_VALUE) {
+            throw new RuntimeError(new Token(TokenType.PLUS, "+", null, 0), "String too long.");
+        }
+        return new LoxRope(left, right, (int)length);
+    }
+
+    // str[start:end], for an isString str. IndexOutOfBoundsException unless 0 <= start <= end <= its length
+    public static Object substring(Object str, int start, int end) {
+        Objects.checkFromToIndex(start, end, ((CharSequence)str).length());
+        if (str instanceof LoxRope) {
+            LoxRope rope = (LoxRope)str;
+            if (rope.base != null) {
+                str = rope.base;
+                start += rope.offset;
+                end += rope.offset;
+            } else {
+                str = rope.toString();
+            }
+        }
+        String base = (String)str;
+        int length = end - start;
+        if (length < MIN_LENGTH || length == base.length()) return base.substring(start, end);
+        return new LoxRope(base, start, length);
+    }
+
+    public static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxRope;
+    }
+
+    // value, with a rope turned into its String
+    public static Object flatten(Object value) {
+        return value instanceof LoxRope ? value.toString() : value;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (base != null) return base.charAt(offset + Objects.checkIndex(index, length));
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return (CharSequence)substring(this, start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null && base != null) {
+            flat = base.substring(offset, offset + length);
+            base = null;
+        } else if (flat == null) {
+            // Iterative, ropes built in a loop are one long chain of left children
+            StringBuilder sb = new StringBuilder(length);
+            ArrayDeque<Object> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                Object piece = pending.pop();
+                if (!(piece instanceof LoxRope)) {
+                    sb.append((String)piece);
+                    continue;
+                }
+                LoxRope rope = (LoxRope)piece;
+                if (rope.flat != null) {
+                    sb.append(rope.flat);
+                } else if (rope.base != null) {
+                    sb.append(rope.base, rope.offset, rope.offset + rope.length);
+                } else {
+                    pending.push(rope.right);
+                    pending.push(rope.left);
+                }
+            }
+            flat = sb.toString();
+            left = null;
+            right = null;
+        }
+        return flat;
+    }
+}
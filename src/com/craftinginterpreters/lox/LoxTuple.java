@@ -54,8 +54,9 @@ public class LoxTuple {
         return list.size();
     }
 
+    // Tuples never change, so a slice can just be a view of this one's list
     public LoxTuple subList(int start, int end) {
-        return new LoxTuple(new ArrayList<Object>().subList(start, end));
+        return new LoxTuple(list.subList(start, end));
     }
 
     public Object getAt(int idx) {
@@ -80,7 +81,7 @@ public class LoxTuple {
         int i = 0;
         for (Object value : list) {
             String valueStr = value.toString();
-            if (value instanceof String) {
+            if (LoxRope.isString(value)) {
                 valueStr = "'" + valueStr + "'";
             }
             if (value instanceof Double) {
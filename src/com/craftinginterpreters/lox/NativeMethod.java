@@ -0,0 +1,166 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What?
+ *  A built-in method of lists, tuples, maps and map entries: list.append(x), map.get(k), ...
+ *
+ * How?
+ *  One static table per type (name -> NativeMethod), filled once when the class loads.
+ *  Looking up obj.name is an instanceof and a HashMap get, and calling it is a plain Java
+ *  call - before, every access did a Class.getMethod, wrapped it in a new LoxCallable, and
+ *  called it through Method.invoke.
+ *  obj.name(...) call sites look the method up and invoke it directly (see
+ *  Interpreter.visitCallExpr), only a method used as a value (var push = list.append;)
+ *  gets bound into a LoxCallable.
+ */
+final class NativeMethod {
+    interface Body {
+        Object invoke(Token name, Object receiver, List<Object> args);
+    }
+
+    private static final class Table {
+        final String type;      // for error messages
+        final String label;     // for printing a bound method
+        final Map<String, NativeMethod> methods = new HashMap<>();
+
+        Table(String type, String label) {
+            this.type = type;
+            this.label = label;
+        }
+    }
+
+    private static final Table LIST = new Table("list", "list");
+    private static final Table TUPLE = new Table("tuple", "tup");
+    private static final Table MAP = new Table("map", "map");
+    private static final Table ENTRY = new Table("key-value pair", "pair");
+
+    static {
+        define(LIST, "append", 1, (name, list, args) -> {
+            ((LoxList)list).append(args.get(0));
+            return null;
+        });
+        define(LIST, "prepend", 1, (name, list, args) -> {
+            ((LoxList)list).prepend(args.get(0));
+            return null;
+        });
+        define(LIST, "popFront", 0, (name, list, args) -> ((LoxList)list).popFront());
+        define(LIST, "popBack", 0, (name, list, args) -> ((LoxList)list).popBack());
+        define(LIST, "clear", 0, (name, list, args) -> {
+            ((LoxList)list).clear();
+            return null;
+        });
+        define(LIST, "isEmpty", 0, (name, list, args) -> ((LoxList)list).isEmpty());
+        define(LIST, "size", 0, (name, list, args) -> (long)((LoxList)list).size());
+        define(LIST, "add", 1, (name, list, args) -> {
+            if (!(args.get(0) instanceof LoxList)) {
+                throw new RuntimeError(name, "Can only add a list to a list.");
+            }
+            return ((LoxList)list).add((LoxList)args.get(0));
+        });
+        define(LIST, "set", 2, (name, list, args) -> {
+            LoxList l = (LoxList)list;
+            if (!LoxNumber.isNumber(args.get(0))) {
+                throw new RuntimeError(name, "List indices must be integers.");
+            }
+            long idx = LoxNumber.toLong(args.get(0));
+            if (idx < 0) idx += l.size();
+            if (idx < 0 || idx >= l.size()) throw new RuntimeError(name, "Index out of bounds!");
+            return l.set((int)idx, args.get(1));
+        });
+
+        define(TUPLE, "isEmpty", 0, (name, tup, args) -> ((LoxTuple)tup).isEmpty());
+        define(TUPLE, "size", 0, (name, tup, args) -> (long)((LoxTuple)tup).size());
+
+        define(MAP, "put", 2, (name, map, args) -> ((LoxMap)map).put(args.get(0), args.get(1)));
+        define(MAP, "get", 1, (name, map, args) -> ((LoxMap)map).get(args.get(0)));
+        define(MAP, "containsKey", 1, (name, map, args) -> ((LoxMap)map).containsKey(args.get(0)));
+        define(MAP, "containsValue", 1, (name, map, args) -> ((LoxMap)map).containsValue(args.get(0)));
+        define(MAP, "remove", 1, (name, map, args) -> {
+            ((LoxMap)map).remove(args.get(0));
+            return null;
+        });
+        define(MAP, "clear", 0, (name, map, args) -> {
+            ((LoxMap)map).clear();
+            return null;
+        });
+        define(MAP, "isEmpty", 0, (name, map, args) -> ((LoxMap)map).isEmpty());
+        define(MAP, "size", 0, (name, map, args) -> (long)((LoxMap)map).size());
+
+        define(ENTRY, "getKey", 0, (name, entry, args) -> ((Map.Entry<?, ?>)entry).getKey());
+        define(ENTRY, "getValue", 0, (name, entry, args) -> ((Map.Entry<?, ?>)entry).getValue());
+    }
+
+    final String name;
+    final int arity;
+    private final Table table;
+    private final Body body;
+
+    private NativeMethod(Table table, String name, int arity, Body body) {
+        this.table = table;
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    // object's method called name, null if there's no such method (or object has none at all)
+    static NativeMethod lookup(Object object, String name) {
+        Table table = tableOf(object);
+        return table != null ? table.methods.get(name) : null;
+    }
+
+    // obj.name as a value: the bound method, null if object isn't a list / tuple / map / entry
+    static LoxCallable get(Object object, Token name) {
+        Table table = tableOf(object);
+        if (table == null) return null;
+        NativeMethod method = table.methods.get(name.lexeme);
+        if (method == null) {
+            throw new RuntimeError(name, "No such method '" + name.lexeme + "' on " + table.type + ".");
+        }
+        return method.bind(object, name);
+    }
+
+    // The arity has been checked
+    Object invoke(Token name, Object receiver, List<Object> args) {
+        return body.invoke(name, receiver, args);
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private static void define(Table table, String name, int arity, Body body) {
+        table.methods.put(name, new NativeMethod(table, name, arity, body));
+    }
+
+    private static Table tableOf(Object object) {
+        if (object instanceof LoxList) return LIST;
+        if (object instanceof LoxMap) return MAP;
+        if (object instanceof LoxTuple) return TUPLE;
+        if (object instanceof Map.Entry) return ENTRY;
+        return null;
+    }
+
+    private LoxCallable bind(Object receiver, Token token) {
+        NativeMethod method = this;
+        return new LoxCallable() {
+            @Override
+            public int arity() {
+                return arity;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> args) {
+                return method.invoke(token, receiver, args);
+            }
+
+            @Override
+            public String toString() {
+                return "<" + table.label + " method: " + name + ">";
+            }
+        };
+    }
+}
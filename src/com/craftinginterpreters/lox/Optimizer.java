@@ -0,0 +1,405 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What?
+ *  Constant folding, run between the Resolver and whichever engine executes the program.
+ *  e.g.
+ *      var mask = 1 << 4;          ->  var mask = 16;
+ *      print "a" + "b";            ->  print "ab";
+ *      var x = (2 ** 10) - 1;      ->  var x = 1023;
+ *      if (false) { ... }          ->  (gone)
+ *
+ * How?
+ *  Walk the resolved AST bottom-up. Every visitXxx returns the node to use in its place:
+ *  the same node when nothing changed, a Literal when the whole subtree turned out to be
+ *  constant, or a copy with the folded children. AST fields are final, so a parent whose
+ *  child changed gets rebuilt (carrying over what the Resolver wrote on it). Lists are
+ *  updated in place.
+ *
+ *  The actual arithmetic is done by the Interpreter's own binaryOp / unaryOp, so folded
+ *  results can't disagree with the runtime. If one of them throws (1 / 0 hits checkDivisor,
+ *  "a" - 1, ...) the expression is left alone and still throws at runtime, on its own line.
+ *
+ *  Statements that can never run are dropped: if / while with a constant condition, and
+ *  expression statements that are just a literal. A dropped statement is null here; lists
+ *  remove it, single-statement positions (if / loop bodies) get an empty Block.
+ *
+ *  No algebraic identities (x + 0, x * 1, ...): with dynamic types those aren't no-ops
+ *  ("a" + 0 is "a0", nil * 1 is an error), so only subtrees that are entirely literals fold.
+ */
+class Optimizer implements Expr.ExprVisitor<Expr>, Stmt.StmtVisitor<Stmt> {
+    private final Interpreter interpreter;  // owns binaryOp / unaryOp / truthiness
+
+    Optimizer(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void optimize(List<Stmt> statements) {
+        optimizeAll(statements);
+    }
+
+    Expr optimize(Expr expression) {
+        return fold(expression);
+    }
+
+    //=========================
+    // Statements
+    //=========================
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = fold(stmt.expression);
+        if (expression instanceof Expr.Literal) return null;   // nothing to do at runtime
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = fold(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = fold(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = fold(stmt.condition);
+        if (condition instanceof Expr.Literal) {
+            // Only one branch can ever run (the Interpreter doesn't type check if conditions)
+            if (interpreter.getTruthiness(((Expr.Literal)condition).value)) return optimize(stmt.thenStmt);
+            return stmt.elseStmt != null ? optimize(stmt.elseStmt) : null;
+        }
+
+        Stmt thenStmt = orEmpty(optimize(stmt.thenStmt));
+        Stmt elseStmt = stmt.elseStmt != null ? orEmpty(optimize(stmt.elseStmt)) : null;
+        if (condition == stmt.condition && thenStmt == stmt.thenStmt && elseStmt == stmt.elseStmt) return stmt;
+        return new Stmt.If(condition, thenStmt, elseStmt);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = fold(stmt.condition);
+        if (condition instanceof Expr.Literal && !interpreter.getTruthiness(((Expr.Literal)condition).value)) {
+            return null;    // body never runs
+        }
+
+        Stmt body = orEmpty(optimize(stmt.body));
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Stmt initialization = optimize(stmt.initialization);
+        Expr condition = fold(stmt.condition);
+        Stmt update = optimize(stmt.update);
+        Stmt body = orEmpty(optimize(stmt.body));
+        if (initialization == stmt.initialization && condition == stmt.condition &&
+            update == stmt.update && body == stmt.body) return stmt;
+        return new Stmt.For(initialization, condition, update, body);
+    }
+
+    @Override
+    public Stmt visitForeachStmt(Stmt.Foreach stmt) {
+        Expr iterable = fold(stmt.iterable);
+        Stmt body = orEmpty(optimize(stmt.body));
+        if (iterable == stmt.iterable && body == stmt.body) return stmt;
+        return new Stmt.Foreach(stmt.iterator, iterable, body);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        optimizeAll(stmt.statements);   // keeps slotCount (and the Block) as the Resolver left it
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionDefStmt(Stmt.FunctionDef stmt) {
+        optimize(stmt.body);    // always a Block, updated in place
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = fold(stmt.value);
+        if (value == stmt.value) return stmt;
+        Stmt.Return ret = new Stmt.Return(stmt.keyword, value);
+        ret.tailCall = stmt.tailCall;
+        return ret;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.FunctionDef method : stmt.methods) {
+            optimize(method);
+        }
+        return stmt;
+    }
+
+    //=========================
+    // Expressions
+    //=========================
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = fold(expr.left);
+        Expr right = fold(expr.right);
+        TokenType type = expr.operator.type;
+
+        if (left instanceof Expr.Literal) {
+            Object leftVal = ((Expr.Literal)left).value;
+            // Short-circuiting: the right side never runs, so it doesn't matter what it is
+            if (type == TokenType.AND && !interpreter.getTruthiness(leftVal)) return new Expr.Literal(false);
+            if (type == TokenType.OR && interpreter.getTruthiness(leftVal)) return new Expr.Literal(true);
+            // A constant on the left of a comma has no effect
+            if (type == TokenType.COMMA) return right;
+
+            if (right instanceof Expr.Literal) {
+                Object rightVal = ((Expr.Literal)right).value;
+                if (type == TokenType.AND || type == TokenType.OR) {
+                    return new Expr.Literal(interpreter.getTruthiness(rightVal));
+                }
+                try {
+                    Object value = interpreter.binaryOp(expr.operator, leftVal, rightVal);
+                    if (isConstant(value)) return new Expr.Literal(value);
+                } catch (RuntimeError error) {
+                    // Leave it for runtime to report
+                }
+            }
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = fold(expr.expression);
+        if (expression instanceof Expr.Literal) return expression;
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = fold(expr.right);
+        TokenType type = expr.operator.type;
+
+        if (right instanceof Expr.Literal &&
+            (type == TokenType.BANG || type == TokenType.MINUS || type == TokenType.BITWISE_NOT)) {
+            try {
+                Object value = interpreter.unaryOp(expr.operator, ((Expr.Literal)right).value);
+                if (isConstant(value)) return new Expr.Literal(value);
+            } catch (RuntimeError | ClassCastException error) {
+                // Leave it for runtime to report
+            }
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr cond = fold(expr.cond);
+        Expr trueBranch = fold(expr.trueBranch);
+        Expr falseBranch = fold(expr.falseBranch);
+
+        if (cond instanceof Expr.Literal) {
+            Object condVal = ((Expr.Literal)cond).value;
+            try {
+                interpreter.checkTruthyOperand(expr.operator, condVal);
+                return interpreter.getTruthiness(condVal) ? trueBranch : falseBranch;
+            } catch (RuntimeError error) {
+                // Leave it for runtime to report
+            }
+        }
+
+        if (cond == expr.cond && trueBranch == expr.trueBranch && falseBranch == expr.falseBranch) return expr;
+        return new Expr.Ternary(cond, expr.operator, trueBranch, falseBranch);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr rhs = fold(expr.rhs);
+        if (rhs == expr.rhs) return expr;
+        Expr.Assign assign = new Expr.Assign(expr.name, rhs);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        Expr object = fold(expr.object);
+        Expr idxExpr = fold(expr.idxExpr);
+        Expr idxExpr2 = fold(expr.idxExpr2);
+        if (object == expr.object && idxExpr == expr.idxExpr && idxExpr2 == expr.idxExpr2) return expr;
+        return new Expr.Index(expr.lbrack, object, idxExpr, idxExpr2);
+    }
+
+    @Override
+    public Expr visitIndexPrefixExpr(Expr.IndexPrefix expr) {
+        Expr object = fold(expr.object);
+        Expr idxExpr = fold(expr.idxExpr);
+        if (object == expr.object && idxExpr == expr.idxExpr) return expr;
+        return new Expr.IndexPrefix(expr.operator, object, idxExpr);
+    }
+
+    @Override
+    public Expr visitIndexPostfixExpr(Expr.IndexPostfix expr) {
+        Expr object = fold(expr.object);
+        Expr idxExpr = fold(expr.idxExpr);
+        if (object == expr.object && idxExpr == expr.idxExpr) return expr;
+        return new Expr.IndexPostfix(expr.operator, object, idxExpr);
+    }
+
+    @Override
+    public Expr visitIndexAssignExpr(Expr.IndexAssign expr) {
+        Expr object = fold(expr.object);
+        Expr idxExpr = fold(expr.idxExpr);
+        Expr rhs = fold(expr.rhs);
+        if (object == expr.object && idxExpr == expr.idxExpr && rhs == expr.rhs) return expr;
+        return new Expr.IndexAssign(expr.lbrack, object, idxExpr, rhs);
+    }
+
+    @Override
+    public Expr visitPrefixExpr(Expr.Prefix expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitPostfixExpr(Expr.Postfix expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = fold(expr.callee);
+        foldAll(expr.args);
+        if (callee == expr.callee) return expr;
+        return new Expr.Call(callee, expr.paren, expr.args);
+    }
+
+    @Override
+    public Expr visitAnonymousExpr(Expr.Anonymous expr) {
+        optimize(expr.body);    // always a Block, updated in place
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = fold(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = fold(expr.object);
+        Expr rhs = fold(expr.rhs);
+        if (object == expr.object && rhs == expr.rhs) return expr;
+        return new Expr.Set(object, expr.name, rhs);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitListExprExpr(Expr.ListExpr expr) {
+        foldAll(expr.exprs);
+        return expr;
+    }
+
+    @Override
+    public Expr visitMapExprExpr(Expr.MapExpr expr) {
+        for (int i = 0; i < expr.KeyValuePairs.size(); i++) {
+            Map<Expr, Expr> folded = new HashMap<>();
+            for (Map.Entry<Expr, Expr> pair : expr.KeyValuePairs.get(i).entrySet()) {
+                folded.put(fold(pair.getKey()), fold(pair.getValue()));
+            }
+            expr.KeyValuePairs.set(i, folded);
+        }
+        return expr;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private Expr fold(Expr expr) {
+        return expr != null ? expr.accept(this) : null;
+    }
+
+    private void foldAll(List<Expr> exprs) {
+        for (int i = 0; i < exprs.size(); i++) {
+            exprs.set(i, fold(exprs.get(i)));
+        }
+    }
+
+    // null: the statement does nothing and can go
+    private Stmt optimize(Stmt stmt) {
+        return stmt != null ? stmt.accept(this) : null;
+    }
+
+    private void optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt stmt : statements) {
+            Stmt result = optimize(stmt);
+            if (result != null) optimized.add(result);
+        }
+        statements.clear();
+        statements.addAll(optimized);
+    }
+
+    private static Stmt orEmpty(Stmt stmt) {
+        return stmt != null ? stmt : new Stmt.Block(new ArrayList<>());
+    }
+
+    // Only immutable values can be shared by every evaluation of a Literal
+    private static boolean isConstant(Object value) {
+        return value == null || value instanceof Boolean || value instanceof Double ||
+               value instanceof String || value instanceof Long;
+    }
+}
@@ -64,14 +64,18 @@ import static com.craftinginterpreters.lox.TokenType.*;
 
 public class Parser {
     private static class ParseError extends RuntimeException{}
-    private final List<Token> tokens;
+    private final Scanner scanner;
+    // Tokens are pulled from the scanner as needed (see token / type). Once a top-level
+    // declaration is parsed nothing looks back past previous() again (the backtracking in
+    // maps stays inside one declaration), so the ones before that get released.
+    private final TokenStore tokens = new TokenStore();
     private int curr = 0;
 
     //============================
     // Parser Interface Functions
     //============================
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    Parser(Scanner scanner) {
+        this.scanner = scanner;
     }
 
     // FOR DEBUG ONLY
@@ -86,6 +90,7 @@ public class Parser {
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<Stmt>();
         while (!isAtEnd()) {
+            tokens.release(curr - 1);
             statements.add(declaration());
         }
         return statements;
@@ -834,47 +839,78 @@ public class Parser {
 
     /* Helper Methods */
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return type(curr) == EOF;
     }
 
     private boolean isAtStart() {
         return curr == 0;
     }    
 
+    // match(type) / match(type1, type2) are most of the calls, and don't allocate a varargs array
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        skip();
+        return true;
+    }
+
+    private boolean match(TokenType type1, TokenType type2) {
+        return match(type1) || match(type2);
+    }
+
     private boolean match(TokenType... types) {
         for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+            if (match(type)) return true;
         }
         return false;
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return type(curr) == type;
     }
 
     private Token peek() {
-        return tokens.get(curr);
+        return token(curr);
     }
     
     private Token peekNext() {
-        if (tokens.get(curr).type == EOF || tokens.get(curr + 1).type == EOF)
+        if (type(curr) == EOF || type(curr + 1) == EOF)
             return null;
-        return tokens.get(curr + 1);
+        return token(curr + 1);
     }
 
     private Token previous() {
-        return tokens.get(curr - 1);
+        return token(curr - 1);
+    }
+
+    // Token number i, scanning ahead to it if need be
+    private Token token(int i) {
+        scanTo(i);
+        return tokens.token(i);
+    }
+
+    // Just the type of token number i, without making a Token for it
+    private TokenType type(int i) {
+        scanTo(i);
+        return tokens.type(i);
+    }
+
+    private void scanTo(int i) {
+        while (i >= tokens.end()) {
+            scanner.nextToken(tokens);
+        }
     }
 
     private Token advance() {
-        if (!isAtEnd()) curr++;
+        skip();
         return previous();
     }
 
+    // advance, for when the token isn't needed
+    private void skip() {
+        if (!isAtEnd()) curr++;
+    }
+
     private void rewind() {
         curr--;
     }
@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What?
+ *  An inline cache for one obj.name site (Expr.Get.cache), keyed by the receiver's class.
+ *  LoxInstance.get probes the instance's fields, then the static fields of the class and
+ *  every superclass (recursively), and only then findMethod - which walks the whole
+ *  hierarchy again. For a given class most of that answer never changes, so remember it.
+ *
+ * How?
+ *  Per receiver class we remember:
+ *      - the method findMethod finds (methods can't change once a class is defined)
+ *      - whether any class in the hierarchy has a static field with this name
+ *  The instance's own fields still get checked every time (they're per instance), but only
+ *  through their Shape: the slot is remembered for the last Shape seen at this site. If no
+ *  class in the hierarchy has such a static field we skip straight to the cached method,
+ *  otherwise we fall back to LoxInstance.getField for the static part.
+ *  Static fields can be added at any time though, so entries remember
+ *  LoxClass.staticFieldsVersion and are refilled once it moves.
+ *
+ *  Up to POLYMORPHIC_LIMIT classes per site. Past that the site is megamorphic and
+ *  just uses LoxInstance.get.
+ *
+ *  An obj.name = ... site (Expr.Set.cache) only needs the Shape part: for the last Shape seen
+ *  there, the slot name is in, or - when the instance doesn't have it yet - the slot it gets
+ *  and the Shape adding it moves to. Classes don't matter to a set, it never looks further
+ *  than the instance's own fields.
+ */
+final class PropertyCache {
+    private static final int POLYMORPHIC_LIMIT = 4;
+
+    private final LoxClass[] classes = new LoxClass[POLYMORPHIC_LIMIT];
+    private final LoxFunction[] methods = new LoxFunction[POLYMORPHIC_LIMIT];    // null: no such method
+    private final boolean[] hasStatics = new boolean[POLYMORPHIC_LIMIT];
+    private final int[] versions = new int[POLYMORPHIC_LIMIT];
+    private int size = 0;
+    private boolean megamorphic = false;
+    private Shape lastShape = null;     // instance field slot for the last Shape seen here
+    private int lastSlot = -1;
+    private Shape nextShape = null;     // set sites: where adding the field moves lastShape to, null if it's there
+
+    // Same result (and errors) as instance.get(name, false)
+    Object get(LoxInstance instance, Token name) {
+        int entry = lookup(instance.klass, name);
+        if (entry == -1) return instance.get(name, false);
+
+        Object value = field(instance, entry, name);
+        if (value != null) return value;
+
+        LoxFunction method = methods[entry];
+        if (method != null) return method.bind(instance);
+        throw new RuntimeError(name, "Undefined property " + name.lexeme + ".");
+    }
+
+    // The (unbound) method instance.get(name, false) would bind, null if it'd return anything else or throw
+    LoxFunction method(LoxInstance instance, Token name) {
+        int entry = lookup(instance.klass, name);
+        if (entry == -1 || field(instance, entry, name) != null) return null;
+        return methods[entry];
+    }
+
+    // Same as instance.set(name, value), for a LoxInstance that isn't a LoxClass (see LoxClass.set)
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        if (shape != lastShape) {
+            int slot = shape.slotOf(name.lexeme);
+            nextShape = slot == -1 ? shape.with(name.lexeme) : null;
+            lastSlot = slot == -1 ? shape.size() : slot;
+            lastShape = shape;
+        }
+        if (nextShape != null) instance.addField(nextShape);
+        instance.values[lastSlot] = value;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    // Index of klass' entry (filled in / refreshed if need be), -1 when megamorphic
+    private int lookup(LoxClass klass, Token name) {
+        for (int i = 0; i < size; i++) {
+            if (classes[i] == klass) {
+                if (versions[i] != LoxClass.staticFieldsVersion) fill(i, klass, name);
+                return i;
+            }
+        }
+        if (megamorphic) return -1;
+        if (size == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            return -1;
+        }
+        fill(size, klass, name);
+        return size++;
+    }
+
+    private void fill(int i, LoxClass klass, Token name) {
+        classes[i] = klass;
+        methods[i] = klass.findMethod(name.lexeme);
+        hasStatics[i] = hasStatic(klass, name.lexeme);
+        versions[i] = LoxClass.staticFieldsVersion;
+    }
+
+    // The field / static field that would shadow a method, or null
+    private Object field(LoxInstance instance, int entry, Token name) {
+        int slot = fieldSlot(instance.shape, name.lexeme);
+        if (slot != -1) return instance.values[slot];   // a nil instance field hides the static ones (see LoxInstance.getField)
+        if (hasStatics[entry]) return instance.getField(name);
+        return null;
+    }
+
+    // Instances built the same way share a Shape, so this is nearly always the last one we saw
+    private int fieldSlot(Shape shape, String name) {
+        if (shape != lastShape) {
+            lastShape = shape;
+            lastSlot = shape.slotOf(name);
+        }
+        return lastSlot;
+    }
+
+    private static boolean hasStatic(LoxClass klass, String name) {
+        for (LoxClass c : klass.mro) {
+            if (c.hasField(name)) return true;
+        }
+        return false;
+    }
+}
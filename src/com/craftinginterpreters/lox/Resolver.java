@@ -41,7 +41,7 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
             this.isUsed = false;
             this.objectType = ObjectType.UNINITIALIZED;
             this.name = null;
-            // this.index = 0;  // TODO: implement array-based Environments
+            this.index = 0;
         }
 
         ResolverInfo(Boolean isDefined, Boolean isUsed, ObjectType objectType, Token name) {
@@ -49,18 +49,21 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
             this.isUsed = isUsed;
             this.objectType = objectType;
             this.name = name;
-            // this.index = 0;
+            this.index = 0;
+        }
+
+        ResolverInfo(Boolean isDefined, Boolean isUsed, ObjectType objectType, Token name, Integer index) {
+            this(isDefined, isUsed, objectType, name);
+            this.index = index;     // slot in the enclosing scope's Environment
         }
     }
-    private final Interpreter interpreter;
     private final Stack<Map<String, ResolverInfo>> scopes;
     private final Map<String, ResolverInfo> globals;
     FunctionType currentFunction = FunctionType.NONE;
     ClassType currentClass = ClassType.NONE;
     LoopStatus loopStatus = LoopStatus.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver() {
         this.scopes = new Stack<Map<String, ResolverInfo>>();
         this.globals = new HashMap<String, ResolverInfo>();
     }
@@ -79,14 +82,14 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.slotCount = endScope();
 
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name, ObjectType.VARIABLE);
+        stmt.slot = declare(stmt.name, ObjectType.VARIABLE);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -104,7 +107,8 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
             scopes.peek().get(expr.name.lexeme).isDefined == Boolean.FALSE) {
             Lox.error(expr.name, "Cannot read local variable in its own initializer");
         }
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
         markUsed(expr.name);
 
         return null;
@@ -113,14 +117,15 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.rhs);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
 
         return null;
     }
 
     @Override
     public Void visitFunctionDefStmt(Stmt.FunctionDef funcDef) {
-        declare(funcDef.name, ObjectType.FUNCTION);
+        funcDef.slot = declare(funcDef.name, ObjectType.FUNCTION);
         define(funcDef.name);
         resolveFunctionDef(funcDef, FunctionType.FUNCTION);
 
@@ -165,6 +170,9 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
                             "Cannot return a value from an initializer.");
             }
             resolve(stmt.value);
+            // return f(...) (or c ? f(...) : ...): nothing left to do in this function once f
+            // returns, so the engines can run f without nesting a Java call (see LoxFunction.call)
+            stmt.tailCall = hasTailCall(stmt.value);
         }
 
         return null;
@@ -198,7 +206,8 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
     public Void visitForeachStmt(Stmt.Foreach stmt) {
         LoopStatus enclosing = loopStatus;
         loopStatus = LoopStatus.LOOP;
-        declare(stmt.iterator.name, ObjectType.VARIABLE);
+        stmt.iterator.slot = declare(stmt.iterator.name, ObjectType.VARIABLE);
+        stmt.iterator.depth = stmt.iterator.slot == -1 ? -1 : 0;    // always lives in the current scope
         define(stmt.iterator.name);
         resolve(stmt.iterable);
         resolve(stmt.body);
@@ -285,7 +294,7 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
     public Void visitClassStmt(Stmt.Class classDecl) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(classDecl.name, ObjectType.CLASS);
+        classDecl.slot = declare(classDecl.name, ObjectType.CLASS);
         define(classDecl.name);
         if (!classDecl.superClasses.isEmpty()) {
             currentClass = ClassType.SUBCLASS;
@@ -299,10 +308,10 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
         }
         if (!classDecl.superClasses.isEmpty()) {
             beginScope();
-            scopes.peek().put("super", new ResolverInfo(true, false, ObjectType.INSTANCE, new Token(TokenType.SUPER, "super", null, 0)));
+            scopes.peek().put("super", new ResolverInfo(true, false, ObjectType.INSTANCE, new Token(TokenType.SUPER, "super", null, 0), 0));
         }
         beginScope();
-        scopes.peek().put("this", new ResolverInfo(true, false, ObjectType.INSTANCE, new Token(TokenType.THIS, "this", null, 0)));
+        scopes.peek().put("this", new ResolverInfo(true, false, ObjectType.INSTANCE, new Token(TokenType.THIS, "this", null, 0), 0));
         FunctionType declaration = FunctionType.METHOD;
         Boolean isInit = false;
         for (Stmt.FunctionDef funcDef : classDecl.methods) {
@@ -380,7 +389,8 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
 
     @Override
     public Void visitPostfixExpr(Expr.Postfix expr) {
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
         markUsed(expr.name);
 
         return null;
@@ -388,7 +398,8 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
 
     @Override
     public Void visitPrefixExpr(Expr.Prefix expr) {
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = slotOf(expr.name, expr.depth);
         markUsed(expr.name);
 
         return null;
@@ -410,7 +421,7 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
         for (Stmt stmt : funcBody.statements) {
             resolve(stmt);
         }
-        endScope();
+        funcBody.slotCount = endScope();
         currentFunction = enclosing;
 
         return null;
@@ -438,7 +449,8 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
         if (currentClass == ClassType.NONE) {
             Lox.error(thisExpr.keyword, "Cannot use this outside of class.");
         }
-        resolveLocal(thisExpr, thisExpr.keyword);
+        thisExpr.depth = resolveLocal(thisExpr.keyword);
+        thisExpr.slot = slotOf(thisExpr.keyword, thisExpr.depth);
         
         return null;
     }
@@ -450,13 +462,25 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
         } else if (currentClass != ClassType.SUBCLASS) {
             Lox.error(superExpr.keyword, "'super' cannot be used outside of subclass.");
         }
-        resolveLocal(superExpr, superExpr.keyword);
+        superExpr.depth = resolveLocal(superExpr.keyword);
+        superExpr.slot = slotOf(superExpr.keyword, superExpr.depth);
         
         return null;
     }
 
     /** Helper methods */
 
+    // A call whose value is the value of the whole expression: the expression itself, or either
+    // branch of a ?: (cond ? f(x) : g(x) ends in f or g, whichever runs)
+    private static boolean hasTailCall(Expr expr) {
+        if (expr instanceof Expr.Grouping) return hasTailCall(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary)expr;
+            return hasTailCall(ternary.trueBranch) || hasTailCall(ternary.falseBranch);
+        }
+        return expr instanceof Expr.Call;
+    }
+
     private void resolveFunctionDef(Stmt.FunctionDef funcDef, FunctionType type) {
         FunctionType functionType = currentFunction;
         currentFunction = type;
@@ -469,29 +493,42 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
         for (Stmt stmt : funcBody.statements) {
             resolve(stmt);
         }
-        endScope();
+        funcBody.slotCount = endScope();
         currentFunction = functionType;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    /**
+     * How many hops backwards from the current scope should the interpreter look for name?
+     * Returns -1 if name isn't found in any local scope (i.e. it's a global).
+     */
+    private int resolveLocal(Token name) {
         for (int i=scopes.size() - 1; i >= 0; --i) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);   // tell the interpreter where to find the correct name:value mapping (i.e. how many hops backwards from current scope should interpreter look?)
-                return;
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
     }
 
-    private void declare(Token name, ObjectType objectType) {
+    // Which slot does name occupy in the scope depth hops back? (-1 for globals)
+    private int slotOf(Token name, int depth) {
+        if (depth == -1) return -1;
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme).index;
+    }
+
+    // Returns the slot assigned to name, or -1 if it was declared as a global
+    private int declare(Token name, ObjectType objectType) {
         if (scopes.isEmpty()) {
             globals.put(name.lexeme, new ResolverInfo(false, false, objectType, name));
-            return;
+            return -1;
         }
         Map<String, ResolverInfo> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
             Lox.error(name, "Already declared a variable with this name in this scope.");
         }
-        scope.put(name.lexeme, new ResolverInfo(false, false, objectType, name));  // haven't finished resolving variable's initializer...
+        int slot = scope.size();    // locals are laid out in declaration order
+        scope.put(name.lexeme, new ResolverInfo(false, false, objectType, name, slot));  // haven't finished resolving variable's initializer...
+        return slot;
     }
 
     private void define(Token name) {
@@ -516,14 +553,15 @@ public class Resolver implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void>
         scopes.push(new HashMap<String, ResolverInfo>());
     }
 
-    private void endScope() {
+    // Returns the number of slots the scope needs at runtime
+    private int endScope() {
         for (String key : scopes.peek().keySet()) {
             if (!scopes.peek().get(key).isUsed &&
                 scopes.peek().get(key).objectType == ObjectType.VARIABLE) {
                 Lox.warning(scopes.peek().get(key).name, "Unused variable.");
             }
         }
-        scopes.pop();
+        return scopes.pop().size();
     }
 
     private void resolve(Stmt stmt) {
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+// Completion of a return statement. Not an exception - constructing a Throwable costs more than it should.
+class Returned {
+    final Object value;
+
+    Returned(Object value) {
+        this.value = value;
+    }
+}
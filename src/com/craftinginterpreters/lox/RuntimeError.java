@@ -3,7 +3,7 @@ package com.craftinginterpreters.lox;
 public class RuntimeError extends RuntimeException {
     final Token token;
 
-    RuntimeError(Token token, String message) {
+    public RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
     }
@@ -1,15 +1,36 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
+/**
+ * What?
+ *  Turns source into tokens, one at a time: the Parser pulls them with nextToken as it goes.
+ *  Scripts can be machine-generated data files hundreds of MB big, so neither the whole source
+ *  nor the whole token list is ever held in memory at once.
+ *
+ * How?
+ *  The source is read through a window, buf[0 .. limit). start / curr are positions in it.
+ *  When the scanner needs a char past the end (ensure), the current token's chars are moved
+ *  down to the front, buf doubles if the token alone fills it, and the rest is refilled from
+ *  the Reader. A String source is just a window that already has everything.
+ *  Tokens go straight into the parser's TokenStore. Punctuation and keywords don't get a
+ *  lexeme of their own (it's their type's spelling), and identifiers are interned straight
+ *  from buf (see Symbols), so only new names, strings and numbers allocate a String.
+ */
 public class Scanner {
-   private final String source;
-   private final ArrayList<Token> tokens = new ArrayList<>();
+   private static final int BUFFER_SIZE = 8192;
+
+   private final Reader reader;     // null: all of the source is in buf
+   private char[] buf;
+   private int limit;               // buf[0 .. limit) holds source chars
+   private boolean eof = false;
+   private TokenStore tokens;       // where scanToken puts what it finds
    private int line = 1;
    private int start = 0;
    private int curr = 0;
@@ -39,27 +60,80 @@ static {
     keywords.put("continue", CONTINUE);
 }
 
+// How every token of a type is spelled, null for identifiers, strings and numbers
+private static final String[] spellings = new String[TokenType.values().length];
+
+static {
+    spell(LEFT_PAREN, "(");     spell(RIGHT_PAREN, ")");
+    spell(LEFT_BRACE, "{");     spell(RIGHT_BRACE, "}");
+    spell(LEFT_BRACK, "[");     spell(RIGHT_BRACK, "]");
+    spell(COMMA, ",");          spell(DOT, ".");
+    spell(MINUS, "-");          spell(PLUS, "+");
+    spell(SEMICOLON, ";");      spell(SLASH, "/");
+    spell(STAR, "*");           spell(MODULO, "%");
+    spell(QUESTION_MARK, "?");  spell(COLON, ":");
+    spell(BITWISE_AND, "&");    spell(BITWISE_OR, "|");
+    spell(BITWISE_NOT, "~");    spell(BITWISE_XOR, "^");
+    spell(BANG, "!");           spell(BANG_EQUAL, "!=");
+    spell(EQUAL, "=");          spell(EQUAL_EQUAL, "==");
+    spell(GREATER, ">");        spell(GREATER_EQUAL, ">=");
+    spell(LESS, "<");           spell(LESS_EQUAL, "<=");
+    spell(BITSHIFT_LEFT, "<<"); spell(BITSHIFT_RIGHT, ">>");
+    spell(PLUS_PLUS, "++");     spell(MINUS_MINUS, "--");
+    spell(STAR_STAR, "**");
+    spell(EOF, "");
+    for (String keyword : keywords.keySet()) {
+        spell(keywords.get(keyword), Symbols.intern(keyword));
+    }
+}
+
+private static void spell(TokenType type, String spelling) {
+    spellings[type.ordinal()] = spelling;
+}
+
+static String spelling(TokenType type) {
+    return spellings[type.ordinal()];
+}
+
 Scanner(String source) {
-        this.source = source;
+        this.reader = null;
+        this.buf = source.toCharArray();
+        this.limit = buf.length;
+    }
+
+    Scanner(Reader reader) {
+        this.reader = reader;
+        this.buf = new char[BUFFER_SIZE];
+        this.limit = 0;
+    }
+
+    // Scan the next token onto the end of tokens, EOF (again and again) once the source is used up
+    void nextToken(TokenStore tokens) {
+        this.tokens = tokens;
+        int end = tokens.end();
+        while (tokens.end() == end) {
+            start = curr;
+            scanToken();
+        }
     }
 
     private Boolean isAtEnd() {
-        return curr >= source.length();
+        return !ensure(1);
     }
 
     private char peekNext() {
-        if (isAtEnd()) return '\0';
-        if (curr + 1 >= source.length()) return '\0';
-        return source.charAt(curr + 1);
+        if (!ensure(2)) return '\0';
+        return buf[curr + 1];
     }
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(curr);
+        return buf[curr];
     }
 
     private char advance() {
-        return source.charAt(curr++);
+        ensure(1);
+        return buf[curr++];
     }
 
     private void addToken(TokenType type) {
@@ -67,17 +141,47 @@ Scanner(String source) {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, curr);
-        tokens.add(new Token(type, text, literal, line));
+        String text = spellings[type.ordinal()] != null ? null : text(start, curr);
+        tokens.add(type, text, literal, line);
     }
 
     private Boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(curr) != expected) return false;
+        if (buf[curr] != expected) return false;
         curr++;
         return true;
     }
 
+    private String text(int from, int to) {
+        return new String(buf, from, to - from);
+    }
+
+    // Make sure buf has count chars from curr on (refilling it if need be), false if the source doesn't
+    private boolean ensure(int count) {
+        while (curr + count > limit) {
+            if (reader == null || eof) return false;
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, limit - start);
+                limit -= start;
+                curr -= start;
+                start = 0;
+            }
+            if (limit == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            int read;
+            try {
+                read = reader.read(buf, limit, buf.length - limit);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (read == -1) {
+                eof = true;
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
     private void string() {
         while (peek() != '"' && !isAtEnd()) {
             if (peek() == '\n') line++;
@@ -85,9 +189,10 @@ Scanner(String source) {
         }
         if (isAtEnd()) {
             Lox.error(line, "Unterminated string");
+            return;
         }
         advance();  // bump curr past closing quote
-        String literal = source.substring(start + 1, curr - 1);
+        String literal = text(start + 1, curr - 1);
         addToken(STRING, literal);
     }
 
@@ -117,8 +222,8 @@ Scanner(String source) {
             // } else {
             //     literal = source.substring(start + 1, curr - 1);
             // }
-            literal = source.substring(start, curr);
-            addToken(NUMBER, Double.parseDouble(literal));
+            literal = text(start, curr);
+            addToken(NUMBER, numberLiteral(literal));
             return;
         }
 
@@ -127,16 +232,30 @@ Scanner(String source) {
             while (!isAtEnd() && isDigit(peek())) advance();
         }
 
-        Double literal = Double.parseDouble(source.substring(start, curr));
-        addToken(NUMBER, literal);
+        addToken(NUMBER, numberLiteral(text(start, curr)));
+    }
+
+    // Long for integers (see LoxNumber), Double if there's a '.' or it's too big for a long
+    private Object numberLiteral(String literal) {
+        if (literal.indexOf('.') == -1) {
+            try {
+                return Long.parseLong(literal);
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return Double.parseDouble(literal);
     }
 
     private void keywordOrIdentifier() {
         while (!isAtEnd() && isAlphaNumeric(peek())) advance();
-        String rawText = source.substring(start, curr);
+        String rawText = Symbols.intern(buf, start, curr - start);
         TokenType type = keywords.get(rawText);
-        if (type == null) type = IDENTIFIER;
-        addToken(type, rawText);
+        if (type == null) {
+            tokens.add(IDENTIFIER, rawText, rawText, line);
+        } else {
+            tokens.add(type, null, rawText, line);
+        }
     }
 
     private void skipMultiLineComment() {
@@ -235,20 +354,4 @@ Scanner(String source) {
         }
     }
 
-    List<Token> scanTokens() {
-        // System.out.println(source.length());
-        if (source.length() == 0) { // empty source
-            tokens.add(new Token(EOF, "", null, line));
-        } else {
-            while (!isAtEnd()) {
-                start = curr;
-                scanToken();
-            }
-            // For handling comment-only source or token list missing EOF token
-            if (tokens.size() == 0 || tokens.get(tokens.size() - 1).type != EOF)
-                tokens.add(new Token(EOF, "", null, line));
-        }
-        return tokens;
-    }
-
 }
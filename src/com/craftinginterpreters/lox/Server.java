@@ -0,0 +1,260 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import com.craftinginterpreters.lox.jit.JitCompiler;
+
+/**
+ * What?
+ *  jlox --server: one long-lived JVM that runs scripts for Clients, so a batch of short
+ *  scripts doesn't pay JVM startup, class loading and a cold HotSpot for every one of them.
+ *  Every request is a complete jlox run (Lox.launch) with its own Interpreter, Resolver and
+ *  Optimizer, so nothing a script defines is seen by the next one. What is shared is the warm
+ *  JVM - loaded classes, HotSpot's compiled code - and, for runs with --cache, the AstCache,
+ *  so an unchanged script isn't even parsed again. The process-wide tables a run fills (JitSupport's constants,
+ *  Shapes, Symbols) are cleared after each one, so a long-lived server doesn't keep growing.
+ *
+ * How?
+ *  Listens on a Unix domain socket (see Client for the protocol), only usable by our own user:
+ *  it's rw------- from the moment it can be connected to, and by default it's in a directory
+ *  only we can get into (see bind).
+ *  Requests are run one at a time, in the order they connect: a run's stdout / stderr / stdin
+ *  are System.out / err / in, which there's only one of, so they're pointed at the request's
+ *  connection while it runs. Both outputs go out as frames on the one connection, in the order
+ *  they were printed; they're flushed like System.out would be (println, and before reading
+ *  stdin, so an input() prompt shows up). stdin is asked of the client as the script reads it.
+ */
+final class Server {
+    private static final Set<PosixFilePermission> PRIVATE_DIR = PosixFilePermissions.fromString("rwx------");
+
+    private Server() {}
+
+    static void serve(Path socket) throws IOException {
+        ServerSocketChannel server = bind(socket);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException ignored) {
+            }
+        }));
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        InputStream in = System.in;
+        out.println("jlox: serving on " + socket);
+        for (;;) {
+            try (SocketChannel channel = server.accept()) {
+                handle(channel);
+            } catch (IOException | UncheckedIOException e) {
+                err.println("jlox: request failed: " + e);     // e.g. the client went away
+            } finally {
+                System.setOut(out);
+                System.setErr(err);
+                System.setIn(in);
+                JitCompiler.releaseConstants();
+                Shape.clearTransitions();
+                Symbols.clear();
+            }
+        }
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private static void handle(SocketChannel channel) throws IOException {
+        DataInputStream request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        if (request.readInt() != Client.MAGIC) return;     // not a Client
+        Path dir = Paths.get(request.readUTF());
+        int argc = request.readInt();
+        if (argc < 0) return;
+        String[] args = new String[argc];
+        for (int i = 0; i < argc; i++) args[i] = request.readUTF();
+
+        Frames frames = new Frames(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        PrintStream stdout = new PrintStream(frames.stream(Client.STDOUT), true, Charset.defaultCharset());
+        PrintStream stderr = new PrintStream(frames.stream(Client.STDERR), true, Charset.defaultCharset());
+        System.setOut(stdout);
+        System.setErr(stderr);
+        // Buffered like the real System.in, so input() reading a char at a time isn't a round trip each
+        System.setIn(new BufferedInputStream(new InputStream() {
+            private boolean eof = false;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                if (eof) return -1;
+                frames.input(len);
+                int read = request.readInt();
+                if (read < 0) {
+                    eof = true;
+                    return -1;
+                }
+                request.readFully(b, off, read);
+                return read;
+            }
+        }));
+
+        int status;
+        try {
+            status = Lox.launch(args, dir);
+        } catch (IOException e) {
+            // What main would have died of (a missing script, ...)
+            System.err.print("Exception in thread \"main\" ");
+            e.printStackTrace();
+            status = 1;
+        }
+        stdout.flush();
+        stderr.flush();
+        frames.exit(status);
+    }
+
+    /**
+     * Listen on socket, unless another server already is. Anyone who can connect can run code as
+     * us, so the default socket's directory is made only for us (or must already be), a socket
+     * of someone else's is never taken for a server to defer to or a stale one to delete, and the
+     * socket is rw------- before it's where a client can find it: it's bound in a private
+     * directory of its own, chmod-ed there and only then renamed into place (connections would be
+     * queued, before we ever accept, as soon as it's bound).
+     */
+    private static ServerSocketChannel bind(Path socket) throws IOException {
+        Path dir = socket.toAbsolutePath().getParent();
+        if (socket.equals(Client.defaultSocket())) {
+            try {
+                Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PRIVATE_DIR));
+            } catch (FileAlreadyExistsException e) {
+                Client.checkPrivate(dir);
+            } catch (UnsupportedOperationException e) {
+                Files.createDirectories(dir);   // not a POSIX file system
+            }
+        }
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            Client.checkOwner(socket);
+            boolean running;
+            try {
+                Client.connect(socket).close();
+                running = true;
+            } catch (IOException e) {
+                running = false;
+            }
+            if (running) throw new IOException("a jlox server is already running on " + socket);
+            Files.delete(socket);   // left over from a server that's gone
+        }
+
+        Path staging;
+        try {
+            staging = Files.createTempDirectory(dir, ".jlox", PosixFilePermissions.asFileAttribute(PRIVATE_DIR));
+        } catch (UnsupportedOperationException e) {
+            return Client.listen(socket);   // not a POSIX file system: it's only as private as its directory
+        }
+        Path staged = staging.resolve("jlox.sock");
+        ServerSocketChannel server = Client.listen(staged);
+        try {
+            Files.setPosixFilePermissions(staged, PosixFilePermissions.fromString("rw-------"));
+            Files.move(staged, socket, StandardCopyOption.ATOMIC_MOVE);     // the bound socket goes with it
+        } catch (IOException e) {
+            server.close();
+            Files.deleteIfExists(staged);
+            throw e;
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+        return server;
+    }
+
+    /**
+     * The response half of a connection: stdout and stderr bytes as they're written, each as a
+     * STDOUT / STDERR frame, INPUT frames when the script reads stdin, then the EXIT frame.
+     */
+    private static final class Frames {
+        private final OutputStream out;
+
+        Frames(OutputStream out) {
+            this.out = out;
+        }
+
+        // Unchecked, so it isn't swallowed by PrintStream: a client that's gone ends the run
+        synchronized void write(int kind, byte[] b, int off, int len) {
+            try {
+                out.write(kind);
+                writeInt(len);
+                out.write(b, off, len);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Ask the client for up to max bytes of its stdin (the answer comes back on the request side)
+        synchronized void input(int max) throws IOException {
+            out.write(Client.INPUT);
+            writeInt(max);
+            out.flush();
+        }
+
+        synchronized void exit(int status) throws IOException {
+            out.write(Client.EXIT);
+            writeInt(status);
+            out.flush();
+        }
+
+        OutputStream stream(int kind) {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    Frames.this.write(kind, new byte[] { (byte)b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    if (len > 0) Frames.this.write(kind, b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                    Frames.this.flush();
+                }
+            };
+        }
+
+        private void writeInt(int n) throws IOException {
+            out.write(n >>> 24);
+            out.write(n >>> 16);
+            out.write(n >>> 8);
+            out.write(n);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What?
+ *  The layout of a LoxInstance's fields (a.k.a. hidden class): which field name lives in
+ *  which slot of the instance's values array. Instances that got the same fields in the
+ *  same order share one Shape, so the names are stored once instead of in a HashMap per
+ *  instance.
+ *  e.g.
+ *      class Point { init(x, y) { this.x = x; this.y = y; } }
+ *      every Point goes EMPTY -> {x: 0} -> {x: 0, y: 1}, and they all end up with the same Shape
+ *
+ * How?
+ *  Shapes are immutable. Adding a field moves the instance to the transition Shape for that
+ *  name, which is created the first time any instance takes that step and reused after that.
+ */
+final class Shape {
+    static final Shape EMPTY = new Shape(new HashMap<>());
+
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    // -1 if there's no such field
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    // Forget every Shape but EMPTY (they'd live as long as the JVM). Only once no instance can
+    // use them again: the Server does it between requests, each of which has its own Interpreter.
+    static void clearTransitions() {
+        EMPTY.transitions.clear();
+    }
+
+    // This shape plus name, in the next slot
+    Shape with(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            name = Symbols.intern(name);    // so lookups with names from tokens match on == (see Symbols)
+            Map<String, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -1,9 +1,10 @@
 package com.craftinginterpreters.lox;
 
 import java.util.List;
+import java.util.Map;
 
-abstract class Stmt {
-	interface StmtVisitor<R> {
+public abstract class Stmt {
+	public interface StmtVisitor<R> {
 		R visitExpressionStmt(Stmt.Expression expression);
 		R visitPrintStmt(Stmt.Print print);
 		R visitVarStmt(Stmt.Var var);
@@ -18,9 +19,9 @@ abstract class Stmt {
 		R visitReturnStmt(Stmt.Return returnStmt);
 		R visitClassStmt(Stmt.Class classStmt);
 	}
-	abstract <R> R accept(StmtVisitor<R> visitor);
-	static class Expression extends Stmt {
-		Expression(Expr expression) {
+	public abstract <R> R accept(StmtVisitor<R> visitor);
+	public static class Expression extends Stmt {
+		public Expression(Expr expression) {
 			this.expression = expression;
 		}
 
@@ -29,10 +30,10 @@ abstract class Stmt {
 			return visitor.visitExpressionStmt(this);
 		}
 
-		final Expr expression;
+		public final Expr expression;
 	}
-	static class Print extends Stmt {
-		Print(Expr expression) {
+	public static class Print extends Stmt {
+		public Print(Expr expression) {
 			this.expression = expression;
 		}
 
@@ -41,10 +42,10 @@ abstract class Stmt {
 			return visitor.visitPrintStmt(this);
 		}
 
-		final Expr expression;
+		public final Expr expression;
 	}
-	static class Var extends Stmt {
-		Var(Token name, Expr initializer) {
+	public static class Var extends Stmt {
+		public Var(Token name, Expr initializer) {
 			this.name = name;
 			this.initializer = initializer;
 		}
@@ -54,11 +55,12 @@ abstract class Stmt {
 			return visitor.visitVarStmt(this);
 		}
 
-		final Token name;
-		final Expr initializer;
+		public final Token name;
+		public final Expr initializer;
+		public int slot = -1;
 	}
-	static class If extends Stmt {
-		If(Expr condition, Stmt thenStmt, Stmt elseStmt) {
+	public static class If extends Stmt {
+		public If(Expr condition, Stmt thenStmt, Stmt elseStmt) {
 			this.condition = condition;
 			this.thenStmt = thenStmt;
 			this.elseStmt = elseStmt;
@@ -69,12 +71,12 @@ abstract class Stmt {
 			return visitor.visitIfStmt(this);
 		}
 
-		final Expr condition;
-		final Stmt thenStmt;
-		final Stmt elseStmt;
+		public final Expr condition;
+		public final Stmt thenStmt;
+		public final Stmt elseStmt;
 	}
-	static class While extends Stmt {
-		While(Expr condition, Stmt body) {
+	public static class While extends Stmt {
+		public While(Expr condition, Stmt body) {
 			this.condition = condition;
 			this.body = body;
 		}
@@ -84,11 +86,11 @@ abstract class Stmt {
 			return visitor.visitWhileStmt(this);
 		}
 
-		final Expr condition;
-		final Stmt body;
+		public final Expr condition;
+		public final Stmt body;
 	}
-	static class For extends Stmt {
-		For(Stmt initialization, Expr condition, Stmt update, Stmt body) {
+	public static class For extends Stmt {
+		public For(Stmt initialization, Expr condition, Stmt update, Stmt body) {
 			this.initialization = initialization;
 			this.condition = condition;
 			this.update = update;
@@ -100,13 +102,13 @@ abstract class Stmt {
 			return visitor.visitForStmt(this);
 		}
 
-		final Stmt initialization;
-		final Expr condition;
-		final Stmt update;
-		final Stmt body;
+		public final Stmt initialization;
+		public final Expr condition;
+		public final Stmt update;
+		public final Stmt body;
 	}
-	static class Foreach extends Stmt {
-		Foreach(Expr.Variable iterator, Expr iterable, Stmt body) {
+	public static class Foreach extends Stmt {
+		public Foreach(Expr.Variable iterator, Expr iterable, Stmt body) {
 			this.iterator = iterator;
 			this.iterable = iterable;
 			this.body = body;
@@ -117,12 +119,12 @@ abstract class Stmt {
 			return visitor.visitForeachStmt(this);
 		}
 
-		final Expr.Variable iterator;
-		final Expr iterable;
-		final Stmt body;
+		public final Expr.Variable iterator;
+		public final Expr iterable;
+		public final Stmt body;
 	}
-	static class Block extends Stmt {
-		Block(List<Stmt> statements) {
+	public static class Block extends Stmt {
+		public Block(List<Stmt> statements) {
 			this.statements = statements;
 		}
 
@@ -131,10 +133,11 @@ abstract class Stmt {
 			return visitor.visitBlockStmt(this);
 		}
 
-		final List<Stmt> statements;
+		public final List<Stmt> statements;
+		public int slotCount = 0;
 	}
-	static class Break extends Stmt {
-		Break(Token keyword) {
+	public static class Break extends Stmt {
+		public Break(Token keyword) {
 			this.keyword = keyword;
 		}
 
@@ -143,10 +146,10 @@ abstract class Stmt {
 			return visitor.visitBreakStmt(this);
 		}
 
-		final Token keyword;
+		public final Token keyword;
 	}
-	static class Continue extends Stmt {
-		Continue(Token keyword) {
+	public static class Continue extends Stmt {
+		public Continue(Token keyword) {
 			this.keyword = keyword;
 		}
 
@@ -155,10 +158,10 @@ abstract class Stmt {
 			return visitor.visitContinueStmt(this);
 		}
 
-		final Token keyword;
+		public final Token keyword;
 	}
-	static class FunctionDef extends Stmt {
-		FunctionDef(Token name, List<Token> params, Stmt body, Boolean isStaticMethod, Boolean isGetterMethod) {
+	public static class FunctionDef extends Stmt {
+		public FunctionDef(Token name, List<Token> params, Stmt body, Boolean isStaticMethod, Boolean isGetterMethod) {
 			this.name = name;
 			this.params = params;
 			this.body = body;
@@ -171,14 +174,15 @@ abstract class Stmt {
 			return visitor.visitFunctionDefStmt(this);
 		}
 
-		final Token name;
-		final List<Token> params;
-		final Stmt body;
-		final Boolean isStaticMethod;
-		final Boolean isGetterMethod;
+		public final Token name;
+		public final List<Token> params;
+		public final Stmt body;
+		public final Boolean isStaticMethod;
+		public final Boolean isGetterMethod;
+		public int slot = -1;
 	}
-	static class Return extends Stmt {
-		Return(Token keyword, Expr value) {
+	public static class Return extends Stmt {
+		public Return(Token keyword, Expr value) {
 			this.keyword = keyword;
 			this.value = value;
 		}
@@ -188,11 +192,12 @@ abstract class Stmt {
 			return visitor.visitReturnStmt(this);
 		}
 
-		final Token keyword;
-		final Expr value;
+		public final Token keyword;
+		public final Expr value;
+		public boolean tailCall = false;
 	}
-	static class Class extends Stmt {
-		Class(Token name, List<Expr.Variable> superClasses, List<Stmt.FunctionDef> methods) {
+	public static class Class extends Stmt {
+		public Class(Token name, List<Expr.Variable> superClasses, List<Stmt.FunctionDef> methods) {
 			this.name = name;
 			this.superClasses = superClasses;
 			this.methods = methods;
@@ -203,8 +208,9 @@ abstract class Stmt {
 			return visitor.visitClassStmt(this);
 		}
 
-		final Token name;
-		final List<Expr.Variable> superClasses;
-		final List<Stmt.FunctionDef> methods;
+		public final Token name;
+		public final List<Expr.Variable> superClasses;
+		public final List<Stmt.FunctionDef> methods;
+		public int slot = -1;
 	}
 }
@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What?
+ *  The symbol table: one canonical String per name. The scanner interns every identifier
+ *  straight from its char buffer, so the 10000th 'x' in a script is the same String as the
+ *  first instead of another substring. Environment (globals) and Shape (instance fields)
+ *  intern their keys too, so the names they get looked up with - which come from tokens - are
+ *  the very same objects, and String.equals answers on == without comparing characters.
+ *
+ * How?
+ *  Open addressing with linear probing over a String[], keyed by String.hashCode computed over
+ *  the chars (so intern(chars) and intern(String) agree). Doubles at half full. Never shrinks:
+ *  a program only has so many distinct names. A jlox --server runs one program after another,
+ *  so it clears the table between them (see clear).
+ */
+final class Symbols {
+    private static String[] table = new String[1024];
+    private static int count = 0;
+
+    private Symbols() {}
+
+    // The symbol for chars[start .. start + length)
+    static synchronized String intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = table.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            String symbol = table[slot];
+            if (symbol == null) return add(slot, new String(chars, start, length));
+            if (symbol.hashCode() == hash && matches(symbol, chars, start, length)) return symbol;
+        }
+    }
+
+    // The symbol equal to name (name itself, if it's the first)
+    static synchronized String intern(String name) {
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            String symbol = table[slot];
+            if (symbol == null) return add(slot, name);
+            if (symbol.hashCode() == hash && symbol.equals(name)) return symbol;
+        }
+    }
+
+    // Forget every symbol (they'd live as long as the JVM). The Server does it between requests:
+    // a String interned before and one interned after are still equals(), just not ==.
+    static synchronized void clear() {
+        table = new String[1024];
+        count = 0;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String symbol, char[] chars, int start, int length) {
+        if (symbol.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static String add(int slot, String symbol) {
+        table[slot] = symbol;
+        if (++count * 2 > table.length) grow();
+        return symbol;
+    }
+
+    private static void grow() {
+        String[] old = table;
+        table = new String[old.length * 2];
+        int mask = table.length - 1;
+        for (String symbol : old) {
+            if (symbol == null) continue;
+            int slot = spread(symbol.hashCode()) & mask;
+            while (table[slot] != null) slot = (slot + 1) & mask;
+            table[slot] = symbol;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Completion of return f(...) in tail position: call function with args in place of the returning function
+final class TailCall extends Returned {
+    final LoxFunction function;
+    final LoxInstance receiver;     // non-null: function is an unbound method to invoke on receiver
+    final List<Object> args;
+
+    TailCall(LoxFunction function, LoxInstance receiver, List<Object> args) {
+        super(null);
+        this.function = function;
+        this.receiver = receiver;
+        this.args = args;
+    }
+}
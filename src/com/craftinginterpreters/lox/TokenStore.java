@@ -0,0 +1,86 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * What?
+ *  The parser's window of tokens (see Parser.token): the ones scanned but not yet released.
+ *  Most tokens are only ever looked at for their type - ';', ',', ')', 'var', ... - so they're
+ *  kept as parallel arrays rather than a Token each, and a Token is only made for the ones
+ *  the parser actually asks for (names, operators, ... the ones that end up in the AST).
+ *
+ * How?
+ *  Token number i is at i - base in types / lexemes / literals / lines. A null lexeme means
+ *  the type's fixed spelling (Scanner.spelling), so punctuation and keywords never allocate
+ *  one either. Tokens made on demand are remembered in tokens[], so asking twice gives the
+ *  same Token.
+ */
+final class TokenStore {
+    private static final int MIN_CAPACITY = 64;
+
+    private TokenType[] types = new TokenType[MIN_CAPACITY];
+    private String[] lexemes = new String[MIN_CAPACITY];
+    private Object[] literals = new Object[MIN_CAPACITY];
+    private int[] lines = new int[MIN_CAPACITY];
+    private Token[] tokens = new Token[MIN_CAPACITY];
+    private int base = 0;       // number of the first token kept
+    private int size = 0;
+
+    void add(TokenType type, String lexeme, Object literal, int line) {
+        if (size == types.length) grow();
+        types[size] = type;
+        lexemes[size] = lexeme;
+        literals[size] = literal;
+        lines[size] = line;
+        tokens[size] = null;
+        size++;
+    }
+
+    // One past the number of the last token scanned so far
+    int end() {
+        return base + size;
+    }
+
+    TokenType type(int i) {
+        return types[i - base];
+    }
+
+    Token token(int i) {
+        int j = i - base;
+        if (tokens[j] == null) {
+            String lexeme = lexemes[j] != null ? lexemes[j] : Scanner.spelling(types[j]);
+            tokens[j] = new Token(types[j], lexeme, literals[j], lines[j]);
+        }
+        return tokens[j];
+    }
+
+    // Forget the tokens before number i, once they're at least half of what's kept (so it's amortized O(1))
+    void release(int i) {
+        int dead = i - base;
+        if (dead <= 0 || dead < size / 2) return;
+        int live = size - dead;
+        System.arraycopy(types, dead, types, 0, live);
+        System.arraycopy(lexemes, dead, lexemes, 0, live);
+        System.arraycopy(literals, dead, literals, 0, live);
+        System.arraycopy(lines, dead, lines, 0, live);
+        System.arraycopy(tokens, dead, tokens, 0, live);
+        Arrays.fill(lexemes, live, size, null);     // don't keep them alive
+        Arrays.fill(literals, live, size, null);
+        Arrays.fill(tokens, live, size, null);
+        base = i;
+        size = live;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        lexemes = Arrays.copyOf(lexemes, capacity);
+        literals = Arrays.copyOf(literals, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        tokens = Arrays.copyOf(tokens, capacity);
+    }
+}
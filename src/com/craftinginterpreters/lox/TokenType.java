@@ -4,7 +4,7 @@ package com.craftinginterpreters.lox;
 //     ...
 // } TokenType;
 
-enum TokenType {
+public enum TokenType {
     // Single-character tokens
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACK, RIGHT_BRACK,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, MODULO, QUESTION_MARK, COLON,
@@ -0,0 +1,258 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bare-bones class file writer - just enough of the JVM spec (chapter 4) for the
+ * classes FunctionCompiler generates: a constant pool, static fields, methods with a Code
+ * attribute (+ StackMapTable, see Code) and the BootstrapMethods our invokedynamic
+ * instructions point at. No interfaces, no exception tables.
+ */
+final class ClassWriter {
+    static final int VERSION = 55;              // Java 11
+
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int REF_INVOKE_STATIC = 6;
+
+    // Growable big endian byte buffer
+    static final class Bytes {
+        private byte[] bytes = new byte[64];
+        private int size = 0;
+
+        void u1(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = (byte)value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        void write(byte[] src, int length) {
+            for (int i = 0; i < length; i++) {
+                u1(src[i]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private final String name;
+    private final String superName;
+
+    private final Bytes pool = new Bytes();
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<byte[]> bootstrapMethods = new ArrayList<>();
+    private final Map<String, Integer> bootstrapIndex = new HashMap<>();
+
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    String name() {
+        return name;
+    }
+
+    //=========================
+    // Constant pool
+    //=========================
+
+    int utf8(String value) {
+        Integer index = poolIndex.get("U" + value);
+        if (index != null) return index;
+
+        // Modified UTF-8 and plain UTF-8 agree for everything but NUL & supplementary chars,
+        // neither of which show up in class / member names or descriptors
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        pool.u1(1);
+        pool.u2(bytes.length);
+        pool.write(bytes, bytes.length);
+        return add("U" + value);
+    }
+
+    int integer(int value) {
+        Integer index = poolIndex.get("I" + value);
+        if (index != null) return index;
+
+        pool.u1(3);
+        pool.u4(value);
+        return add("I" + value);
+    }
+
+    int classRef(String internalName) {
+        return entry(7, "C" + internalName, utf8(internalName));
+    }
+
+    int nameAndType(String name, String descriptor) {
+        return entry(12, "N" + name + ":" + descriptor, utf8(name), utf8(descriptor));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return entry(9, "F" + owner + "." + name + ":" + descriptor,
+            classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return entry(10, "M" + owner + "." + name + descriptor,
+            classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int staticHandle(String owner, String name, String descriptor) {
+        String key = "H" + owner + "." + name + descriptor;
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        int method = methodRef(owner, name, descriptor);
+        pool.u1(15);
+        pool.u1(REF_INVOKE_STATIC);
+        pool.u2(method);
+        return add(key);
+    }
+
+    int invokeDynamic(int bootstrap, String name, String descriptor) {
+        return entry(18, "Y" + bootstrap + ":" + name + ":" + descriptor,
+            bootstrap, nameAndType(name, descriptor));
+    }
+
+    // Index into the BootstrapMethods attribute (static arguments are constant pool indices)
+    int bootstrapMethod(int handle, int... args) {
+        String key = handle + Arrays.toString(args);
+        Integer index = bootstrapIndex.get(key);
+        if (index != null) return index;
+
+        Bytes entry = new Bytes();
+        entry.u2(handle);
+        entry.u2(args.length);
+        for (int arg : args) entry.u2(arg);
+        bootstrapMethods.add(entry.toArray());
+        bootstrapIndex.put(key, bootstrapMethods.size() - 1);
+        return bootstrapMethods.size() - 1;
+    }
+
+    //=========================
+    // Members & output
+    //=========================
+
+    void field(int access, String name, String descriptor) {
+        Bytes field = new Bytes();
+        field.u2(access);
+        field.u2(utf8(name));
+        field.u2(utf8(descriptor));
+        field.u2(0);
+        fields.add(field.toArray());
+    }
+
+    void method(int access, String name, String descriptor, byte[] codeAttribute) {
+        Bytes method = new Bytes();
+        method.u2(access);
+        method.u2(utf8(name));
+        method.u2(utf8(descriptor));
+        method.u2(1);
+        method.u2(utf8("Code"));
+        method.u4(codeAttribute.length);
+        method.write(codeAttribute, codeAttribute.length);
+        methods.add(method.toArray());
+    }
+
+    byte[] toByteArray() {
+        // Everything that adds to the pool has to happen before the pool is written out
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int bootstrapAttribute = bootstrapMethods.isEmpty() ? 0 : utf8("BootstrapMethods");
+
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(VERSION);
+        out.u2(poolCount);
+        out.write(pool.toArray(), pool.size());
+        out.u2(ACC_FINAL | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0);      // interfaces
+        out.u2(fields.size());
+        for (byte[] field : fields) {
+            out.write(field, field.length);
+        }
+        out.u2(methods.size());
+        for (byte[] method : methods) {
+            out.write(method, method.length);
+        }
+
+        if (bootstrapMethods.isEmpty()) {
+            out.u2(0);
+        } else {
+            int length = 2;
+            for (byte[] entry : bootstrapMethods) length += entry.length;
+            out.u2(1);
+            out.u2(bootstrapAttribute);
+            out.u4(length);
+            out.u2(bootstrapMethods.size());
+            for (byte[] entry : bootstrapMethods) {
+                out.write(entry, entry.length);
+            }
+        }
+        return out.toArray();
+    }
+
+    //=========================
+    // Helper methods
+    //=========================
+
+    private int entry(int tag, String key, int first, int second) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        pool.u1(tag);
+        pool.u2(first);
+        pool.u2(second);
+        return add(key);
+    }
+
+    private int entry(int tag, String key, int first) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        pool.u1(tag);
+        pool.u2(first);
+        return add(key);
+    }
+
+    private int add(String key) {
+        int index = poolCount++;
+        if (poolCount > 0xffff) {
+            throw new Code.TooLarge("Too many constants.");
+        }
+        poolIndex.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,383 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The body of one method while it's being generated.
+ *
+ * Besides the raw bytes this keeps track of the operand stack's types so it can write
+ * the StackMapTable the verifier wants at every branch target. That stays simple because
+ * of how FunctionCompiler generates code:
+ *  - every local is an Object (or the receiver / the args array), and all of them are
+ *    initialized up front, so every frame has the same locals
+ *  - the only things ever on the stack are Objects, ints, Object[]s, the Interpreter & the closure
+ */
+final class Code {
+    static final String OBJECT = "java/lang/Object";
+    static final String INT = "I";
+    static final String INTERPRETER = "com/craftinginterpreters/lox/Interpreter";
+    static final String ENVIRONMENT = "com/craftinginterpreters/lox/Environment";
+
+    // The handful of opcodes we need
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEDYNAMIC = 0xba;
+    static final int ANEWARRAY = 0xbd;
+
+    static final class Label {
+        private int offset = -1;
+        private List<String> stack = null;                  // stack types on entry, once known
+        private final List<Integer> uses = new ArrayList<>(); // offsets of branch instructions to patch
+    }
+
+    // Thrown when the method doesn't fit the class file format (code too big, jump too far)
+    static final class TooLarge extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final ClassWriter cw;
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+
+    private final List<String> stack = new ArrayList<>();
+    private int maxStack = 0;
+    private boolean reachable = true;
+    private final Map<Integer, List<String>> frames = new TreeMap<>();
+
+    Code(ClassWriter cw) {
+        this.cw = cw;
+    }
+
+    //=========================
+    // Instructions
+    //=========================
+
+    void aconstNull() {
+        op(ACONST_NULL);
+        push(OBJECT);
+    }
+
+    void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH);
+            u2(value);
+        } else {
+            ldc(cw.integer(value), INT);
+            return;
+        }
+        push(INT);
+    }
+
+    void ldc(int index, String type) {
+        if (index <= 0xff) {
+            op(LDC);
+            u1(index);
+        } else {
+            op(LDC_W);
+            u2(index);
+        }
+        push(type);
+    }
+
+    void aload(int local, String type) {
+        op(ALOAD);
+        u1(local);
+        push(type);
+    }
+
+    void astore(int local) {
+        op(ASTORE);
+        u1(local);
+        pop(1);
+    }
+
+    void aaload() {
+        op(AALOAD);
+        pop(2);
+        push(OBJECT);
+    }
+
+    void aastore() {
+        op(AASTORE);
+        pop(3);
+    }
+
+    void pop() {
+        op(POP);
+        pop(1);
+    }
+
+    void dup() {
+        op(DUP);
+        push(stack.get(stack.size() - 1));
+    }
+
+    void getstatic(String owner, String name, String descriptor) {
+        op(GETSTATIC);
+        u2(cw.fieldRef(owner, name, descriptor));
+        push(typeOf(descriptor));
+    }
+
+    void putstatic(String owner, String name, String descriptor) {
+        op(PUTSTATIC);
+        u2(cw.fieldRef(owner, name, descriptor));
+        pop(1);
+    }
+
+    void getfield(String owner, String name, String descriptor) {
+        op(GETFIELD);
+        u2(cw.fieldRef(owner, name, descriptor));
+        pop(1);
+        push(typeOf(descriptor));
+    }
+
+    void invokespecial(String owner, String name, String descriptor) {
+        op(INVOKESPECIAL);
+        u2(cw.methodRef(owner, name, descriptor));
+        pop(argumentCount(descriptor) + 1);
+        pushReturn(descriptor);
+    }
+
+    void invokestatic(String owner, String name, String descriptor) {
+        op(INVOKESTATIC);
+        u2(cw.methodRef(owner, name, descriptor));
+        pop(argumentCount(descriptor));
+        pushReturn(descriptor);
+    }
+
+    void invokedynamic(int index, String descriptor) {
+        op(INVOKEDYNAMIC);
+        u2(index);
+        u2(0);
+        pop(argumentCount(descriptor));
+        pushReturn(descriptor);
+    }
+
+    void anewarray(String elementType) {
+        op(ANEWARRAY);
+        u2(cw.classRef(elementType));
+        pop(1);
+        push("[L" + elementType + ";");
+    }
+
+    void areturn() {
+        op(ARETURN);
+        pop(1);
+        reachable = false;
+    }
+
+    void vreturn() {
+        op(RETURN);
+        reachable = false;
+    }
+
+    void ifeq(Label target) {
+        int at = op(IFEQ);
+        pop(1);
+        branch(at, target);
+    }
+
+    void jump(Label target) {
+        int at = op(GOTO);
+        branch(at, target);
+        reachable = false;
+    }
+
+    //=========================
+    // Labels & frames
+    //=========================
+
+    void place(Label label) {
+        label.offset = length;
+        if (reachable) {
+            if (label.stack == null) label.stack = new ArrayList<>(stack);
+        } else {
+            // Only reachable by jumping here (or not at all, in which case it starts a statement)
+            stack.clear();
+            if (label.stack != null) stack.addAll(label.stack);
+            reachable = true;
+        }
+        for (int use : label.uses) {
+            patch(use, label.offset - use);
+        }
+        frames.put(length, new ArrayList<>(stack));
+    }
+
+    private void branch(int at, Label target) {
+        u2(0);
+        if (target.stack == null) target.stack = new ArrayList<>(stack);
+        if (target.offset != -1) {
+            patch(at, target.offset - at);  // backward jump, already placed
+        } else {
+            target.uses.add(at);
+        }
+    }
+
+    private void patch(int at, int offset) {
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new TooLarge("Jump too far.");
+        }
+        bytes[at + 1] = (byte)(offset >> 8);
+        bytes[at + 2] = (byte)offset;
+    }
+
+    /**
+     * The finished Code attribute. prologue runs first and is straight-line (it sets up the
+     * locals), so it just shifts every frame's offset.
+     */
+    byte[] toAttribute(Code prologue, List<String> locals) {
+        if (prologue.length + length > 0xffff) {
+            throw new TooLarge("Method too large.");
+        }
+        ClassWriter.Bytes out = new ClassWriter.Bytes();
+        out.u2(Math.max(maxStack, prologue.maxStack));
+        out.u2(locals.size());
+        out.u4(prologue.length + length);
+        out.write(prologue.bytes, prologue.length);
+        out.write(bytes, length);
+        out.u2(0);      // no exception handlers
+
+        if (frames.isEmpty()) {
+            out.u2(0);
+            return out.toArray();
+        }
+
+        ClassWriter.Bytes table = new ClassWriter.Bytes();
+        table.u2(frames.size());
+        int previous = -1;
+        for (Map.Entry<Integer, List<String>> frame : frames.entrySet()) {
+            int offset = prologue.length + frame.getKey();
+            table.u1(255);      // full_frame
+            table.u2(offset - previous - 1);
+            previous = offset;
+            table.u2(locals.size());
+            for (String type : locals) verificationType(table, type);
+            table.u2(frame.getValue().size());
+            for (String type : frame.getValue()) verificationType(table, type);
+        }
+        out.u2(1);
+        out.u2(cw.utf8("StackMapTable"));
+        out.u4(table.size());
+        out.write(table.toArray(), table.size());
+        return out.toArray();
+    }
+
+    private void verificationType(ClassWriter.Bytes out, String type) {
+        if (type.equals(INT)) {
+            out.u1(1);
+        } else {
+            out.u1(7);
+            out.u2(cw.classRef(type));
+        }
+    }
+
+    //=========================
+    // Helper methods
+    //=========================
+
+    private int op(int opcode) {
+        if (!reachable) {
+            // Dead code (e.g. after a return). It still has to verify, so give it a frame.
+            frames.put(length, new ArrayList<>(stack));
+            reachable = true;
+        }
+        int at = length;
+        u1(opcode);
+        return at;
+    }
+
+    private void u1(int value) {
+        if (length == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        bytes[length++] = (byte)value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    private void push(String type) {
+        stack.add(type);
+        maxStack = Math.max(maxStack, stack.size());
+    }
+
+    private void pop(int count) {
+        for (int i = 0; i < count; i++) {
+            stack.remove(stack.size() - 1);
+        }
+    }
+
+    private void pushReturn(String descriptor) {
+        String returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+        if (!returnType.equals("V")) push(typeOf(returnType));
+    }
+
+    /**
+     * Field / return descriptor -> the type we track on the stack.
+     * Lox values are all just Objects as far as frames go (a branch of a ternary pushing
+     * Boolean.TRUE and the other an Object still has to meet in one frame), only the
+     * Interpreter & Environment we pass around keep their own type.
+     */
+    private static String typeOf(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'I':
+            case 'Z':
+                return INT;
+            case 'L': {
+                String name = descriptor.substring(1, descriptor.length() - 1);
+                if (name.equals(INTERPRETER) || name.equals(ENVIRONMENT)) return name;
+                return OBJECT;
+            }
+            default:
+                return descriptor;  // arrays keep their descriptor as the internal name
+        }
+    }
+
+    // Only reference, int & boolean parameters show up in the descriptors we generate
+    private static int argumentCount(String descriptor) {
+        int count = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') c = descriptor.charAt(++i);
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            i++;
+            count++;
+        }
+        return count;
+    }
+}
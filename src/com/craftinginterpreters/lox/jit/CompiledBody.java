@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.Environment;
+import com.craftinginterpreters.lox.Interpreter;
+import com.craftinginterpreters.lox.LoxCallable;
+
+/**
+ * What?
+ *  The superclass of every class JitCompiler generates. One generated class per
+ *  Stmt.FunctionDef, one instance per closure (i.e. per JitFunction).
+ *
+ * How?
+ *  The generated class overrides exactly one of the callN methods below - the one
+ *  matching its arity - with the compiled function body. Lox -> Lox calls from compiled
+ *  code (see JitSupport.call1 & co) go straight to that method, skipping the List.
+ */
+abstract class CompiledBody implements LoxCallable {
+    protected final Interpreter interpreter;
+    protected final Environment closure;
+    final int arity;
+
+    CompiledBody(Interpreter interpreter, Environment closure, int arity) {
+        this.interpreter = interpreter;
+        this.closure = closure;
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        switch (args.size()) {
+            case 0: return call0();
+            case 1: return call1(args.get(0));
+            case 2: return call2(args.get(0), args.get(1));
+            case 3: return call3(args.get(0), args.get(1), args.get(2));
+            default: return callN(args.toArray());
+        }
+    }
+
+    Object call0() {
+        throw new IllegalStateException("Arity mismatch.");
+    }
+
+    Object call1(Object a) {
+        throw new IllegalStateException("Arity mismatch.");
+    }
+
+    Object call2(Object a, Object b) {
+        throw new IllegalStateException("Arity mismatch.");
+    }
+
+    Object call3(Object a, Object b, Object c) {
+        throw new IllegalStateException("Arity mismatch.");
+    }
+
+    Object callN(Object[] args) {
+        throw new IllegalStateException("Arity mismatch.");
+    }
+}
@@ -0,0 +1,724 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Token;
+
+/**
+ * What?
+ *  Turns one Stmt.FunctionDef into the bytes of a class extending CompiledBody.
+ *
+ * How?
+ *  The body becomes callN (N = arity) and every local of the function - params, block
+ *  locals, for loop variables - becomes a JVM local. That's only safe when nothing can
+ *  capture the function's scopes, so anything that creates a closure (nested functions,
+ *  lambdas, classes) is left to the tree walker: the compiler throws Unsupported and the
+ *  function keeps running as a plain LoxFunction. Same for this / super / foreach.
+ *
+ *  Variables the function reads from the outside still go through its closure
+ *  (Environment.getAt) or the globals. Operators, property reads & calls are invokedynamic
+ *  sites linked by JitSupport, so HotSpot can inline their fast paths into the body.
+ */
+final class FunctionCompiler implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void> {
+    static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String what) {
+            super(what, null, false, false);
+        }
+    }
+
+    private static final String BODY = "com/craftinginterpreters/lox/jit/CompiledBody";
+    private static final String SUPPORT = "com/craftinginterpreters/lox/jit/JitSupport";
+    private static final String OBJECT_ARRAY = "[Ljava/lang/Object;";
+
+    private static final String O = "Ljava/lang/Object;";
+    private static final String I = "L" + Code.INTERPRETER + ";";
+    private static final String E = "L" + Code.ENVIRONMENT + ";";
+    private static final String CALL_SITE_BOOTSTRAP =
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;I)Ljava/lang/invoke/CallSite;";
+
+    private static final int MAX_LOCALS = 256;   // aload / astore without wide
+    private static final int MAX_CALL_ARGS = 253; // + interpreter + callee = 255 slots
+
+    private final Stmt.FunctionDef funcDef;
+    private final ClassWriter cw;
+    private final Code code;
+    private final int arity;
+
+    private final List<String> locals = new ArrayList<>();          // types, for the frames
+    private final List<List<Integer>> scopes = new ArrayList<>();   // Resolver slot -> JVM local
+    private final Map<Object, String> constants = new IdentityHashMap<>();    // value -> static field
+    private final List<Integer> constantIndices = new ArrayList<>();         // JitSupport registry index per field
+
+    private Code.Label breakLabel = null;
+    private Code.Label continueLabel = null;
+
+    private FunctionCompiler(Stmt.FunctionDef funcDef, String className) {
+        this.funcDef = funcDef;
+        this.cw = new ClassWriter(className, BODY);
+        this.code = new Code(cw);
+        this.arity = funcDef.params.size();
+    }
+
+    static byte[] compile(Stmt.FunctionDef funcDef, String className) {
+        return new FunctionCompiler(funcDef, className).compileClass();
+    }
+
+    private byte[] compileClass() {
+        // CompiledBody(interpreter, closure, arity)
+        Code init = new Code(cw);
+        init.aload(0, cw.name());
+        init.aload(1, Code.INTERPRETER);
+        init.aload(2, Code.ENVIRONMENT);
+        init.iconst(arity);
+        init.invokespecial(BODY, "<init>", "(" + I + E + "I)V");
+        init.vreturn();
+        List<String> initLocals = List.of(cw.name(), Code.INTERPRETER, Code.ENVIRONMENT);
+        cw.method(0, "<init>", "(" + I + E + ")V", init.toAttribute(new Code(cw), initLocals));
+
+        compileBody();
+
+        Code clinit = new Code(cw);
+        for (int i = 0; i < constantIndices.size(); i++) {
+            clinit.iconst(constantIndices.get(i));
+            clinit.invokestatic(SUPPORT, "constantAt", "(I)" + O);
+            clinit.putstatic(cw.name(), "k" + i, O);
+        }
+        clinit.vreturn();
+        cw.method(ClassWriter.ACC_STATIC, "<clinit>", "()V", clinit.toAttribute(new Code(cw), List.of()));
+
+        return cw.toByteArray();
+    }
+
+    private void compileBody() {
+        // Locals: this, then either the params or (for > 3 params) the Object[] they come in
+        boolean spread = arity > 3;
+        locals.add(cw.name());
+        if (spread) locals.add(OBJECT_ARRAY);
+
+        List<Integer> functionScope = new ArrayList<>();
+        for (int i = 0; i < arity; i++) {
+            functionScope.add(newLocal());
+        }
+        scopes.add(functionScope);
+        int firstLocal = locals.size();
+
+        for (Stmt stmt : ((Stmt.Block)funcDef.body).statements) {
+            compile(stmt);
+        }
+        code.aconstNull();
+        code.areturn();
+
+        // Runs before the body: define the params (a nil arg is an uninitialized param, like
+        // in LoxFunction.call) & clear the body's locals, so every local has a value at every frame
+        Code prologue = new Code(cw);
+        for (int i = 0; i < arity; i++) {
+            if (spread) {
+                prologue.aload(1, OBJECT_ARRAY);
+                prologue.iconst(i);
+                prologue.aaload();
+            } else {
+                prologue.aload(functionScope.get(i), Code.OBJECT);
+            }
+            prologue.invokestatic(SUPPORT, "define", "(" + O + ")" + O);
+            prologue.astore(functionScope.get(i));
+        }
+        for (int local = firstLocal; local < locals.size(); local++) {
+            prologue.aconstNull();
+            prologue.astore(local);
+        }
+
+        String name;
+        String descriptor;
+        if (spread) {
+            name = "callN";
+            descriptor = "(" + OBJECT_ARRAY + ")" + O;
+        } else {
+            name = "call" + arity;
+            descriptor = "(" + O.repeat(arity) + ")" + O;
+        }
+        cw.method(0, name, descriptor, code.toAttribute(prologue, locals));
+    }
+
+    //=========================
+    // Statements
+    //=========================
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "print", "(" + O + I + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot == -1) throw new Unsupported("global declaration");
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            code.aconstNull();
+        }
+        define(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Code.Label elseLabel = new Code.Label();
+        compile(stmt.condition);
+        jumpIfFalse(elseLabel);
+        compile(stmt.thenStmt);
+        if (stmt.elseStmt == null) {
+            code.place(elseLabel);
+        } else {
+            Code.Label end = new Code.Label();
+            code.jump(end);
+            code.place(elseLabel);
+            compile(stmt.elseStmt);
+            code.place(end);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Code.Label top = new Code.Label();
+        Code.Label exit = new Code.Label();
+        code.place(top);
+        compile(stmt.condition);
+        jumpIfFalse(exit);
+        compileLoopBody(stmt.body, exit, top);
+        code.jump(top);
+        code.place(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // The initializer's variable lives in the enclosing scope (see the Resolver)
+        if (stmt.initialization != null) compile(stmt.initialization);
+
+        Code.Label top = new Code.Label();
+        Code.Label update = new Code.Label();
+        Code.Label exit = new Code.Label();
+        code.place(top);
+        if (stmt.condition != null) {
+            compile(stmt.condition);
+            jumpIfFalse(exit);
+        }
+        compileLoopBody(stmt.body, exit, update);
+        code.place(update);
+        if (stmt.update != null) compile(stmt.update);
+        code.jump(top);
+        code.place(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitForeachStmt(Stmt.Foreach stmt) {
+        throw new Unsupported("foreach");
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block block) {
+        scopes.add(new ArrayList<>());
+        for (Stmt stmt : block.statements) {
+            compile(stmt);
+        }
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (breakLabel == null) throw new Unsupported("break outside of a loop");
+        code.jump(breakLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (continueLabel == null) throw new Unsupported("continue outside of a loop");
+        code.jump(continueLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDefStmt(Stmt.FunctionDef stmt) {
+        throw new Unsupported("nested function");
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            compileTail(stmt.value);
+            return null;
+        }
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            code.aconstNull();
+        }
+        code.areturn();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("class");
+    }
+
+    //=========================
+    // Expressions
+    //=========================
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            // Logical (these evaluate to a boolean, not to one of the operands)
+            case AND: {
+                Code.Label isFalse = new Code.Label();
+                Code.Label end = new Code.Label();
+                compile(expr.left);
+                jumpIfFalse(isFalse);
+                compile(expr.right);
+                jumpIfFalse(isFalse);
+                code.getstatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+                code.jump(end);
+                code.place(isFalse);
+                code.getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+                code.place(end);
+                return null;
+            }
+            case OR: {
+                Code.Label tryRight = new Code.Label();
+                Code.Label isFalse = new Code.Label();
+                Code.Label end = new Code.Label();
+                compile(expr.left);
+                jumpIfFalse(tryRight);
+                code.getstatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+                code.jump(end);
+                code.place(tryRight);
+                compile(expr.right);
+                jumpIfFalse(isFalse);
+                code.getstatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+                code.jump(end);
+                code.place(isFalse);
+                code.getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+                code.place(end);
+                return null;
+            }
+
+            // Comma
+            case COMMA:
+                compile(expr.left);
+                code.pop();
+                compile(expr.right);
+                return null;
+
+            default:
+                break;
+        }
+
+        loadInterpreter();
+        compile(expr.left);
+        compile(expr.right);
+        invokedynamic("binary", expr.operator, "(" + I + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.aconstNull();
+        } else if (expr.value.equals(Boolean.TRUE)) {
+            code.getstatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+        } else if (expr.value.equals(Boolean.FALSE)) {
+            code.getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+        } else {
+            loadConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        loadInterpreter();
+        compile(expr.right);
+        invokedynamic("unary", expr.operator, "(" + I + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        Code.Label elseLabel = new Code.Label();
+        Code.Label end = new Code.Label();
+        compile(expr.cond);
+        loadConstant(expr.operator);
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "checkTruthy", "(" + O + O + I + ")" + O);
+        jumpIfFalse(elseLabel);
+        compile(expr.trueBranch);
+        code.jump(end);
+        code.place(elseLabel);
+        compile(expr.falseBranch);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        loadVariable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.rhs);
+        storeVariable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        if (expr.idxExpr2 != null) {
+            compile(expr.idxExpr2);
+        } else {
+            code.aconstNull();
+        }
+        loadConstant(expr);
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "index", "(" + O + O + O + O + I + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexPrefixExpr(Expr.IndexPrefix expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        loadConstant(expr);
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "indexPrefix", "(" + O + O + O + I + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexPostfixExpr(Expr.IndexPostfix expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        loadConstant(expr);
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "indexPostfix", "(" + O + O + O + I + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        compile(expr.rhs);
+        loadConstant(expr);
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "indexAssign", "(" + O + O + O + O + I + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitPrefixExpr(Expr.Prefix expr) {
+        loadVariable(expr.name, expr.depth, expr.slot);
+        checkNumber(expr.operator);
+        step(expr.operator);
+        storeVariable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitPostfixExpr(Expr.Postfix expr) {
+        loadVariable(expr.name, expr.depth, expr.slot);
+        checkNumber(expr.operator);
+        code.dup();
+        step(expr.operator);
+        storeVariable(expr.name, expr.depth, expr.slot);
+        code.pop();     // leaves the original value
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.args.size() > MAX_CALL_ARGS) throw new Unsupported("too many arguments");
+
+        loadInterpreter();
+        compile(expr.callee);
+        for (Expr arg : expr.args) {
+            compile(arg);
+        }
+        invokedynamic("call", expr, "(" + I + O + O.repeat(expr.args.size()) + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitAnonymousExpr(Expr.Anonymous expr) {
+        throw new Unsupported("anonymous function");
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        loadInterpreter();
+        compile(expr.object);
+        invokedynamic("get", expr, "(" + I + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        loadConstant(expr);
+        code.invokestatic(SUPPORT, "checkInstance", "(" + O + O + ")" + O);
+        compile(expr.rhs);
+        loadConstant(expr);
+        code.invokestatic(SUPPORT, "setProperty", "(" + O + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        throw new Unsupported("this");
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported("super");
+    }
+
+    @Override
+    public Void visitListExprExpr(Expr.ListExpr expr) {
+        code.iconst(expr.exprs.size());
+        code.anewarray("java/lang/Object");
+        for (int i = 0; i < expr.exprs.size(); i++) {
+            code.dup();
+            code.iconst(i);
+            compile(expr.exprs.get(i));
+            code.aastore();
+        }
+        code.invokestatic(SUPPORT, "list", "(" + OBJECT_ARRAY + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitMapExprExpr(Expr.MapExpr expr) {
+        List<Expr> keysAndValues = new ArrayList<>();
+        for (Map<Expr, Expr> pairs : expr.KeyValuePairs) {
+            for (Map.Entry<Expr, Expr> entry : pairs.entrySet()) {
+                keysAndValues.add(entry.getKey());
+                keysAndValues.add(entry.getValue());
+            }
+        }
+        code.iconst(keysAndValues.size());
+        code.anewarray("java/lang/Object");
+        for (int i = 0; i < keysAndValues.size(); i++) {
+            code.dup();
+            code.iconst(i);
+            compile(keysAndValues.get(i));
+            code.aastore();
+        }
+        code.invokestatic(SUPPORT, "map", "(" + OBJECT_ARRAY + ")" + O);
+        return null;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compileLoopBody(Stmt body, Code.Label breakTarget, Code.Label continueTarget) {
+        Code.Label enclosingBreak = breakLabel;
+        Code.Label enclosingContinue = continueLabel;
+        breakLabel = breakTarget;
+        continueLabel = continueTarget;
+        compile(body);
+        breakLabel = enclosingBreak;
+        continueLabel = enclosingContinue;
+    }
+
+    // Pops the value on top of the stack, jumps if it isn't truthy
+    private void jumpIfFalse(Code.Label target) {
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "truthy", "(" + O + I + ")Z");
+        code.ifeq(target);
+    }
+
+    private void checkNumber(Token operator) {
+        loadConstant(operator);
+        loadInterpreter();
+        code.invokestatic(SUPPORT, "checkNumber", "(" + O + O + I + ")" + O);
+    }
+
+    // ++ / -- on the (already checked) number on top of the stack
+    private void step(Token operator) {
+        switch (operator.type) {
+            case PLUS_PLUS:
+                code.invokestatic(SUPPORT, "increment", "(" + O + ")" + O);
+                break;
+            default:
+                code.invokestatic(SUPPORT, "decrement", "(" + O + ")" + O);
+                break;
+        }
+    }
+
+    private void loadVariable(Token name, int depth, int slot) {
+        int nesting = scopes.size() - 1;
+        if (depth == -1) {
+            loadInterpreter();
+            loadConstant(name);
+            code.invokestatic(SUPPORT, "getGlobal", "(" + I + O + ")" + O);
+        } else if (depth <= nesting) {
+            code.aload(local(nesting - depth, slot), Code.OBJECT);
+            loadConstant(name);
+            code.invokestatic(SUPPORT, "read", "(" + O + O + ")" + O);
+        } else {
+            loadClosure();
+            loadConstant(name);
+            code.iconst(depth - nesting - 1);
+            code.iconst(slot);
+            code.invokestatic(SUPPORT, "getAt", "(" + E + O + "II)" + O);
+        }
+    }
+
+    // Assigns the value on top of the stack, leaving it there
+    private void storeVariable(Token name, int depth, int slot) {
+        int nesting = scopes.size() - 1;
+        if (depth == -1) {
+            loadInterpreter();
+            loadConstant(name);
+            code.invokestatic(SUPPORT, "setGlobal", "(" + O + I + O + ")" + O);
+        } else if (depth <= nesting) {
+            code.dup();
+            code.astore(local(nesting - depth, slot));
+        } else {
+            loadClosure();
+            code.iconst(depth - nesting - 1);
+            code.iconst(slot);
+            code.invokestatic(SUPPORT, "assignAt", "(" + O + E + "II)" + O);
+        }
+    }
+
+    // Pops the value on top of the stack into a new variable in the current scope
+    private void define(int slot) {
+        code.invokestatic(SUPPORT, "define", "(" + O + ")" + O);
+        code.astore(local(scopes.size() - 1, slot));
+    }
+
+    private int local(int scope, int slot) {
+        List<Integer> slots = scopes.get(scope);
+        while (slots.size() <= slot) {
+            slots.add(-1);
+        }
+        if (slots.get(slot) == -1) {
+            slots.set(slot, newLocal());
+        }
+        return slots.get(slot);
+    }
+
+    private int newLocal() {
+        if (locals.size() == MAX_LOCALS) throw new Unsupported("too many locals");
+        locals.add(Code.OBJECT);
+        return locals.size() - 1;
+    }
+
+    private void loadInterpreter() {
+        code.aload(0, cw.name());
+        code.getfield(BODY, "interpreter", I);
+    }
+
+    private void loadClosure() {
+        code.aload(0, cw.name());
+        code.getfield(BODY, "closure", E);
+    }
+
+    /**
+     * Tokens, AST nodes & literal values live in static final fields set by <clinit>.
+     * (Not CONSTANT_Dynamic: C1 / C2 refuse to compile a method - OSR included - while
+     * one of its ldc's is still unresolved, which is the norm for code after a hot loop.)
+     */
+    private void loadConstant(Object value) {
+        String field = constants.get(value);
+        if (field == null) {
+            field = "k" + constants.size();
+            constants.put(value, field);
+            constantIndices.add(JitSupport.register(value));
+            cw.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL, field, O);
+        }
+        code.getstatic(cw.name(), field, O);
+    }
+
+    // return expr, where the Resolver found a call in tail position (see JitSupport.tailCall):
+    // a call, or a ?: with one in a branch, each branch returning on its own
+    private void compileTail(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            compileTail(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary)expr;
+            Code.Label elseLabel = new Code.Label();
+            compile(ternary.cond);
+            loadConstant(ternary.operator);
+            loadInterpreter();
+            code.invokestatic(SUPPORT, "checkTruthy", "(" + O + O + I + ")" + O);
+            jumpIfFalse(elseLabel);
+            compileTail(ternary.trueBranch);
+            code.place(elseLabel);
+            compileTail(ternary.falseBranch);
+        } else if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            if (call.args.size() > MAX_CALL_ARGS) throw new Unsupported("too many arguments");
+
+            loadInterpreter();
+            compile(call.callee);
+            for (Expr arg : call.args) {
+                compile(arg);
+            }
+            invokedynamic("tailCall", call, "(" + I + O + O.repeat(call.args.size()) + ")" + O);
+            code.areturn();
+        } else {
+            compile(expr);
+            code.areturn();
+        }
+    }
+
+    private void invokedynamic(String name, Object node, String descriptor) {
+        int bootstrap = cw.bootstrapMethod(
+            cw.staticHandle(SUPPORT, name, CALL_SITE_BOOTSTRAP),
+            cw.integer(JitSupport.register(node)));
+        code.invokedynamic(cw.invokeDynamic(bootstrap, name, descriptor), descriptor);
+    }
+}
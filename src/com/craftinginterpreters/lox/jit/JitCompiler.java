@@ -0,0 +1,114 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Environment;
+import com.craftinginterpreters.lox.Interpreter;
+import com.craftinginterpreters.lox.LoxFunction;
+import com.craftinginterpreters.lox.Stmt;
+
+/**
+ * What?
+ *  The --engine=jit backend: the tree walker, except that functions get compiled
+ *  to JVM classes (see FunctionCompiler) so HotSpot can JIT them like any other Java code.
+ *
+ * How?
+ *  Interpreter.visitFunctionDefStmt asks us for the LoxFunction to define. We hand back a
+ *  JitFunction, which compiles itself on its first call. The generated class is cached per
+ *  Stmt.FunctionDef, so re-running a function declaration (e.g. in a loop) only costs a
+ *  new instance. Functions FunctionCompiler can't handle are remembered as such and
+ *  simply run as ordinary LoxFunctions.
+ *
+ *  Classes are defined as hidden classes (Lookup.defineHiddenClass) on JDK 15+, which
+ *  the JVM can unload once they're unreachable. We still build for Java 11, so that method
+ *  is looked up reflectively and older JDKs fall back to Lookup.defineClass.
+ */
+public final class JitCompiler {
+    private static final String PACKAGE = "com/craftinginterpreters/lox/jit/";
+    private static final MethodType CONSTRUCTOR =
+        MethodType.methodType(void.class, Interpreter.class, Environment.class);
+
+    private static final MethodHandle DEFINE_HIDDEN_CLASS = findDefineHiddenClass();
+    private static int classCount = 0;
+
+    private final Interpreter interpreter;
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final Map<Stmt.FunctionDef, MethodHandle> constructors = new HashMap<>();  // null: not compilable
+
+    public JitCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // Forget the Tokens / AST nodes every class compiled so far registered with JitSupport (they'd
+    // live as long as the JVM). Only once none of those classes can run again: the Server does it
+    // between requests, each of which has its own Interpreter.
+    public static void releaseConstants() {
+        JitSupport.clearConstants();
+    }
+
+    public LoxFunction function(Stmt.FunctionDef funcDef, Environment closure) {
+        return new JitFunction(this, funcDef, closure);
+    }
+
+    // The compiled body for one closure, or null if funcDef has to stay on the tree walker
+    CompiledBody instantiate(Stmt.FunctionDef funcDef, Environment closure) {
+        MethodHandle constructor;
+        if (constructors.containsKey(funcDef)) {
+            constructor = constructors.get(funcDef);
+        } else {
+            constructor = define(funcDef);
+            constructors.put(funcDef, constructor);
+        }
+        if (constructor == null) return null;
+
+        try {
+            return (CompiledBody)constructor.invoke(interpreter, closure);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Couldn't instantiate compiled function.", e);
+        }
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private MethodHandle define(Stmt.FunctionDef funcDef) {
+        byte[] bytes;
+        try {
+            bytes = FunctionCompiler.compile(funcDef,
+                PACKAGE + "Lox$" + funcDef.name.lexeme + "$" + (classCount++));
+        } catch (FunctionCompiler.Unsupported | Code.TooLarge e) {
+            return null;
+        }
+
+        try {
+            if (DEFINE_HIDDEN_CLASS != null) {
+                // Hidden classes can't be found by name, only through the Lookup we get back
+                MethodHandles.Lookup hidden = (MethodHandles.Lookup)DEFINE_HIDDEN_CLASS.invoke(lookup, bytes);
+                return hidden.findConstructor(hidden.lookupClass(), CONSTRUCTOR);
+            }
+            return lookup.findConstructor(lookup.defineClass(bytes), CONSTRUCTOR);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Generated an invalid class for " + funcDef.name.lexeme + ".", e);
+        }
+    }
+
+    // (Lookup, byte[]) -> Lookup of the new hidden class, or null before JDK 15
+    private static MethodHandle findDefineHiddenClass() {
+        try {
+            Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Object noOptions = Array.newInstance(optionClass, 0);
+            MethodHandle define = MethodHandles.publicLookup().findVirtual(MethodHandles.Lookup.class,
+                "defineHiddenClass",
+                MethodType.methodType(MethodHandles.Lookup.class, byte[].class, boolean.class, noOptions.getClass()));
+            return MethodHandles.insertArguments(define, 2, true, noOptions);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.Environment;
+import com.craftinginterpreters.lox.Interpreter;
+import com.craftinginterpreters.lox.LoxFunction;
+import com.craftinginterpreters.lox.Stmt;
+
+/**
+ * A LoxFunction that tries to turn itself into a JVM class the first time it's called.
+ * If JitCompiler can't handle the body (yet), body stays null and every call takes the
+ * ordinary tree-walking path in LoxFunction.execute. Extending LoxFunction keeps printing,
+ * equality & the truthiness checks exactly the same either way.
+ */
+public final class JitFunction extends LoxFunction {
+    private final JitCompiler compiler;
+    private boolean tried = false;
+    CompiledBody body = null;       // read directly by the call sites in JitSupport
+
+    JitFunction(JitCompiler compiler, Stmt.FunctionDef funcDef, Environment closure) {
+        super(funcDef, closure, false, false, false);
+        this.compiler = compiler;
+    }
+
+    // Called by LoxFunction.call's trampoline, so a tail call from the compiled body (a TailCall,
+    // see JitSupport.tailCall) runs there, in place of this one
+    @Override
+    protected Object execute(Interpreter interpreter, Environment closure, List<Object> args) {
+        if (!tried) {
+            tried = true;
+            body = compiler.instantiate(funcDef, this.closure);
+        }
+        if (body != null) return completion(body.call(interpreter, args));
+        return super.execute(interpreter, closure, args);
+    }
+}
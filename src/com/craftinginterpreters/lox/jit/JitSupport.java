@@ -0,0 +1,395 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.craftinginterpreters.lox.Environment;
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Interpreter;
+import com.craftinginterpreters.lox.LoxInstance;
+import com.craftinginterpreters.lox.LoxList;
+import com.craftinginterpreters.lox.LoxMap;
+import com.craftinginterpreters.lox.LoxNumber;
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Token;
+import com.craftinginterpreters.lox.TokenType;
+
+/**
+ * Everything the generated classes call into:
+ *  - bootstrap methods for their invokedynamic instructions
+ *  - the targets those call sites get linked to (operators, property reads, calls)
+ *  - plain static helpers for the rest
+ *
+ * Generated code can't hold on to Tokens / AST nodes directly, so the compiler registers
+ * them here and the class file only carries their index. Each one is looked up once: by
+ * the class initializer for constants, when the call site is linked for the rest.
+ */
+final class JitSupport {
+    private JitSupport() {}
+
+    private static final List<Object> constants = new ArrayList<>();
+
+    // Local holding a variable that was declared without a value (see Environment.UNINITIALIZED)
+    private static final Object UNINITIALIZED = new Object();
+
+    static synchronized int register(Object constant) {
+        constants.add(constant);
+        return constants.size() - 1;
+    }
+
+    // Called from the generated <clinit> to fill in the class's constant fields
+    static synchronized Object constantAt(int index) {
+        return constants.get(index);
+    }
+
+    // See JitCompiler.releaseConstants
+    static synchronized void clearConstants() {
+        constants.clear();
+    }
+
+    //=========================
+    // Bootstrap methods
+    //=========================
+
+    // (Interpreter, Object, Object)Object - the fast paths mirror the VM's ADD, SUBTRACT, ...
+    static CallSite binary(MethodHandles.Lookup lookup, String name, MethodType type, int index)
+            throws ReflectiveOperationException {
+        Token operator = (Token)constantAt(index);
+        String target;
+        switch (operator.type) {
+            case PLUS:          target = "add"; break;
+            case MINUS:         target = "subtract"; break;
+            case STAR:          target = "multiply"; break;
+            case SLASH:         target = "divide"; break;
+            case MODULO:        target = "modulo"; break;
+            case GREATER:       target = "greater"; break;
+            case GREATER_EQUAL: target = "greaterEqual"; break;
+            case LESS:          target = "less"; break;
+            case LESS_EQUAL:    target = "lessEqual"; break;
+            default:            target = "binaryOp"; break;
+        }
+        MethodHandle handle = MethodHandles.lookup().findStatic(JitSupport.class, target,
+            MethodType.methodType(Object.class, Token.class, Interpreter.class, Object.class, Object.class));
+        return new ConstantCallSite(MethodHandles.insertArguments(handle, 0, operator));
+    }
+
+    // (Interpreter, Object)Object
+    static CallSite unary(MethodHandles.Lookup lookup, String name, MethodType type, int index)
+            throws ReflectiveOperationException {
+        Token operator = (Token)constantAt(index);
+        String target = operator.type == TokenType.MINUS ? "negate" : "unaryOp";
+        MethodHandle handle = MethodHandles.lookup().findStatic(JitSupport.class, target,
+            MethodType.methodType(Object.class, Token.class, Interpreter.class, Object.class));
+        return new ConstantCallSite(MethodHandles.insertArguments(handle, 0, operator));
+    }
+
+    // (Interpreter, Object)Object
+    static CallSite get(MethodHandles.Lookup lookup, String name, MethodType type, int index)
+            throws ReflectiveOperationException {
+        MethodHandle handle = MethodHandles.lookup().findStatic(JitSupport.class, "getProperty",
+            MethodType.methodType(Object.class, Expr.Get.class, Interpreter.class, Object.class));
+        return new ConstantCallSite(MethodHandles.insertArguments(handle, 0, constantAt(index)));
+    }
+
+    // (Interpreter, Object callee, Object...)Object - up to 3 args get a call site that skips the List
+    static CallSite call(MethodHandles.Lookup lookup, String name, MethodType type, int index)
+            throws ReflectiveOperationException {
+        int argc = type.parameterCount() - 2;
+        MethodHandle handle;
+        if (argc <= 3) {
+            handle = MethodHandles.lookup().findStatic(JitSupport.class, "call" + argc,
+                type.insertParameterTypes(0, Expr.Call.class));
+        } else {
+            handle = MethodHandles.lookup().findStatic(JitSupport.class, "callN",
+                MethodType.methodType(Object.class, Expr.Call.class, Interpreter.class, Object.class, Object[].class))
+                .asCollector(Object[].class, argc);
+        }
+        return new ConstantCallSite(MethodHandles.insertArguments(handle, 0, constantAt(index)));
+    }
+
+    // (Interpreter, Object callee, Object...)Object - return f(...) in tail position, see tailCall
+    static CallSite tailCall(MethodHandles.Lookup lookup, String name, MethodType type, int index)
+            throws ReflectiveOperationException {
+        MethodHandle handle = MethodHandles.lookup().findStatic(JitSupport.class, "tailCall",
+            MethodType.methodType(Object.class, Expr.Call.class, Interpreter.class, Object.class, Object[].class))
+            .asCollector(Object[].class, type.parameterCount() - 2);
+        return new ConstantCallSite(MethodHandles.insertArguments(handle, 0, constantAt(index)));
+    }
+
+    //=========================
+    // Call site targets
+    //=========================
+
+    private static Object add(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+        if (left instanceof Long && right instanceof Long) return LoxNumber.add((long)left, (long)right);
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object subtract(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left - (double)right;
+        if (left instanceof Long && right instanceof Long) return LoxNumber.subtract((long)left, (long)right);
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object multiply(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left * (double)right;
+        if (left instanceof Long && right instanceof Long) return LoxNumber.multiply((long)left, (long)right);
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    // Division by zero is the slow path's business (it raises the error)
+    private static Object divide(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double && (double)right != 0) {
+            return (double)left / (double)right;
+        }
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object modulo(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double && (double)right != 0) {
+            return (double)left % (double)right;
+        }
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object greater(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left > (double)right;
+        if (left instanceof Long && right instanceof Long) return (long)left > (long)right;
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object greaterEqual(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+        if (left instanceof Long && right instanceof Long) return (long)left >= (long)right;
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object less(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left < (double)right;
+        if (left instanceof Long && right instanceof Long) return (long)left < (long)right;
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object lessEqual(Token operator, Interpreter interpreter, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+        if (left instanceof Long && right instanceof Long) return (long)left <= (long)right;
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object binaryOp(Token operator, Interpreter interpreter, Object left, Object right) {
+        return interpreter.binaryOp(operator, left, right);
+    }
+
+    private static Object negate(Token operator, Interpreter interpreter, Object right) {
+        if (right instanceof Double) return -(double)right;
+        return interpreter.unaryOp(operator, right);
+    }
+
+    private static Object unaryOp(Token operator, Interpreter interpreter, Object right) {
+        return interpreter.unaryOp(operator, right);
+    }
+
+    private static Object getProperty(Expr.Get expr, Interpreter interpreter, Object object) {
+        return interpreter.getProperty(expr, object);
+    }
+
+    // Compiled -> compiled calls go straight to the body (counting against maxDepth like
+    // Interpreter.call would), anything else through Interpreter.call
+    private static Object call0(Expr.Call call, Interpreter interpreter, Object callee) {
+        if (callee instanceof JitFunction) {
+            CompiledBody body = ((JitFunction)callee).body;
+            if (body != null && body.arity == 0) {
+                interpreter.enterCall(call.paren);
+                try {
+                    return interpreter.complete(body.call0());
+                } finally {
+                    interpreter.exitCall();
+                }
+            }
+        }
+        return interpreter.call(call, callee, new ArrayList<>());
+    }
+
+    private static Object call1(Expr.Call call, Interpreter interpreter, Object callee, Object a) {
+        if (callee instanceof JitFunction) {
+            CompiledBody body = ((JitFunction)callee).body;
+            if (body != null && body.arity == 1) {
+                interpreter.enterCall(call.paren);
+                try {
+                    return interpreter.complete(body.call1(a));
+                } finally {
+                    interpreter.exitCall();
+                }
+            }
+        }
+        return interpreter.call(call, callee, new ArrayList<>(Arrays.asList(a)));
+    }
+
+    private static Object call2(Expr.Call call, Interpreter interpreter, Object callee, Object a, Object b) {
+        if (callee instanceof JitFunction) {
+            CompiledBody body = ((JitFunction)callee).body;
+            if (body != null && body.arity == 2) {
+                interpreter.enterCall(call.paren);
+                try {
+                    return interpreter.complete(body.call2(a, b));
+                } finally {
+                    interpreter.exitCall();
+                }
+            }
+        }
+        return interpreter.call(call, callee, new ArrayList<>(Arrays.asList(a, b)));
+    }
+
+    private static Object call3(Expr.Call call, Interpreter interpreter, Object callee, Object a, Object b, Object c) {
+        if (callee instanceof JitFunction) {
+            CompiledBody body = ((JitFunction)callee).body;
+            if (body != null && body.arity == 3) {
+                interpreter.enterCall(call.paren);
+                try {
+                    return interpreter.complete(body.call3(a, b, c));
+                } finally {
+                    interpreter.exitCall();
+                }
+            }
+        }
+        return interpreter.call(call, callee, new ArrayList<>(Arrays.asList(a, b, c)));
+    }
+
+    private static Object callN(Expr.Call call, Interpreter interpreter, Object callee, Object[] args) {
+        if (callee instanceof JitFunction) {
+            CompiledBody body = ((JitFunction)callee).body;
+            if (body != null && body.arity == args.length) {
+                interpreter.enterCall(call.paren);
+                try {
+                    return interpreter.complete(body.callN(args));
+                } finally {
+                    interpreter.exitCall();
+                }
+            }
+        }
+        return interpreter.call(call, callee, new ArrayList<>(Arrays.asList(args)));
+    }
+
+    /**
+     * return f(...) in tail position: rather than calling f, the body returns the TailCall
+     * (see Interpreter.tailCallTo) and whoever called the body runs f in its place - the
+     * trampoline in LoxFunction.call, or Interpreter.complete on the fast paths above. So
+     * tail recursion runs in constant Java stack, the same as it does in the tree walker.
+     */
+    private static Object tailCall(Expr.Call call, Interpreter interpreter, Object callee, Object[] args) {
+        return interpreter.tailCallTo(call, callee, new ArrayList<>(Arrays.asList(args)));
+    }
+
+    //=========================
+    // Helpers (invokestatic)
+    //=========================
+
+    static boolean truthy(Object value, Interpreter interpreter) {
+        if (value instanceof Boolean) return (Boolean)value;
+        return interpreter.getTruthiness(value);
+    }
+
+    static Object checkTruthy(Object value, Object operator, Interpreter interpreter) {
+        interpreter.checkTruthyOperand((Token)operator, value);
+        return value;
+    }
+
+    static Object checkNumber(Object value, Object operator, Interpreter interpreter) {
+        interpreter.checkNumberOperand((Token)operator, value);
+        return value;
+    }
+
+    static Object increment(Object value) {
+        if (value instanceof Long) return LoxNumber.add((long)value, 1);
+        return (Double)value + 1;
+    }
+
+    static Object decrement(Object value) {
+        if (value instanceof Long) return LoxNumber.subtract((long)value, 1);
+        return (Double)value - 1;
+    }
+
+    // What a local holds after 'var a;' (or 'var a = nil;'), same as Environment.define
+    static Object define(Object value) {
+        return value != null ? value : UNINITIALIZED;
+    }
+
+    static Object read(Object value, Object name) {
+        if (value == UNINITIALIZED) {
+            Token token = (Token)name;
+            throw new RuntimeError(token, "Uninitialized variable: " + token.lexeme + ".");
+        }
+        return value;
+    }
+
+    static Object getGlobal(Interpreter interpreter, Object name) {
+        return interpreter.globals.get((Token)name);
+    }
+
+    static Object setGlobal(Object value, Interpreter interpreter, Object name) {
+        interpreter.globals.update((Token)name, value);
+        return value;
+    }
+
+    static Object getAt(Environment closure, Object name, int hops, int slot) {
+        return closure.getAt((Token)name, hops, slot);
+    }
+
+    static Object assignAt(Object value, Environment closure, int hops, int slot) {
+        closure.assignAt(hops, slot, value);
+        return value;
+    }
+
+    static void print(Object value, Interpreter interpreter) {
+        System.out.println(interpreter.stringify(value));
+    }
+
+    static Object checkInstance(Object object, Object setExpr) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(((Expr.Set)setExpr).name,
+                "Properties can only be set for instances.");
+        }
+        return object;
+    }
+
+    static Object setProperty(Object object, Object value, Object setExpr) {
+        ((LoxInstance)object).set((Expr.Set)setExpr, value);
+        return value;
+    }
+
+    static Object index(Object object, Object idx, Object idx2, Object expr, Interpreter interpreter) {
+        return interpreter.index((Expr.Index)expr, object, idx, idx2);
+    }
+
+    static Object indexPrefix(Object object, Object idx, Object expr, Interpreter interpreter) {
+        return interpreter.indexPrefix((Expr.IndexPrefix)expr, object, idx);
+    }
+
+    static Object indexPostfix(Object object, Object idx, Object expr, Interpreter interpreter) {
+        return interpreter.indexPostfix((Expr.IndexPostfix)expr, object, idx);
+    }
+
+    static Object indexAssign(Object object, Object idx, Object value, Object expr, Interpreter interpreter) {
+        return interpreter.indexAssign((Expr.IndexAssign)expr, object, idx, value);
+    }
+
+    static Object list(Object[] elements) {
+        return new LoxList(new ArrayList<>(Arrays.asList(elements)));
+    }
+
+    // keysAndValues alternates key, value, key, value, ...
+    static Object map(Object[] keysAndValues) {
+        LoxMap map = new LoxMap();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+}
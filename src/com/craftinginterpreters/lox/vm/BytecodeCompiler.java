@@ -0,0 +1,693 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Token;
+import com.craftinginterpreters.lox.TokenType;
+
+/**
+ * What?
+ *  Turns the resolved AST into bytecode for the VM (one FunctionProto per function).
+ *
+ * How?
+ *  - Operands live on the VM's value stack.
+ *  - Locals still live in Environments, addressed by the (depth, slot) the Resolver
+ *    wrote onto the AST. Every scope the Resolver opened is a PUSH_SCOPE / POP_SCOPE
+ *    pair here, so the hop counts line up and closures just capture the Environment.
+ *  - break / continue become jumps. Jumping out of a block has to pop the scopes
+ *    that the jump skips, so we track how many scopes are open in the current function.
+ *  - Anything that can raise a runtime error carries a Token (or the AST node) as a
+ *    constant so the error points at the same line the tree walker would report.
+ */
+final class BytecodeCompiler implements Expr.ExprVisitor<Void>, Stmt.StmtVisitor<Void> {
+    // Per-function state (saved / restored around nested functions)
+    private Chunk chunk;
+    private int scopeDepth = 0;     // PUSH_SCOPEs currently open in this function
+    private Loop loop = null;       // innermost enclosing loop in this function
+    private boolean inFunction = false;
+    private Token at = null;        // the last Token made a constant: where a Chunk that's full gets blamed
+
+    private static final class Loop {
+        final Loop enclosing;
+        final int scopeDepth;
+        final int continueTarget;   // -1 when continue jumps forward (for's update step)
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int scopeDepth, int continueTarget) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+            this.continueTarget = continueTarget;
+        }
+    }
+
+    /**
+     * The script, as one FunctionProto per run of statements that fits in a Chunk (u16
+     * operands: 65536 constants). Top level statements only share globals, so the VM can run
+     * them a chunk after another: a statement that doesn't fit any more starts the next one.
+     */
+    List<FunctionProto> compileScript(List<Stmt> statements) {
+        List<FunctionProto> script = new ArrayList<>();
+        chunk = new Chunk();
+        for (int i = 0; i < statements.size(); i++) {
+            int size = chunk.size();
+            int constantCount = chunk.constantCount();
+            try {
+                compile(statements.get(i));
+            } catch (Chunk.Full full) {
+                scopeDepth = 0;     // wherever in the statement it was
+                loop = null;
+                inFunction = false;
+                if (size == 0) throw error(full);   // doesn't fit even in a chunk of its own
+                chunk.truncate(size, constantCount);
+                emit(OpCode.NIL);
+                emit(OpCode.RETURN);
+                script.add(new FunctionProto(null, 0, chunk));
+                chunk = new Chunk();
+                i--;
+            }
+        }
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+        script.add(new FunctionProto(null, 0, chunk));
+        return script;
+    }
+
+    // For the REPL: a script that evaluates expr and returns its value
+    FunctionProto compileExpression(Expr expr) {
+        chunk = new Chunk();
+        try {
+            compile(expr);
+        } catch (Chunk.Full full) {
+            throw error(full);
+        }
+        emit(OpCode.RETURN);
+        return new FunctionProto(null, 0, chunk);
+    }
+
+    //=========================
+    // Statements
+    //=========================
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);   // define() treats nil as uninitialized
+        }
+        defineVariable(stmt.name, stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        compile(stmt.thenStmt);
+
+        if (stmt.elseStmt == null) {
+            patchJump(elseJump);
+            return null;
+        }
+
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        compile(stmt.elseStmt);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.size();
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+        beginLoop(loopStart);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        endLoop();
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // No scope of its own - 'for (var i ...)' declares i in the enclosing scope
+        if (stmt.initialization != null) {
+            compile(stmt.initialization);
+        }
+
+        int loopStart = chunk.size();
+        int exitJump = -1;
+        if (stmt.condition != null) {
+            compile(stmt.condition);
+            exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        }
+
+        beginLoop(-1);
+        compile(stmt.body);
+
+        // continue lands on the update step
+        for (int jump : loop.continueJumps) {
+            patchJump(jump);
+        }
+        if (stmt.update != null) {
+            compile(stmt.update);
+        }
+        emitLoop(loopStart);
+
+        if (exitJump != -1) patchJump(exitJump);
+        endLoop();
+        return null;
+    }
+
+    @Override
+    public Void visitForeachStmt(Stmt.Foreach stmt) {
+        Token name = stmt.iterator.name;
+
+        compile(stmt.iterable);
+        emit(OpCode.FOREACH_INIT, constant(name));  // stack: [iterable, index]
+        emit(OpCode.NIL);
+        defineVariable(name, stmt.iterator.slot);
+
+        int loopStart = chunk.size();
+        int exitJump = emitJump(OpCode.FOREACH_NEXT);
+        assignDeclared(name, stmt.iterator.slot);
+
+        beginLoop(loopStart);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        endLoop();  // break lands here, with [iterable, index] still on the stack
+        emit(OpCode.POP);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        emit(OpCode.PUSH_SCOPE, stmt.slotCount);
+        scopeDepth++;
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        scopeDepth--;
+        emit(OpCode.POP_SCOPE);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (loop == null) {
+            // Only reachable when a function body breaks out of the caller's loop
+            fail(new Token(TokenType.BREAK, "break", null, 0), "break statement outside of loop.");
+            return null;
+        }
+        popScopesTo(loop.scopeDepth);
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (loop == null) {
+            fail(new Token(TokenType.CONTINUE, "continue", null, 0), "continue statement outside of loop.");
+            return null;
+        }
+        popScopesTo(loop.scopeDepth);
+        if (loop.continueTarget != -1) {
+            emitLoop(loop.continueTarget);
+        } else {
+            loop.continueJumps.add(emitJump(OpCode.JUMP));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDefStmt(Stmt.FunctionDef funcDef) {
+        emit(OpCode.CLOSURE, constant(compileFunction(funcDef)));
+        defineVariable(funcDef.name, funcDef.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (!inFunction) {
+            fail(new Token(TokenType.RETURN, "return", null, 0), "return statement outside of function.");
+            return null;
+        }
+        if (stmt.tailCall) {
+            compileTail(stmt.value);
+            return null;
+        }
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);     // the whole call Environment goes away, no scopes to pop
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        for (Expr.Variable superClass : stmt.superClasses) {
+            compile(superClass);
+        }
+        FunctionProto[] methods = new FunctionProto[stmt.methods.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = compileFunction(stmt.methods.get(i));
+        }
+        emit(OpCode.CLASS, constant(new ClassProto(stmt, methods)));
+        return null;
+    }
+
+    //=========================
+    // Expressions
+    //=========================
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            // Logical (these evaluate to a boolean, not to one of the operands)
+            case AND: {
+                compile(expr.left);
+                int falseJump = emitJump(OpCode.JUMP_IF_FALSE);
+                compile(expr.right);
+                emit(OpCode.TRUTHY);
+                int endJump = emitJump(OpCode.JUMP);
+                patchJump(falseJump);
+                emit(OpCode.FALSE);
+                patchJump(endJump);
+                return null;
+            }
+            case OR: {
+                compile(expr.left);
+                int rightJump = emitJump(OpCode.JUMP_IF_FALSE);
+                emit(OpCode.TRUE);
+                int endJump = emitJump(OpCode.JUMP);
+                patchJump(rightJump);
+                compile(expr.right);
+                emit(OpCode.TRUTHY);
+                patchJump(endJump);
+                return null;
+            }
+
+            // Comma
+            case COMMA:
+                compile(expr.left);
+                emit(OpCode.POP);
+                compile(expr.right);
+                return null;
+
+            default:
+                break;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+        int operator = constant(expr.operator);
+        switch (expr.operator.type) {
+            case PLUS:          emit(OpCode.ADD, operator); break;
+            case MINUS:         emit(OpCode.SUBTRACT, operator); break;
+            case STAR:          emit(OpCode.MULTIPLY, operator); break;
+            case SLASH:         emit(OpCode.DIVIDE, operator); break;
+            case MODULO:        emit(OpCode.MODULO, operator); break;
+            case GREATER:       emit(OpCode.GREATER, operator); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, operator); break;
+            case LESS:          emit(OpCode.LESS, operator); break;
+            case LESS_EQUAL:    emit(OpCode.LESS_EQUAL, operator); break;
+            default:            emit(OpCode.BINARY, operator); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(Boolean.TRUE)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(Boolean.FALSE)) {
+            emit(OpCode.FALSE);
+        } else {
+            emit(OpCode.CONSTANT, constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        emit(expr.operator.type == TokenType.MINUS ? OpCode.NEGATE : OpCode.UNARY, constant(expr.operator));
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.cond);
+        emit(OpCode.CHECK_TRUTHY, constant(expr.operator));
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        compile(expr.trueBranch);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        compile(expr.falseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        getVariable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.rhs);
+        setVariable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        if (expr.idxExpr2 != null) {
+            compile(expr.idxExpr2);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.INDEX, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitIndexPrefixExpr(Expr.IndexPrefix expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        emit(OpCode.INDEX_PREFIX, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitIndexPostfixExpr(Expr.IndexPostfix expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        emit(OpCode.INDEX_POSTFIX, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        compile(expr.object);
+        compile(expr.idxExpr);
+        compile(expr.rhs);
+        emit(OpCode.INDEX_ASSIGN, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitPrefixExpr(Expr.Prefix expr) {
+        int operator = constant(expr.operator);
+        getVariable(expr.name, expr.depth, expr.slot);
+        emit(OpCode.CHECK_NUMBER, operator);
+        emit(OpCode.CONSTANT, constant(expr.operator.type == TokenType.PLUS_PLUS ? 1L : -1L));
+        emit(OpCode.ADD, constant(plus(expr.operator)));
+        setVariable(expr.name, expr.depth, expr.slot);  // leaves the new value
+        return null;
+    }
+
+    @Override
+    public Void visitPostfixExpr(Expr.Postfix expr) {
+        int operator = constant(expr.operator);
+        getVariable(expr.name, expr.depth, expr.slot);
+        emit(OpCode.CHECK_NUMBER, operator);
+        emit(OpCode.DUP);       // the original value is the result
+        emit(OpCode.CONSTANT, constant(expr.operator.type == TokenType.PLUS_PLUS ? 1L : -1L));
+        emit(OpCode.ADD, constant(plus(expr.operator)));
+        setVariable(expr.name, expr.depth, expr.slot);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr arg : expr.args) {
+            compile(arg);
+        }
+        emit(OpCode.CALL, expr.args.size(), constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitAnonymousExpr(Expr.Anonymous expr) {
+        Stmt.FunctionDef funcDef = new Stmt.FunctionDef(new Token(TokenType.IDENTIFIER, "anon", null, 0), expr.params, expr.body, false, false);
+        emit(OpCode.CLOSURE, constant(compileFunction(funcDef)));
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emit(OpCode.GET_PROPERTY, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        int node = constant(expr);
+        compile(expr.object);
+        emit(OpCode.CHECK_INSTANCE, node);     // must fail before the rhs is evaluated
+        compile(expr.rhs);
+        emit(OpCode.SET_PROPERTY, node);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        getVariable(expr.keyword, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        emit(OpCode.SUPER, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitListExprExpr(Expr.ListExpr expr) {
+        for (Expr element : expr.exprs) {
+            compile(element);
+        }
+        emit(OpCode.LIST, expr.exprs.size());
+        return null;
+    }
+
+    @Override
+    public Void visitMapExprExpr(Expr.MapExpr expr) {
+        int count = 0;
+        for (Map<Expr, Expr> map : expr.KeyValuePairs) {
+            for (Map.Entry<Expr, Expr> entry : map.entrySet()) {
+                compile(entry.getKey());
+                compile(entry.getValue());
+                count++;
+            }
+        }
+        emit(OpCode.MAP, count);
+        return null;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    private FunctionProto compileFunction(Stmt.FunctionDef funcDef) {
+        Chunk enclosingChunk = chunk;
+        int enclosingScopeDepth = scopeDepth;
+        Loop enclosingLoop = loop;
+        boolean enclosingInFunction = inFunction;
+
+        chunk = new Chunk();
+        scopeDepth = 0;
+        loop = null;
+        inFunction = true;
+
+        // The body's statements run directly in the call's Environment (params live there too)
+        Stmt.Block body = (Stmt.Block)funcDef.body;
+        for (Stmt statement : body.statements) {
+            compile(statement);
+        }
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+        FunctionProto proto = new FunctionProto(funcDef, Math.max(funcDef.params.size(), body.slotCount), chunk);
+
+        chunk = enclosingChunk;
+        scopeDepth = enclosingScopeDepth;
+        loop = enclosingLoop;
+        inFunction = enclosingInFunction;
+        return proto;
+    }
+
+    // depth / slot come from the Resolver, a depth of -1 means global
+    private void getVariable(Token name, int depth, int slot) {
+        if (depth == -1) {
+            emit(OpCode.GET_GLOBAL, constant(name));
+        } else {
+            emit(OpCode.GET_LOCAL, depth, slot, constant(name));
+        }
+    }
+
+    private void setVariable(Token name, int depth, int slot) {
+        if (depth == -1) {
+            emit(OpCode.SET_GLOBAL, constant(name));
+        } else {
+            emit(OpCode.SET_LOCAL, depth, slot);
+        }
+    }
+
+    // Declare the value on top of the stack in the current scope
+    private void defineVariable(Token name, int slot) {
+        if (slot == -1) {
+            emit(OpCode.DEFINE_GLOBAL, constant(name));
+        } else {
+            emit(OpCode.DEFINE_LOCAL, slot);
+        }
+    }
+
+    // Give an already-declared variable of the current scope the value on top of the stack
+    private void assignDeclared(Token name, int slot) {
+        if (slot == -1) {
+            emit(OpCode.SET_GLOBAL, constant(name));
+            emit(OpCode.POP);
+        } else {
+            emit(OpCode.ASSIGN_LOCAL, slot);
+        }
+    }
+
+    private void beginLoop(int continueTarget) {
+        loop = new Loop(loop, scopeDepth, continueTarget);
+    }
+
+    // Patches every break in the loop to land on the current instruction
+    private void endLoop() {
+        for (int jump : loop.breakJumps) {
+            patchJump(jump);
+        }
+        loop = loop.enclosing;
+    }
+
+    private void popScopesTo(int depth) {
+        for (int i = scopeDepth; i > depth; i--) {
+            emit(OpCode.POP_SCOPE);
+        }
+    }
+
+    private void fail(Token token, String message) {
+        emit(OpCode.FAIL, constant(token), constant(message));
+    }
+
+    private int constant(Object value) {
+        if (value instanceof Token) at = (Token)value;
+        return chunk.addConstant(value);
+    }
+
+    private RuntimeError error(Chunk.Full full) {
+        return new RuntimeError(at != null ? at : new Token(TokenType.EOF, "", null, 0), full.getMessage());
+    }
+
+    // ++ / -- compile to an ADD of +-1, which binaryOp needs to see as a +
+    private static Token plus(Token operator) {
+        return new Token(TokenType.PLUS, operator.lexeme, null, operator.line);
+    }
+
+    private void emit(byte op, int... operands) {
+        chunk.write(op);
+        for (int operand : operands) {
+            chunk.writeShort(operand);
+        }
+    }
+
+    // Returns where the (yet unknown) jump offset lives so it can be patched later
+    private int emitJump(byte op) {
+        chunk.write(op);
+        chunk.writeShort(0);
+        return chunk.size() - 2;
+    }
+
+    private void patchJump(int offset) {
+        chunk.patchShort(offset, chunk.size() - offset - 2);
+    }
+
+    private void emitLoop(int loopStart) {
+        chunk.write(OpCode.LOOP);
+        chunk.writeOffset(chunk.size() - loopStart + 2);
+    }
+
+    // return expr, where the Resolver found a call in tail position: a call, or a ?: with one
+    // in a branch, each branch returning on its own
+    private void compileTail(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            compileTail(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary)expr;
+            compile(ternary.cond);
+            emit(OpCode.CHECK_TRUTHY, constant(ternary.operator));
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            compileTail(ternary.trueBranch);
+            patchJump(elseJump);
+            compileTail(ternary.falseBranch);
+        } else if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            compile(call.callee);
+            for (Expr arg : call.args) {
+                compile(arg);
+            }
+            emit(OpCode.TAIL_CALL);
+            emit(OpCode.CALL, call.args.size(), constant(call));
+            emit(OpCode.RETURN);
+        } else {
+            compile(expr);
+            emit(OpCode.RETURN);
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+}
@@ -0,0 +1,114 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled sequence of instructions + the constants they refer to.
+ * Each function (and the top level script) gets its own Chunk.
+ */
+final class Chunk {
+    private byte[] code = new byte[64];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    // Where each constant already is: numbers / strings / booleans by value, Tokens / AST nodes /
+    // protos by identity (two equal-looking Tokens on different lines aren't the same operand)
+    private final Map<Object, Integer> values = new HashMap<>();
+    private final Map<Object, Integer> objects = new IdentityHashMap<>();
+
+    /**
+     * Thrown when the chunk outgrows its u16 operands. Not a RuntimeError: there's no Token
+     * here to blame, the BytecodeCompiler knows where it was (and may just start another chunk).
+     */
+    static final class Full extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Full(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // Snapshots handed to the VM once compilation is done
+    byte[] code() {
+        return Arrays.copyOf(code, count);
+    }
+
+    Object[] constants() {
+        return constants.toArray();
+    }
+
+    int size() {
+        return count;
+    }
+
+    int constantCount() {
+        return constants.size();
+    }
+
+    // Forget everything written since size() / constantCount() were size / constantCount
+    void truncate(int size, int constantCount) {
+        count = size;
+        while (constants.size() > constantCount) {
+            Object value = constants.remove(constants.size() - 1);
+            if (isValue(value)) {
+                values.remove(value);
+            } else {
+                objects.remove(value);
+            }
+        }
+    }
+
+    void write(byte op) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[count++] = op;
+    }
+
+    void writeShort(int operand) {
+        if (operand > 0xffff) {
+            throw new Full("Too many constants, locals or arguments in one function.");
+        }
+        write((byte)((operand >> 8) & 0xff));
+        write((byte)(operand & 0xff));
+    }
+
+    // A jump offset, known already (backward jumps)
+    void writeOffset(int operand) {
+        if (operand > 0xffff) {
+            throw new Full("Too much code to jump over.");
+        }
+        writeShort(operand);
+    }
+
+    // Patch a u16 operand that was written earlier (forward jump offsets)
+    void patchShort(int offset, int operand) {
+        if (operand > 0xffff) {
+            throw new Full("Too much code to jump over.");
+        }
+        code[offset] = (byte)((operand >> 8) & 0xff);
+        code[offset + 1] = (byte)(operand & 0xff);
+    }
+
+    int addConstant(Object value) {
+        Map<Object, Integer> index = isValue(value) ? values : objects;
+        Integer idx = index.get(value);
+        if (idx != null) return idx;
+        constants.add(value);
+        index.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    // Long 1 and Double 1.0 aren't equals(), and neither are 0.0 and -0.0, so they stay apart
+    private static boolean isValue(Object value) {
+        return value instanceof Double || value instanceof Long || value instanceof String || value instanceof Boolean;
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Stmt;
+
+// The compiled form of a class declaration: its methods are compiled up front, the class itself is built at runtime
+final class ClassProto {
+    final Stmt.Class classStmt;
+    final FunctionProto[] methods;      // same order as classStmt.methods
+
+    ClassProto(Stmt.Class classStmt, FunctionProto[] methods) {
+        this.classStmt = classStmt;
+        this.methods = methods;
+    }
+}
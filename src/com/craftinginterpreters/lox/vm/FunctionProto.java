@@ -0,0 +1,26 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Stmt;
+
+/**
+ * The compiled form of a function declaration (or of the top level script).
+ * A VmFunction is a FunctionProto + the Environment it closes over.
+ */
+final class FunctionProto {
+    final Stmt.FunctionDef funcDef;     // null for the top level script
+    final int slotCount;                // size of the call's Environment (params + body locals)
+    final byte[] code;
+    final Object[] constants;
+
+    FunctionProto(Stmt.FunctionDef funcDef, int slotCount, Chunk chunk) {
+        this.funcDef = funcDef;
+        this.slotCount = slotCount;
+        this.code = chunk.code();
+        this.constants = chunk.constants();
+    }
+
+    @Override
+    public String toString() {
+        return funcDef == null ? "<script>" : "<fn: " + funcDef.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * One byte per instruction, followed by its operands. Every operand is a u16
+ * (big endian) - a constant pool index, a slot, a hop count or a jump offset.
+ *
+ * Operands that are constants holding a Token or an AST node are only there so
+ * runtime errors can point at the right line (and so the slow paths can hand
+ * the node to the shared Interpreter helpers).
+ */
+final class OpCode {
+    private OpCode() {}
+
+    // Constants
+    static final byte CONSTANT       = 0;   // k                push constants[k]
+    static final byte NIL            = 1;
+    static final byte TRUE           = 2;
+    static final byte FALSE          = 3;
+
+    // Stack
+    static final byte POP            = 4;
+    static final byte DUP            = 5;
+
+    // Variables
+    static final byte GET_GLOBAL     = 6;   // k(name)
+    static final byte SET_GLOBAL     = 7;   // k(name)          value stays on the stack
+    static final byte DEFINE_GLOBAL  = 8;   // k(name)          pops
+    static final byte GET_LOCAL      = 9;   // hops, slot, k(name)
+    static final byte SET_LOCAL      = 10;  // hops, slot       value stays on the stack
+    static final byte DEFINE_LOCAL   = 11;  // slot             pops (nil means uninitialized)
+    static final byte ASSIGN_LOCAL   = 12;  // slot             pops (current scope only)
+
+    // Scopes
+    static final byte PUSH_SCOPE     = 13;  // slotCount
+    static final byte POP_SCOPE      = 14;
+
+    // Operators (k is the operator Token)
+    static final byte ADD            = 15;  // k
+    static final byte SUBTRACT       = 16;  // k
+    static final byte MULTIPLY       = 17;  // k
+    static final byte DIVIDE         = 18;  // k
+    static final byte MODULO         = 19;  // k
+    static final byte GREATER        = 20;  // k
+    static final byte GREATER_EQUAL  = 21;  // k
+    static final byte LESS           = 22;  // k
+    static final byte LESS_EQUAL     = 23;  // k
+    static final byte BINARY         = 24;  // k                everything else (==, **, bitwise, ...)
+    static final byte NEGATE         = 25;  // k
+    static final byte UNARY          = 26;  // k                everything else (!, ~)
+    static final byte TRUTHY         = 27;  //                  replace top with its truthiness
+    static final byte CHECK_TRUTHY   = 28;  // k                ternary condition check, leaves value
+    static final byte CHECK_NUMBER   = 29;  // k                ++ / -- operand check, leaves value
+
+    // Control flow
+    static final byte JUMP           = 30;  // offset
+    static final byte JUMP_IF_FALSE  = 31;  // offset           pops the condition
+    static final byte LOOP           = 32;  // offset           jumps backwards
+    static final byte FAIL           = 33;  // k(token), k(msg) throws a RuntimeError
+
+    // Iteration (stack holds [iterable, index] for the whole loop)
+    static final byte FOREACH_INIT   = 34;  // k(iterator name) checks iterable, pushes index 0
+    static final byte FOREACH_NEXT   = 35;  // offset           pushes next element or jumps out
+
+    // Functions & classes
+    static final byte CALL           = 36;  // argc, k(Expr.Call)
+    static final byte CLOSURE        = 37;  // k(FunctionProto)
+    static final byte RETURN         = 38;
+    static final byte CLASS          = 39;  // k(ClassProto)    pops the superclasses
+    static final byte GET_PROPERTY   = 40;  // k(Expr.Get)
+    static final byte CHECK_INSTANCE = 41;  // k(Expr.Set)      leaves value
+    static final byte SET_PROPERTY   = 42;  // k(Expr.Set)      [instance, value] -> value
+    static final byte SUPER          = 43;  // k(Expr.Super)
+
+    // Collections
+    static final byte INDEX          = 44;  // k(Expr.Index)         [object, idx, idx2 | nil]
+    static final byte INDEX_PREFIX   = 45;  // k(Expr.IndexPrefix)   [object, idx]
+    static final byte INDEX_POSTFIX  = 46;  // k(Expr.IndexPostfix)  [object, idx]
+    static final byte INDEX_ASSIGN   = 47;  // k(Expr.IndexAssign)   [object, idx, value]
+    static final byte LIST           = 48;  // count
+    static final byte MAP            = 49;  // count (of key / value pairs)
+
+    static final byte PRINT          = 50;
+
+    // return f(...) in tail position: TAIL_CALL, CALL, RETURN. If f is a VmFunction it takes
+    // over the current frame, otherwise the CALL & RETURN that follow run as usual.
+    static final byte TAIL_CALL      = 51;
+}
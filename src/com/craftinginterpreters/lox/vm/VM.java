@@ -0,0 +1,657 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Environment;
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Interpreter;
+import com.craftinginterpreters.lox.Lox;
+import com.craftinginterpreters.lox.LoxClass;
+import com.craftinginterpreters.lox.LoxFunction;
+import com.craftinginterpreters.lox.LoxInstance;
+import com.craftinginterpreters.lox.LoxList;
+import com.craftinginterpreters.lox.LoxMap;
+import com.craftinginterpreters.lox.LoxNumber;
+import com.craftinginterpreters.lox.LoxRope;
+import com.craftinginterpreters.lox.LoxTuple;
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Token;
+
+/**
+ * What?
+ *  The bytecode backend (jlox --engine=vm): a stack machine running what
+ *  BytecodeCompiler produces.
+ *
+ * How?
+ *  - One value stack and one array of call frames, shared by every call.
+ *  - Lox -> Lox calls push a frame and keep going in the same dispatch loop (no Java recursion).
+ *  - When Java code calls a VmFunction (LoxClass.call running init, getters, ...) we re-enter
+ *    run() on top of the frames already there and come back out once that frame returns.
+ *  - Globals, natives and everything that isn't on a hot path (indexing, property access,
+ *    super, non-VM callees) go through the same Interpreter helpers the tree walker uses, so
+ *    both engines agree on semantics and error messages.
+ */
+public final class VM {
+    private final Interpreter interpreter;  // owns globals, natives & the shared runtime helpers
+    private final Environment globals;
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+
+    private static final class Frame {
+        VmFunction function;    // null for the top level script
+        byte[] code;
+        Object[] constants;
+        int ip;
+        Environment env;
+        int base;               // stack height when the frame was entered
+    }
+
+    public VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    public void interpret(List<Stmt> statements) {
+        try {
+            List<FunctionProto> script = new BytecodeCompiler().compileScript(statements);
+            for (FunctionProto chunk : script) {
+                reset();
+                pushFrame(null, chunk, globals);
+                run(0);
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    // For DEBUG (REPL expressions)
+    public void interpretExpression(Expr expr) {
+        try {
+            FunctionProto script = new BytecodeCompiler().compileExpression(expr);
+            reset();
+            pushFrame(null, script, globals);
+            Object value = run(0);
+            value = LoxRope.flatten(value);
+            if (value instanceof String || value instanceof Character) {
+                value = "'" + (String)value + "'";
+            }
+            System.out.println(interpreter.stringify(value));
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    // Java calling into Lox (see VmFunction.call)
+    Object call(VmFunction function, List<Object> args) {
+        Environment env = new Environment(function.closure(), function.proto.slotCount);
+        int N = args.size();
+        for (int i = 0; i < N; i++) {
+            env.define(i, args.get(i));    // params occupy the first N slots
+        }
+
+        int savedSp = sp;
+        int savedFrameCount = frameCount;
+        try {
+            pushFrame(function, function.proto, env);
+            return run(savedFrameCount);
+        } finally {
+            sp = savedSp;
+            frameCount = savedFrameCount;
+        }
+    }
+
+    /**
+     * The dispatch loop. Runs until the frame that was on top when we got here returns
+     * (i.e. frameCount drops back to exitDepth) and hands back what it returned.
+     */
+    private Object run(int exitDepth) {
+        Frame frame = frames[frameCount - 1];
+        byte[] code = frame.code;
+        Object[] constants = frame.constants;
+        int ip = frame.ip;
+        Environment env = frame.env;
+
+        for (;;) {
+            byte op = code[ip++];
+            switch (op) {
+                // Constants
+                case OpCode.CONSTANT:
+                    push(constants[u16(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    push(null);
+                    break;
+                case OpCode.TRUE:
+                    push(true);
+                    break;
+                case OpCode.FALSE:
+                    push(false);
+                    break;
+
+                // Stack
+                case OpCode.POP:
+                    stack[--sp] = null;
+                    break;
+                case OpCode.DUP:
+                    push(stack[sp - 1]);
+                    break;
+
+                // Variables
+                case OpCode.GET_GLOBAL:
+                    push(globals.get((Token)constants[u16(code, ip)]));
+                    ip += 2;
+                    break;
+                case OpCode.SET_GLOBAL:
+                    globals.update((Token)constants[u16(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    globals.define(((Token)constants[u16(code, ip)]).lexeme, pop());
+                    ip += 2;
+                    break;
+                case OpCode.GET_LOCAL: {
+                    int hops = u16(code, ip);
+                    int slot = u16(code, ip + 2);
+                    Token name = (Token)constants[u16(code, ip + 4)];
+                    ip += 6;
+                    push(env.getAt(name, hops, slot));
+                    break;
+                }
+                case OpCode.SET_LOCAL:
+                    env.assignAt(u16(code, ip), u16(code, ip + 2), stack[sp - 1]);
+                    ip += 4;
+                    break;
+                case OpCode.DEFINE_LOCAL:
+                    env.define(u16(code, ip), pop());
+                    ip += 2;
+                    break;
+                case OpCode.ASSIGN_LOCAL:
+                    env.assign(u16(code, ip), pop());
+                    ip += 2;
+                    break;
+
+                // Scopes
+                case OpCode.PUSH_SCOPE:
+                    env = new Environment(env, u16(code, ip));
+                    ip += 2;
+                    break;
+                case OpCode.POP_SCOPE:
+                    env = env.enclosing;
+                    break;
+
+                // Operators - all-double / all-integer fast paths, everything else goes to Interpreter.binaryOp
+                case OpCode.ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double ?
+                        (Object)((double)left + (double)right) :
+                    left instanceof Long && right instanceof Long ?
+                        LoxNumber.add((long)left, (long)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double ?
+                        (Object)((double)left - (double)right) :
+                    left instanceof Long && right instanceof Long ?
+                        LoxNumber.subtract((long)left, (long)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double ?
+                        (Object)((double)left * (double)right) :
+                    left instanceof Long && right instanceof Long ?
+                        LoxNumber.multiply((long)left, (long)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double && (double)right != 0 ?
+                        (Object)((double)left / (double)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.MODULO: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double && (double)right != 0 ?
+                        (Object)((double)left % (double)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double ?
+                        (Object)((double)left > (double)right) :
+                    left instanceof Long && right instanceof Long ?
+                        (Object)((long)left > (long)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double ?
+                        (Object)((double)left >= (double)right) :
+                    left instanceof Long && right instanceof Long ?
+                        (Object)((long)left >= (long)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double ?
+                        (Object)((double)left < (double)right) :
+                    left instanceof Long && right instanceof Long ?
+                        (Object)((long)left < (long)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = left instanceof Double && right instanceof Double ?
+                        (Object)((double)left <= (double)right) :
+                    left instanceof Long && right instanceof Long ?
+                        (Object)((long)left <= (long)right) :
+                        interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.BINARY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    stack[sp - 1] = interpreter.binaryOp((Token)constants[u16(code, ip)], left, right);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.NEGATE: {
+                    Object right = stack[sp - 1];
+                    stack[sp - 1] = right instanceof Double ?
+                        (Object)(-(double)right) :
+                        interpreter.unaryOp((Token)constants[u16(code, ip)], right);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.UNARY:
+                    stack[sp - 1] = interpreter.unaryOp((Token)constants[u16(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.TRUTHY:
+                    stack[sp - 1] = isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.CHECK_TRUTHY:
+                    interpreter.checkTruthyOperand((Token)constants[u16(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.CHECK_NUMBER:
+                    interpreter.checkNumberOperand((Token)constants[u16(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+
+                // Control flow
+                case OpCode.JUMP:
+                    ip += u16(code, ip) + 2;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (isTruthy(pop())) {
+                        ip += 2;
+                    } else {
+                        ip += u16(code, ip) + 2;
+                    }
+                    break;
+                case OpCode.LOOP:
+                    ip -= u16(code, ip) - 2;
+                    break;
+                case OpCode.FAIL:
+                    throw new RuntimeError((Token)constants[u16(code, ip)], (String)constants[u16(code, ip + 2)]);
+
+                // Iteration
+                case OpCode.FOREACH_INIT: {
+                    Object iterable = stack[sp - 1];
+                    if (!(iterable instanceof LoxList) &&
+                        !(iterable instanceof LoxMap)  &&
+                        !(iterable instanceof LoxTuple)) {
+                            Lox.error((Token)constants[u16(code, ip)], "Can only iterate over iterables.");
+                    }
+                    push(0);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.FOREACH_NEXT: {
+                    Object iterable = stack[sp - 2];
+                    int i = (Integer)stack[sp - 1];
+                    // size is re-read every time around, so the body can grow / shrink the iterable
+                    if (iterable instanceof LoxList && i < ((LoxList)iterable).size()) {
+                        stack[sp - 1] = i + 1;
+                        push(((LoxList)iterable).getAt(i));
+                        ip += 2;
+                    } else if (iterable instanceof LoxTuple && i < ((LoxTuple)iterable).size()) {
+                        stack[sp - 1] = i + 1;
+                        push(((LoxTuple)iterable).getAt(i));
+                        ip += 2;
+                    } else if (iterable instanceof LoxMap && i < ((LoxMap)iterable).size()) {
+                        stack[sp - 1] = i + 1;
+                        push(((LoxMap)iterable).getAt(i));
+                        ip += 2;
+                    } else {
+                        ip += u16(code, ip) + 2;
+                    }
+                    break;
+                }
+
+                // Functions & classes
+                case OpCode.CALL: {
+                    int argc = u16(code, ip);
+                    Expr.Call call = (Expr.Call)constants[u16(code, ip + 2)];
+                    ip += 4;
+                    Object callee = stack[sp - argc - 1];
+
+                    if (callee instanceof VmFunction && ((VmFunction)callee).arity() == argc) {
+                        // Lox -> Lox: args go straight from the stack into the callee's slots
+                        VmFunction function = (VmFunction)callee;
+                        Environment callEnv = new Environment(function.closure(), function.proto.slotCount);
+                        for (int i = 0; i < argc; i++) {
+                            callEnv.define(i, stack[sp - argc + i]);
+                        }
+                        popN(argc + 1);
+
+                        frame.ip = ip;
+                        frame.env = env;
+                        if (frameCount > interpreter.maxDepth()) {     // the script's frame isn't a call
+                            throw new RuntimeError(call.paren, "Maximum call depth (" + interpreter.maxDepth() + ") exceeded.");
+                        }
+                        frame = pushFrame(function, function.proto, callEnv);
+                        code = frame.code;
+                        constants = frame.constants;
+                        ip = 0;
+                        env = callEnv;
+                        break;
+                    }
+
+                    // Natives, classes, list / map methods, ...
+                    List<Object> args = new ArrayList<>(argc);
+                    for (int i = 0; i < argc; i++) {
+                        args.add(stack[sp - argc + i]);
+                    }
+                    popN(argc + 1);
+                    push(interpreter.call(call, callee, args));
+                    break;
+                }
+                case OpCode.TAIL_CALL: {
+                    int argc = u16(code, ip + 1);     // the CALL's
+                    Object callee = stack[sp - argc - 1];
+                    if (!(callee instanceof VmFunction) || ((VmFunction)callee).arity() != argc) {
+                        break;      // not ours to replace the frame with: CALL it, then RETURN
+                    }
+
+                    // Lox -> Lox: the callee takes over this frame, as if we'd returned and
+                    // the caller had called it (a tail call's result is ours, so it's the same)
+                    VmFunction function = (VmFunction)callee;
+                    Environment callEnv = new Environment(function.closure(), function.proto.slotCount);
+                    for (int i = 0; i < argc; i++) {
+                        callEnv.define(i, stack[sp - argc + i]);
+                    }
+                    popN(sp - frame.base);
+                    frame.function = function;
+                    frame.code = code = function.proto.code;
+                    frame.constants = constants = function.proto.constants;
+                    frame.env = env = callEnv;
+                    ip = 0;
+                    break;
+                }
+                case OpCode.CLOSURE:
+                    push(new VmFunction(this, (FunctionProto)constants[u16(code, ip)], env, false, false, false));
+                    ip += 2;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = pop();
+                    if (frame.function != null) result = frame.function.returnValue(result);
+                    popN(sp - frame.base);
+                    frame.function = null;
+                    frame.env = null;
+                    frameCount--;
+                    if (frameCount == exitDepth) return result;
+
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    constants = frame.constants;
+                    ip = frame.ip;
+                    env = frame.env;
+                    push(result);
+                    break;
+                }
+                case OpCode.CLASS:
+                    defineClass((ClassProto)constants[u16(code, ip)], env);
+                    ip += 2;
+                    break;
+                case OpCode.GET_PROPERTY:
+                    stack[sp - 1] = interpreter.getProperty((Expr.Get)constants[u16(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.CHECK_INSTANCE:
+                    if (!(stack[sp - 1] instanceof LoxInstance)) {
+                        throw new RuntimeError(((Expr.Set)constants[u16(code, ip)]).name,
+                            "Properties can only be set for instances.");
+                    }
+                    ip += 2;
+                    break;
+                case OpCode.SET_PROPERTY: {
+                    Object value = pop();
+                    LoxInstance instance = (LoxInstance)pop();
+                    instance.set((Expr.Set)constants[u16(code, ip)], value);
+                    push(value);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SUPER:
+                    push(interpreter.superProperty((Expr.Super)constants[u16(code, ip)], env));
+                    ip += 2;
+                    break;
+
+                // Collections
+                case OpCode.INDEX: {
+                    Object idx2 = pop();
+                    Object idx = pop();
+                    Object object = pop();
+                    push(interpreter.index((Expr.Index)constants[u16(code, ip)], object, idx, idx2));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.INDEX_PREFIX: {
+                    Object idx = pop();
+                    Object object = pop();
+                    push(interpreter.indexPrefix((Expr.IndexPrefix)constants[u16(code, ip)], object, idx));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.INDEX_POSTFIX: {
+                    Object idx = pop();
+                    Object object = pop();
+                    push(interpreter.indexPostfix((Expr.IndexPostfix)constants[u16(code, ip)], object, idx));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.INDEX_ASSIGN: {
+                    Object value = pop();
+                    Object idx = pop();
+                    Object object = pop();
+                    push(interpreter.indexAssign((Expr.IndexAssign)constants[u16(code, ip)], object, idx, value));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.LIST: {
+                    int count = u16(code, ip);
+                    List<Object> list = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        list.add(stack[sp - count + i]);
+                    }
+                    popN(count);
+                    push(new LoxList(list));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.MAP: {
+                    int count = u16(code, ip);
+                    LoxMap map = new LoxMap();
+                    for (int i = 0; i < count; i++) {
+                        map.put(stack[sp - 2 * (count - i)], stack[sp - 2 * (count - i) + 1]);
+                    }
+                    popN(2 * count);
+                    push(map);
+                    ip += 2;
+                    break;
+                }
+
+                case OpCode.PRINT:
+                    System.out.println(interpreter.stringify(pop()));
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown opcode " + op + ".");
+            }
+        }
+    }
+
+    //==================
+    // Helper methods
+    //==================
+
+    // Same steps as Interpreter.visitClassStmt, but the class scope is local instead of swapped into a field
+    private void defineClass(ClassProto proto, Environment env) {
+        Stmt.Class classStmt = proto.classStmt;
+        int count = classStmt.superClasses.size();
+
+        List<LoxClass> superClasses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Object superClass = stack[sp - count + i];
+            if (!(superClass instanceof LoxClass)) {
+                Lox.error(classStmt.superClasses.get(i).name,
+                "superclass must be a class.");
+            }
+            superClasses.add((LoxClass)superClass);
+        }
+        popN(count);
+
+        if (classStmt.slot == -1) {
+            globals.define(classStmt.name.lexeme, null);
+        } else {
+            env.define(classStmt.slot, null);
+        }
+
+        Environment classEnv = env;
+        if (!superClasses.isEmpty()) {
+            classEnv = new Environment(env, 1);
+            classEnv.define(0, superClasses);  // "super" is the only slot in this scope
+        }
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (int i = 0; i < proto.methods.length; i++) {
+            Stmt.FunctionDef method = classStmt.methods.get(i);
+            LoxFunction function = new VmFunction(
+                                                    this,
+                                                    proto.methods[i],
+                                                    classEnv,
+                                                    method.name.lexeme.equals("init"),
+                                                    method.isStaticMethod,
+                                                    method.isGetterMethod
+                                                 );
+            methods.put(method.name.lexeme, function);
+        }
+        LoxClass klass = new LoxClass(classStmt.name.lexeme, superClasses, methods);
+
+        if (classStmt.slot == -1) {
+            globals.update(classStmt.name, klass);
+        } else {
+            env.assign(classStmt.slot, klass);
+        }
+    }
+
+    private Frame pushFrame(VmFunction function, FunctionProto proto, Environment env) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        Frame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new Frame();    // frames are reused, only allocated the first time we get this deep
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.function = function;
+        frame.code = proto.code;
+        frame.constants = proto.constants;
+        frame.ip = 0;
+        frame.env = env;
+        frame.base = sp;
+        return frame;
+    }
+
+    private void reset() {
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+    }
+
+    private boolean isTruthy(Object value) {
+        if (value instanceof Boolean) return (Boolean)value;
+        return interpreter.getTruthiness(value);
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;   // don't keep garbage reachable from the stack
+        return value;
+    }
+
+    private void popN(int n) {
+        Arrays.fill(stack, sp - n, sp, null);
+        sp -= n;
+    }
+
+    private static int u16(byte[] code, int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+}
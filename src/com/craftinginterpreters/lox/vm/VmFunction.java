@@ -0,0 +1,47 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.Environment;
+import com.craftinginterpreters.lox.Interpreter;
+import com.craftinginterpreters.lox.LoxFunction;
+import com.craftinginterpreters.lox.LoxInstance;
+
+/**
+ * A LoxFunction whose body is bytecode.
+ * Extending LoxFunction means LoxClass / LoxInstance (method lookup, binding, getters, init)
+ * work unchanged. Calls made from bytecode never go through call() - the VM pushes a frame
+ * instead - call() is only for when Java code (e.g. LoxClass.call running init) calls us.
+ */
+final class VmFunction extends LoxFunction {
+    final FunctionProto proto;
+    private final VM vm;
+
+    VmFunction(VM vm, FunctionProto proto, Environment closure, Boolean isInit, Boolean isStatic, Boolean isGetter) {
+        super(proto.funcDef, closure, isInit, isStatic, isGetter);
+        this.proto = proto;
+        this.vm = vm;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        return vm.call(this, args);
+    }
+
+    @Override
+    public LoxFunction bind(LoxInstance instance) {
+        Environment environment = new Environment(closure, 1);
+        environment.define(0, instance);    // "this" is the only slot in this scope
+        return new VmFunction(vm, proto, environment, isInitializer, isStatic, isGetter);
+    }
+
+    Environment closure() {
+        return closure;
+    }
+
+    // What a call actually evaluates to once the body returns value (initializers always give back 'this')
+    Object returnValue(Object value) {
+        if (isInitializer) return closure.getAt(THIS, 0, 0);
+        return value;
+    }
+}
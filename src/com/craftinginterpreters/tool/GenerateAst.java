@@ -13,43 +13,48 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
+        /**
+         * Fields listed after a ';' are not constructor params. They're mutable
+         * and get filled in later (e.g. by the Resolver), starting from the
+         * given default value.
+         */
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Binary : Expr left, Token operator, Expr right",
+            "Binary : Expr left, Token operator, Expr right ; int specialization = 0",
             "Grouping : Expr expression",
             "Literal : Object value",
             "Unary : Token operator, Expr right",
             "Ternary : Expr cond, Token operator, Expr trueBranch, Expr falseBranch",
-            "Variable : Token name",
-            "Assign : Token name, Expr rhs",
+            "Variable : Token name ; int depth = -1, int slot = -1",
+            "Assign : Token name, Expr rhs ; int depth = -1, int slot = -1",
             "Index : Token lbrack, Expr object, Expr idxExpr, Expr idxExpr2",
             "IndexPrefix : Token operator, Expr object, Expr idxExpr",
             "IndexPostfix : Token operator, Expr object, Expr idxExpr",
             "IndexAssign : Token lbrack, Expr object, Expr idxExpr, Expr rhs",
-            "Prefix : Token operator, Token name",
-            "Postfix : Token name, Token operator",
-            "Call : Expr callee, Token paren, List<Expr> args",
+            "Prefix : Token operator, Token name ; int depth = -1, int slot = -1",
+            "Postfix : Token name, Token operator ; int depth = -1, int slot = -1",
+            "Call : Expr callee, Token paren, List<Expr> args ; Environment thisScope = null",
             "Anonymous : List<Token> params, Stmt body",
-            "Get : Expr object, Token name",
-            "Set : Expr object, Token name, Expr rhs",
-            "This: Token keyword",
-            "Super: Token keyword, Token property",
+            "Get : Expr object, Token name ; PropertyCache cache = null",
+            "Set : Expr object, Token name, Expr rhs ; PropertyCache cache = null",
+            "This: Token keyword ; int depth = -1, int slot = -1",
+            "Super: Token keyword, Token property ; int depth = -1, int slot = -1",
             "ListExpr: List<Expr> exprs",
             "MapExpr: List<Map<Expr,Expr>> KeyValuePairs"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
             "Expression : Expr expression",
             "Print : Expr expression",
-            "Var : Token name, Expr initializer",
+            "Var : Token name, Expr initializer ; int slot = -1",
             "If : Expr condition, Stmt thenStmt, Stmt elseStmt",
             "While : Expr condition, Stmt body",
             "For : Stmt initialization, Expr condition, Stmt update, Stmt body",
             "Foreach : Expr.Variable iterator, Expr iterable, Stmt body",
-            "Block : List<Stmt> statements",
+            "Block : List<Stmt> statements ; int slotCount = 0",
             "Break : Token keyword",
             "Continue : Token keyword",
-            "FunctionDef : Token name, List<Token> params, Stmt body, Boolean isStaticMethod, Boolean isGetterMethod",
-            "Return : Token keyword, Expr value",
-            "Class : Token name, List<Expr.Variable> superClasses, List<Stmt.FunctionDef> methods"
+            "FunctionDef : Token name, List<Token> params, Stmt body, Boolean isStaticMethod, Boolean isGetterMethod ; int slot = -1",
+            "Return : Token keyword, Expr value ; boolean tailCall = false",
+            "Class : Token name, List<Expr.Variable> superClasses, List<Stmt.FunctionDef> methods ; int slot = -1"
         ));
     }
 
@@ -62,9 +67,9 @@ public class GenerateAst {
         writer.println("import java.util.List;");
         writer.println("import java.util.Map;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("public abstract class " + baseName + " {");
         defineVisitor(writer, baseName, types);
-        writer.println("\tabstract <R> R accept(" + baseName + "Visitor<R> visitor);");
+        writer.println("\tpublic abstract <R> R accept(" + baseName + "Visitor<R> visitor);");
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields; 
@@ -73,17 +78,22 @@ public class GenerateAst {
             } else {
                 fields = "";
             }
-            defineType(writer, baseName, className, fields);
+            String mutableFields = "";
+            if (fields.contains(";")) {
+                mutableFields = fields.split(";")[1].trim();
+                fields = fields.split(";")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, mutableFields);
         }
         writer.println("}");
         writer.close();
     }
 
-    public static void defineType(PrintWriter writer, String baseName, String className, String fieldList) throws IOException {
-        writer.println("\tstatic class " + className + " extends " + baseName + " {");
+    public static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String mutableFieldList) throws IOException {
+        writer.println("\tpublic static class " + className + " extends " + baseName + " {");
 
         // Constructor
-        writer.println("\t\t" + className + "(" + fieldList + ") {");
+        writer.println("\t\tpublic " + className + "(" + fieldList + ") {");
 
         // Store params in fields
         String[] fields = new String[0];
@@ -133,14 +143,21 @@ public class GenerateAst {
 
         // Define fields
         for (String field : fields) {
-            writer.println("\t\tfinal " + field.trim() + ";");
+            writer.println("\t\tpublic final " + field.trim() + ";");
+        }
+
+        // Define mutable fields (no generics in these, so a plain split is fine)
+        if (!mutableFieldList.equals("")) {
+            for (String field : mutableFieldList.split(",")) {
+                writer.println("\t\tpublic " + field.trim() + ";");
+            }
         }
         
         writer.println("\t}");
     }
 
     public static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("\tinterface " + baseName + "Visitor<R> {");
+        writer.println("\tpublic interface " + baseName + "Visitor<R> {");
         String hack = null;
         for (String type : types) {
             String typeName = type.split(":")[0].trim();